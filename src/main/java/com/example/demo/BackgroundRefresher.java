@@ -0,0 +1,249 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Refreshes expired cache entries in the background so that clients can be served the stale copy right away
+ * (stale-while-revalidate). Pending refreshes are taken hottest first, by the cache's access frequency; at most
+ * {@code maxPerOrigin} of them run against the same origin at once, and the queue holds at most
+ * {@code maxQueued} entries, further requests being dropped until it drains.
+ * A refresh is a request of the proxy's own: it carries the stored validators and nothing from the client whose
+ * request found the entry stale, so no credentials, cookies or conditionals of theirs reach the origin.
+ */
+public class BackgroundRefresher {
+    private final ProxyCache cache;
+    private final UpstreamConnectionPool upstreamPool;
+    private final LogBuffer log;
+    private final long staleWindowMillis;
+    private final int maxPerOrigin;
+    private final int maxQueued;
+    private final PriorityQueue<RefreshTask> queue = new PriorityQueue<>(); // Guarded by this
+    private final Map<String, RefreshTask> pending = new HashMap<>(); // Queued or running, by cache key, guarded by this
+    private final Map<String, Integer> activePerOrigin = new HashMap<>(); // Guarded by this
+    private final List<Thread> workers = new ArrayList<>();
+    private long refreshed;
+    private long dropped;
+    private boolean shutdown;
+
+    private BackgroundRefresher(ProxyCache cache, UpstreamConnectionPool upstreamPool, LogBuffer log, long staleWindowMillis, int threads, int maxPerOrigin, int maxQueued) {
+        this.cache = cache;
+        this.upstreamPool = upstreamPool;
+        this.log = log;
+        this.staleWindowMillis = staleWindowMillis;
+        this.maxPerOrigin = maxPerOrigin;
+        this.maxQueued = maxQueued;
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(this::work, "cache-refresher-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+        }
+    }
+
+    /**
+     * Creates the refresher and starts its {@code threads} workers.
+     */
+    public static BackgroundRefresher start(ProxyCache cache, UpstreamConnectionPool upstreamPool, LogBuffer log, long staleWindowMillis, int threads, int maxPerOrigin, int maxQueued) {
+        BackgroundRefresher refresher = new BackgroundRefresher(cache, upstreamPool, log, staleWindowMillis, threads, maxPerOrigin, maxQueued);
+        for (Thread worker : refresher.workers) {
+            worker.start(); // Only once the refresher is fully constructed
+        }
+        return refresher;
+    }
+
+    /**
+     * Builds the refresher from {@code proxy.cache.staleWhileRevalidateMillis} (used when a response names no
+     * window of its own; default 0, so only responses carrying {@code stale-while-revalidate} are served stale),
+     * {@code proxy.cache.refreshThreads} (default 4), {@code proxy.cache.refreshPerOrigin} (default 2) and
+     * {@code proxy.cache.refreshQueue} (default 1000).
+     */
+    public static BackgroundRefresher fromSystemProperties(ProxyCache cache, UpstreamConnectionPool upstreamPool, LogBuffer log) {
+        return start(cache, upstreamPool, log, Long.getLong("proxy.cache.staleWhileRevalidateMillis", 0L),
+                Integer.getInteger("proxy.cache.refreshThreads", 4), Integer.getInteger("proxy.cache.refreshPerOrigin", 2),
+                Integer.getInteger("proxy.cache.refreshQueue", 1000));
+    }
+
+    /**
+     * Whether {@code entry}, already expired, may be served now and refreshed afterwards.
+     */
+    public boolean canServeStale(CachedResources entry) {
+        return !shutdown && entry.canServeWhileRevalidating(staleWindowMillis);
+    }
+
+    /**
+     * Queues a refresh of the stale entry, revalidating it when it has validators. The caller keeps its own
+     * reference to {@code stale}. Returns {@code false} if the refresh was not queued (already pending, the queue
+     * is full, or the entry was freed meanwhile).
+     */
+    public boolean schedule(URL url, String key, CachedResources stale) {
+        RefreshTask task = new RefreshTask(url, key, stale, cache.getFrequency(key));
+        synchronized (this) {
+            if (shutdown || pending.containsKey(key)) {
+                return false;
+            }
+            if (queue.size() >= maxQueued) {
+                dropped++;
+                return false; // The next request for the entry will try again
+            }
+            if (!stale.retain()) {
+                return false;
+            }
+            pending.put(key, task);
+            queue.add(task);
+            notifyAll();
+        }
+        return true;
+    }
+
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    public synchronized long getRefreshed() {
+        return refreshed;
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Stops the workers after their current refresh and drops everything still queued.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            for (RefreshTask task : queue) {
+                task.stale.release();
+            }
+            queue.clear();
+            pending.clear();
+            notifyAll();
+        }
+        for (Thread worker : workers) {
+            worker.interrupt(); // A refresh blocked on a busy origin gives up
+        }
+    }
+
+    private void work() {
+        while (true) {
+            RefreshTask task;
+            try {
+                task = next();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (task == null) {
+                return;
+            }
+            try {
+                refresh(task);
+            } catch (IOException | RuntimeException e) {
+                log.log(LogBuffer.Level.WARN, "Background refresh failed for " + task.key + ": " + e.getMessage());
+            } finally {
+                task.stale.release();
+                finished(task);
+            }
+        }
+    }
+
+    /**
+     * Takes the hottest queued task whose origin is below its concurrency limit, waiting while there is none.
+     * Returns {@code null} once shut down.
+     */
+    private synchronized RefreshTask next() throws InterruptedException {
+        while (!shutdown) {
+            List<RefreshTask> skipped = new ArrayList<>();
+            RefreshTask task;
+            while ((task = queue.poll()) != null && activePerOrigin.getOrDefault(task.origin, 0) >= maxPerOrigin) {
+                skipped.add(task); // Origin busy, keep its place for later
+            }
+            queue.addAll(skipped);
+            if (task != null) {
+                activePerOrigin.merge(task.origin, 1, Integer::sum);
+                return task;
+            }
+            wait();
+        }
+        return null;
+    }
+
+    private synchronized void finished(RefreshTask task) {
+        pending.remove(task.key, task);
+        if (activePerOrigin.merge(task.origin, -1, Integer::sum) == 0) {
+            activePerOrigin.remove(task.origin);
+        }
+        notifyAll(); // A task held back by this origin's limit may run now
+    }
+
+    private void refresh(RefreshTask task) throws IOException {
+        CachedResources stale = task.stale;
+        String headers = stale.getConditionalHeaders();
+        long requestTime = System.currentTimeMillis();
+        CacheTee[] copy = new CacheTee[1];
+        HttpResponseHead response;
+        try {
+            response = ServerHandler.forwardRequest(upstreamPool, task.url, "GET", HeaderUtils.processHeaders(headers, task.url, "GET", true), null, head -> {
+                copy[0] = new CacheTee(OutputStream.nullOutputStream(), ServerHandler.MAX_CACHEABLE_SIZE, head.getContentLength());
+                if (head.getStatusCode() == 304 || !CachedResources.isCacheable(headers, head)) {
+                    copy[0].abandon();
+                }
+                return copy[0];
+            });
+        } catch (IOException | RuntimeException e) {
+            if (copy[0] != null) {
+                copy[0].abandon();
+            }
+            throw e;
+        }
+        long responseTime = System.currentTimeMillis();
+
+        CachedResources fresh;
+        if (response.getStatusCode() == 304 && stale.hasValidators()) {
+            fresh = stale.revalidated(response, requestTime, responseTime);
+        } else {
+            OffHeapBody body = copy[0].finish();
+            if (body == null) {
+                cache.remove(task.key); // The origin's answer can't be stored, stop serving the old one
+                return;
+            }
+            fresh = new CachedResources(task.url, response, body, requestTime, responseTime);
+        }
+        cache.put(task.key, fresh);
+        fresh.release();
+        synchronized (this) {
+            refreshed++;
+        }
+    }
+
+    private static final class RefreshTask implements Comparable<RefreshTask> {
+        private final URL url;
+        private final String key;
+        private final String origin;
+        private final CachedResources stale; // Holds a reference while queued or running
+        private final int frequency;
+
+        private RefreshTask(URL url, String key, CachedResources stale, int frequency) {
+            this.url = url;
+            this.key = key;
+            this.origin = url.getHost() + ":" + port(url);
+            this.stale = stale;
+            this.frequency = frequency;
+        }
+
+        private static int port(URL url) {
+            return url.getPort() == -1 ? 80 : url.getPort();
+        }
+
+        @Override
+        public int compareTo(RefreshTask other) {
+            return Integer.compare(other.frequency, frequency); // Most frequently hit first
+        }
+    }
+}
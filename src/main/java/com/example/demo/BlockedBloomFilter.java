@@ -0,0 +1,48 @@
+package com.example.demo;
+
+/**
+ * Bloom filter whose probes for one key all land in the same 512-bit block, so a lookup touches a single cache
+ * line. Callers supply a well-mixed 64-bit hash: the high half picks the block, the low half the bits.
+ */
+final class BlockedBloomFilter {
+    private static final int LONGS_PER_BLOCK = 8; // 64 bytes
+    private static final int PROBES = 7;
+
+    private final long[] bits;
+    private final int blocks;
+
+    BlockedBloomFilter(long expectedKeys, int bitsPerKey) {
+        long wanted = (Math.max(1, expectedKeys) * bitsPerKey + 511) / 512;
+        this.blocks = (int) Math.min(wanted, Integer.MAX_VALUE / LONGS_PER_BLOCK);
+        this.bits = new long[blocks * LONGS_PER_BLOCK];
+    }
+
+    void add(long hash) {
+        int base = block(hash);
+        int h = (int) hash;
+        int step = (h >>> 16) | 1;
+        for (int i = 0; i < PROBES; i++, h += step) {
+            bits[base + ((h >>> 6) & (LONGS_PER_BLOCK - 1))] |= 1L << h;
+        }
+    }
+
+    boolean mightContain(long hash) {
+        int base = block(hash);
+        int h = (int) hash;
+        int step = (h >>> 16) | 1;
+        for (int i = 0; i < PROBES; i++, h += step) {
+            if ((bits[base + ((h >>> 6) & (LONGS_PER_BLOCK - 1))] & (1L << h)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    long getSizeInBytes() {
+        return (long) bits.length * Long.BYTES;
+    }
+
+    private int block(long hash) {
+        return (int) (((hash >>> 32) * blocks) >>> 32) * LONGS_PER_BLOCK; // Multiply-shift instead of a modulo
+    }
+}
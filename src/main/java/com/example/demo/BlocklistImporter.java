@@ -0,0 +1,267 @@
+package com.example.demo;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.IDN;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Streams a blocklist file into {@code filtered_hosts}. Understands hosts files ({@code 0.0.0.0 example.com}),
+ * adblock network rules ({@code ||example.com^}) and plain lists of rules, one per line; comments, cosmetic and
+ * exception rules, and rules with options are skipped. Every host is normalized to the rule syntax of
+ * {@link HostMatcher}.
+ * Rules go into a temporary table through {@code COPY} (or JDBC batches when the driver isn't PostgreSQL's) and
+ * are merged with a single {@code INSERT ... SELECT DISTINCT}, so duplicates are dropped by the database rather
+ * than held in memory, and the whole import is one transaction.
+ */
+public class BlocklistImporter {
+    private static final int BATCH_SIZE = 10_000;
+    private static final int COPY_CHUNK = 64 * 1024;
+    private static final Set<String> LOCAL_NAMES = Set.of("localhost", "localhost.localdomain", "local", "broadcasthost",
+            "ip6-localhost", "ip6-loopback", "ip6-localnet", "ip6-mcastprefix", "ip6-allnodes", "ip6-allrouters", "ip6-allhosts", "0.0.0.0");
+
+    public Result importFile(Path file) throws IOException, SQLException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8), COPY_CHUNK)) {
+            return importLines(reader);
+        }
+    }
+
+    public Result importLines(BufferedReader reader) throws IOException, SQLException {
+        try (Connection connection = DatabaseConnection.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("CREATE TEMP TABLE import_hosts (host TEXT) ON COMMIT DROP");
+                }
+                long lines = 0;
+                long rules = 0;
+                List<String> parsed = new ArrayList<>(4);
+                try (RuleSink sink = connection.isWrapperFor(PGConnection.class) ? new CopySink(connection) : new BatchSink(connection)) {
+                    String line;
+                    String last = null;
+                    while ((line = reader.readLine()) != null) {
+                        lines++;
+                        parsed.clear();
+                        parseLine(line, parsed);
+                        for (String rule : parsed) {
+                            if (!rule.equals(last)) { // Sorted lists repeat themselves a lot, spare the database those
+                                sink.add(rule);
+                                rules++;
+                                last = rule;
+                            }
+                        }
+                    }
+                    sink.finish();
+                }
+                int inserted;
+                try (Statement statement = connection.createStatement()) {
+                    inserted = statement.executeUpdate("INSERT INTO filtered_hosts (host) SELECT DISTINCT i.host FROM import_hosts i "
+                            + "WHERE NOT EXISTS (SELECT 1 FROM filtered_hosts f WHERE f.host = i.host)");
+                }
+                connection.commit();
+                return new Result(lines, rules, inserted);
+            } catch (IOException | SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Adds the rules found on one line of a hosts file, adblock list or plain list to {@code rules}.
+     */
+    static void parseLine(String line, List<String> rules) {
+        String text = line.strip();
+        if (text.isEmpty() || text.startsWith("#") || text.startsWith("!") || text.startsWith("[")) {
+            return; // Comments and adblock headers
+        }
+        if (text.startsWith("@@") || text.contains("##") || text.contains("#@#") || text.contains("#?#")) {
+            return; // Exceptions and cosmetic filters
+        }
+        if (text.startsWith("||")) {
+            int end = text.indexOf('^');
+            if (end < 0 || end != text.length() - 1) {
+                return; // Paths or options, more than a host rule can express
+            }
+            addRule("." + text.substring(2, end), rules);
+            return;
+        }
+        int comment = text.indexOf('#');
+        if (comment >= 0) {
+            text = text.substring(0, comment);
+        }
+        String[] fields = text.strip().split("\\s+");
+        if (fields.length > 1 || isAddress(fields[0])) { // Hosts file: address then one or more names
+            for (int i = 1; i < fields.length; i++) {
+                addRule(fields[i], rules);
+            }
+        } else {
+            addRule(fields[0], rules);
+        }
+    }
+
+    private static void addRule(String host, List<String> rules) {
+        String rule = normalize(host);
+        if (rule != null) {
+            rules.add(rule);
+        }
+    }
+
+    /**
+     * Lower-cases the rule, converts internationalized names to their ASCII form and drops the trailing dot.
+     * Returns {@code null} for local names and anything that isn't a valid rule.
+     */
+    static String normalize(String host) {
+        String rule = host.toLowerCase(Locale.ROOT);
+        if (rule.endsWith(".")) {
+            rule = rule.substring(0, rule.length() - 1);
+        }
+        if (LOCAL_NAMES.contains(rule) || isAddress(rule)) {
+            return null;
+        }
+        String prefix = rule.startsWith("*.") ? "*." : rule.startsWith(".") ? "." : "";
+        String domain = rule.substring(prefix.length());
+        if (!domain.chars().allMatch(c -> c < 0x80)) {
+            try {
+                domain = IDN.toASCII(domain).toLowerCase(Locale.ROOT);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        if (domain.isEmpty() || domain.length() > 253 || !domain.chars().allMatch(c -> (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '_' || c == '.')) {
+            return null;
+        }
+        return HostRule.parse(prefix + domain) == null ? null : prefix + domain;
+    }
+
+    private static boolean isAddress(String field) {
+        return !field.isEmpty() && (field.indexOf(':') >= 0 || field.chars().allMatch(c -> (c >= '0' && c <= '9') || c == '.'));
+    }
+
+    /**
+     * Counts of an import: lines read, rules passed to the database, and rules that were new.
+     */
+    public static final class Result {
+        private final long lines;
+        private final long rules;
+        private final int inserted;
+
+        private Result(long lines, long rules, int inserted) {
+            this.lines = lines;
+            this.rules = rules;
+            this.inserted = inserted;
+        }
+
+        public long getLines() {
+            return lines;
+        }
+
+        public long getRules() {
+            return rules;
+        }
+
+        public int getInserted() {
+            return inserted;
+        }
+    }
+
+    private interface RuleSink extends AutoCloseable {
+        void add(String rule) throws SQLException;
+
+        void finish() throws SQLException;
+
+        @Override
+        void close() throws SQLException;
+    }
+
+    /**
+     * Streams rules over PostgreSQL's {@code COPY FROM STDIN}, a chunk at a time. Normalized rules never contain
+     * tabs, newlines or backslashes, so they need no escaping.
+     */
+    private static final class CopySink implements RuleSink {
+        private final CopyIn copy;
+        private final byte[] chunk = new byte[COPY_CHUNK];
+        private int length;
+
+        private CopySink(Connection connection) throws SQLException {
+            copy = connection.unwrap(PGConnection.class).getCopyAPI().copyIn("COPY import_hosts (host) FROM STDIN");
+        }
+
+        @Override
+        public void add(String rule) throws SQLException {
+            if (length + rule.length() + 1 > chunk.length) {
+                flush();
+            }
+            for (int i = 0; i < rule.length(); i++) {
+                chunk[length++] = (byte) rule.charAt(i); // ASCII only after normalization
+            }
+            chunk[length++] = '\n';
+        }
+
+        @Override
+        public void finish() throws SQLException {
+            flush();
+            copy.endCopy();
+        }
+
+        @Override
+        public void close() throws SQLException {
+            if (copy.isActive()) {
+                copy.cancelCopy(); // Failed before finish
+            }
+        }
+
+        private void flush() throws SQLException {
+            if (length > 0) {
+                copy.writeToCopy(chunk, 0, length);
+                length = 0;
+            }
+        }
+    }
+
+    private static final class BatchSink implements RuleSink {
+        private final PreparedStatement statement;
+        private int batched;
+
+        private BatchSink(Connection connection) throws SQLException {
+            statement = connection.prepareStatement("INSERT INTO import_hosts (host) VALUES (?)");
+        }
+
+        @Override
+        public void add(String rule) throws SQLException {
+            statement.setString(1, rule);
+            statement.addBatch();
+            if (++batched == BATCH_SIZE) {
+                statement.executeBatch();
+                batched = 0;
+            }
+        }
+
+        @Override
+        public void finish() throws SQLException {
+            if (batched > 0) {
+                statement.executeBatch();
+                batched = 0;
+            }
+        }
+
+        @Override
+        public void close() throws SQLException {
+            statement.close();
+        }
+    }
+}
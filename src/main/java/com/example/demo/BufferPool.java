@@ -0,0 +1,142 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared pool of I/O buffers in power-of-two size classes from 4 KB to 64 KB.
+ * {@link #DIRECT} serves channel I/O (the tunnel engine), {@link #HEAP} serves the stream based relay and
+ * upstream paths, which need a backing array. Each size class keeps at most its share of the pool budget;
+ * buffers released beyond that are left to the GC.
+ */
+public class BufferPool {
+    public static final int MIN_BUFFER_SIZE = 4 * 1024;
+    public static final int MAX_BUFFER_SIZE = 64 * 1024;
+    public static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+    private static final int SIZE_CLASSES = Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE) - Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE) + 1;
+
+    public static final BufferPool DIRECT = new BufferPool(true, 64L * 1024 * 1024);
+    public static final BufferPool HEAP = new BufferPool(false, 32L * 1024 * 1024);
+
+    private final boolean direct;
+    private final FreeList[] freeLists;
+    private final int[] maxFreePerClass;
+    private final AtomicLong allocations = new AtomicLong();
+    private final AtomicLong reuses = new AtomicLong();
+
+    public BufferPool(boolean direct, long budgetBytes) {
+        this.direct = direct;
+        this.freeLists = new FreeList[SIZE_CLASSES];
+        this.maxFreePerClass = new int[SIZE_CLASSES];
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            freeLists[i] = new FreeList();
+            maxFreePerClass[i] = (int) Math.max(1, budgetBytes / SIZE_CLASSES / classSize(i));
+        }
+    }
+
+    /**
+     * Returns a cleared buffer with a capacity of at least {@code size} (rounded up to a size class, capped at 64 KB).
+     */
+    public ByteBuffer acquire(int size) {
+        int sizeClass = sizeClassOf(size);
+        ByteBuffer buffer = freeLists[sizeClass].buffers.poll();
+        if (buffer != null) {
+            freeLists[sizeClass].count.decrementAndGet();
+            reuses.incrementAndGet();
+            return buffer.clear();
+        }
+        allocations.incrementAndGet();
+        int capacity = classSize(sizeClass);
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.isDirect() != direct || Integer.bitCount(buffer.capacity()) != 1
+                || buffer.capacity() < MIN_BUFFER_SIZE || buffer.capacity() > MAX_BUFFER_SIZE) {
+            return; // Not one of ours
+        }
+        int sizeClass = sizeClassOf(buffer.capacity());
+        if (freeLists[sizeClass].count.incrementAndGet() <= maxFreePerClass[sizeClass]) {
+            freeLists[sizeClass].buffers.offer(buffer.clear());
+        } else {
+            freeLists[sizeClass].count.decrementAndGet(); // Class is full, drop the buffer
+        }
+    }
+
+    /**
+     * Adapts a buffer to the observed transfer rate: a read that filled the whole buffer swaps it for the next
+     * size class, a read that used less than an eighth of it swaps it for the previous one.
+     */
+    public ByteBuffer resize(ByteBuffer buffer, int lastRead) {
+        int capacity = buffer.capacity();
+        int newSize;
+        if (lastRead >= capacity && capacity < MAX_BUFFER_SIZE) {
+            newSize = capacity << 1;
+        } else if (lastRead >= 0 && lastRead < capacity >> 3 && capacity > MIN_BUFFER_SIZE) {
+            newSize = capacity >> 1;
+        } else {
+            return buffer;
+        }
+        release(buffer);
+        return acquire(newSize);
+    }
+
+    /**
+     * Copies {@code in} to {@code out} until end of stream and returns the number of bytes copied.
+     * Flushes only when the source has nothing more immediately available, so bursts of reads go out in one flush.
+     * Only heap pools can copy between streams.
+     */
+    public long copy(InputStream in, OutputStream out) throws IOException {
+        if (direct) {
+            throw new IllegalStateException("Stream copies need a heap buffer pool");
+        }
+        ByteBuffer buffer = acquire(DEFAULT_BUFFER_SIZE);
+        long total = 0;
+        try {
+            int read;
+            while ((read = in.read(buffer.array(), 0, buffer.capacity())) != -1) {
+                out.write(buffer.array(), 0, read);
+                total += read;
+                if (in.available() == 0) {
+                    out.flush(); // Nothing else queued right now, push what we have
+                }
+                buffer = resize(buffer, read);
+            }
+            out.flush();
+            return total;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    public long getAllocations() {
+        return allocations.get();
+    }
+
+    public long getReuses() {
+        return reuses.get();
+    }
+
+    private static int sizeClassOf(int size) {
+        int rounded = size <= MIN_BUFFER_SIZE ? MIN_BUFFER_SIZE : Integer.highestOneBit(size - 1) << 1;
+        return Integer.numberOfTrailingZeros(Math.min(rounded, MAX_BUFFER_SIZE)) - Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+    }
+
+    private static int classSize(int sizeClass) {
+        return MIN_BUFFER_SIZE << sizeClass;
+    }
+
+    /**
+     * Free buffers of one size class, with their count kept apart since ConcurrentLinkedQueue.size() is O(n).
+     */
+    private static final class FreeList {
+        final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+        final AtomicInteger count = new AtomicInteger();
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Passes a response body straight through to the client while keeping a copy for the cache.
+ * The copy is written off-heap into {@link OffHeapBodyStore#SHARED} and is dropped as soon as it would exceed
+ * {@code limit} bytes, the store runs full, or the response turns out not to be cacheable; the client stream is
+ * unaffected either way.
+ */
+public class CacheTee extends OutputStream {
+    private final OutputStream client;
+    private final long limit;
+    private OffHeapBodyStore.Writer copy; // null once the cache copy has been abandoned
+
+    public CacheTee(OutputStream client, long limit, long expectedLength) {
+        this.client = client;
+        this.limit = limit;
+        if (expectedLength > limit) {
+            this.copy = null; // Known up front to be too large
+        } else {
+            this.copy = OffHeapBodyStore.SHARED.newWriter();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        client.write(b, off, len);
+        if (copy != null) {
+            if (copy.size() + (long) len > limit) {
+                abandon(); // Too large to cache, keep streaming without a copy
+            } else if (!copy.append(b, off, len)) {
+                copy = null; // Store full, the writer already gave its pages back
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        client.flush();
+    }
+
+    public void abandon() {
+        if (copy != null) {
+            copy.abandon();
+            copy = null;
+        }
+    }
+
+    public boolean isAbandoned() {
+        return copy == null;
+    }
+
+    /**
+     * Returns the cached copy of everything written, or {@code null} if it was abandoned. The caller owns the
+     * returned body's reference; a tee that is never finished must be abandoned to free its copy.
+     */
+    public OffHeapBody finish() {
+        OffHeapBody body = copy == null ? null : copy.finish();
+        copy = null;
+        return body;
+    }
+}
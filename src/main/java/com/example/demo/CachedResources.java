@@ -1,30 +1,296 @@
 package com.example.demo;
 
 import java.net.URL;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
 public class CachedResources {
+    private static final long MAX_HEURISTIC_LIFETIME = 24 * 60 * 60 * 1000L; // Cap for Last-Modified based freshness
+    // Headers a 304 must not overwrite on the stored response (RFC 9111 section 3.2)
+    private static final Set<String> BODY_HEADERS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        BODY_HEADERS.addAll(List.of("Content-Length", "Content-Encoding", "Content-Range", "Transfer-Encoding"));
+    }
+
     private URL url;
-    private byte[] data;
-    private long expiryTime;  // Milliseconds since the epoch when the data should expire
+    private HttpResponseHead head; // Status line and headers as received from the origin
+    private OffHeapBody body; // Body bytes as received, chunked encoding included, stored off-heap
+    private long requestTime; // Milliseconds since the epoch when the request for the response was sent
+    private long responseTime; // Milliseconds since the epoch when the response (or its last 304) arrived
+    private long correctedInitialAge; // Age of the response when it arrived, in milliseconds
+    private long freshnessLifetime; // How long after its origin Date the response stays fresh, in milliseconds
 
 
-    public CachedResources(URL url,byte[] data, long expiryTime) {
+    /**
+     * Takes over one reference to {@code body}, given back through {@link #release()}.
+     */
+    public CachedResources(URL url, HttpResponseHead head, OffHeapBody body, long requestTime, long responseTime) {
         this.url = url;
-        this.data = data;
-        this.expiryTime = expiryTime;
+        this.head = head;
+        this.body = body;
+        this.requestTime = requestTime;
+        this.responseTime = responseTime;
+        this.correctedInitialAge = initialAge(head, requestTime, responseTime);
+        this.freshnessLifetime = freshnessLifetime(head);
     }
 
-    public byte[] getData() {
-        return data;
+    /**
+     * Whether a response to a GET sent with {@code requestHeaders} may be stored: only complete 200 responses that
+     * the origin neither forbids storing nor marks as private, and that can either be served fresh or revalidated
+     * later. Entries are keyed on the URL alone, so responses that vary by request header are never stored, and
+     * neither are answers to credentialed requests unless the origin explicitly allows sharing them.
+     */
+    public static boolean isCacheable(String requestHeaders, HttpResponseHead head) {
+        if (head.getStatusCode() != 200) {
+            return false;
+        }
+        String cacheControl = lower(head.getHeader("Cache-Control"));
+        if (hasDirective(cacheControl, "no-store") || hasDirective(cacheControl, "private")) {
+            return false;
+        }
+        if (head.getHeader("Vary") != null) {
+            return false; // Another client's request headers could select a different representation
+        }
+        if (hasRequestHeader(requestHeaders, "Authorization") && !hasDirective(cacheControl, "public")
+                && !hasDirective(cacheControl, "s-maxage") && !hasDirective(cacheControl, "must-revalidate")) {
+            return false; // RFC 9111 section 3.5
+        }
+        return freshnessLifetime(head) > 0 || head.getHeader("ETag") != null || head.getHeader("Last-Modified") != null;
+    }
+
+    public HttpResponseHead getHead() {
+        return head;
+    }
+
+    /**
+     * The stored head with an Age header for the moment it is served.
+     */
+    public HttpResponseHead getHeadForClient() {
+        return head.withHeader("Age", Long.toString(getCurrentAge(TimingWheel.SHARED.currentTimeMillis()) / 1000));
+    }
+
+    public OffHeapBody getBody() {
+        return body;
+    }
+
+    /**
+     * Takes another reference to the body for a new holder of this entry, or returns {@code false} if the body
+     * has already been freed and the entry must not be used.
+     */
+    public boolean retain() {
+        return body.retain();
+    }
+
+    public void release() {
+        body.release();
+    }
+
+    /**
+     * Approximate memory footprint used to bound the cache: off-heap body pages plus header text.
+     */
+    public long getWeight() {
+        long weight = body.getCapacity() + head.getStatusLine().length();
+        for (String[] header : head.getHeaderLines()) {
+            weight += header[0].length() + header[1].length() + 4;
+        }
+        return weight;
     }
 
     public URL getUrl() {
         return url;
     }
 
+    public long getRequestTime() {
+        return requestTime;
+    }
+
+    public long getResponseTime() {
+        return responseTime;
+    }
+
+    public long getCurrentAge(long now) {
+        return correctedInitialAge + Math.max(0, now - responseTime);
+    }
+
+    public long getFreshnessLifetime() {
+        return freshnessLifetime;
+    }
 
+    /**
+     * Checked against the timing wheel's coarse clock, so a lookup costs no system call.
+     */
     public boolean isExpired() {
-        long currentTime = System.currentTimeMillis();
-        return currentTime > expiryTime; // If the current time is greater than the expiry time, the data is expired
+        return getTimeToExpiry() <= 0; // Stale once its age reaches its lifetime
+    }
+
+    /**
+     * Milliseconds until the entry turns stale, zero or negative once it has.
+     */
+    public long getTimeToExpiry() {
+        return freshnessLifetime - getCurrentAge(TimingWheel.SHARED.currentTimeMillis());
+    }
+
+    /**
+     * Whether this expired entry may still be served while a refresh runs in the background: within the
+     * response's {@code stale-while-revalidate} window, or {@code defaultWindowMillis} if it names none, and only
+     * if the origin did not require revalidation before every stale use.
+     */
+    public boolean canServeWhileRevalidating(long defaultWindowMillis) {
+        String cacheControl = lower(head.getHeader("Cache-Control"));
+        if (hasDirective(cacheControl, "must-revalidate") || hasDirective(cacheControl, "proxy-revalidate")
+                || hasDirective(cacheControl, "no-cache")) {
+            return false;
+        }
+        long window = directiveSeconds(cacheControl, "stale-while-revalidate");
+        window = window >= 0 ? window * 1000 : defaultWindowMillis;
+        return getCurrentAge(TimingWheel.SHARED.currentTimeMillis()) < freshnessLifetime + window;
+    }
+
+    public boolean hasValidators() {
+        return head.getHeader("ETag") != null || head.getHeader("Last-Modified") != null;
+    }
+
+    /**
+     * Replaces the client's own conditional headers with this entry's validators, so the origin answers
+     * 304 Not Modified when the stored body is still current.
+     */
+    public String addValidators(String requestHeaders) {
+        StringBuilder conditional = new StringBuilder();
+        for (String line : requestHeaders.split("\r\n")) {
+            String lowerLine = line.toLowerCase(Locale.ROOT);
+            if (!line.isEmpty() && !lowerLine.startsWith("if-none-match:") && !lowerLine.startsWith("if-modified-since:")
+                    && !lowerLine.startsWith("if-match:") && !lowerLine.startsWith("if-unmodified-since:") && !lowerLine.startsWith("if-range:")) {
+                conditional.append(line).append("\r\n");
+            }
+        }
+        return conditional.append(getConditionalHeaders()).toString();
+    }
+
+    /**
+     * Just this entry's validators as request header lines, empty when it has none.
+     */
+    public String getConditionalHeaders() {
+        StringBuilder conditional = new StringBuilder();
+        if (head.getHeader("ETag") != null) {
+            conditional.append("If-None-Match: ").append(head.getHeader("ETag")).append("\r\n");
+        }
+        if (head.getHeader("Last-Modified") != null) {
+            conditional.append("If-Modified-Since: ").append(head.getHeader("Last-Modified")).append("\r\n");
+        }
+        return conditional.toString();
+    }
+
+    /**
+     * Returns this entry refreshed by a 304 response: the 304's headers replace the stored ones and the
+     * freshness clock restarts, while the stored body is kept. The caller must hold a reference to this entry;
+     * the returned entry holds one of its own.
+     */
+    public CachedResources revalidated(HttpResponseHead notModified, long requestTime, long responseTime) {
+        HttpResponseHead merged = head;
+        for (String[] header : notModified.getHeaderLines()) {
+            if (!BODY_HEADERS.contains(header[0]) && !HttpResponseHead.isConnectionHeader(header[0])) {
+                merged = merged.withHeader(header[0], notModified.getHeader(header[0]));
+            }
+        }
+        body.retain(); // Cannot fail while the caller holds its reference
+        return new CachedResources(url, merged, body, requestTime, responseTime);
+    }
+
+    private static long freshnessLifetime(HttpResponseHead head) {
+        String cacheControl = lower(head.getHeader("Cache-Control"));
+        if (hasDirective(cacheControl, "no-cache")) {
+            return 0; // Stored, but every use must be revalidated
+        }
+        long sMaxAge = directiveSeconds(cacheControl, "s-maxage"); // We are a shared cache
+        if (sMaxAge >= 0) {
+            return sMaxAge * 1000;
+        }
+        long maxAge = directiveSeconds(cacheControl, "max-age");
+        if (maxAge >= 0) {
+            return maxAge * 1000;
+        }
+        long date = parseDate(head.getHeader("Date"));
+        long expires = parseDate(head.getHeader("Expires"));
+        if (head.getHeader("Expires") != null) {
+            return expires < 0 || date < 0 ? 0 : Math.max(0, expires - date); // Invalid Expires means already expired
+        }
+        long lastModified = parseDate(head.getHeader("Last-Modified"));
+        if (lastModified >= 0 && date >= 0 && date > lastModified) {
+            return Math.min(MAX_HEURISTIC_LIFETIME, (date - lastModified) / 10); // 10% heuristic, RFC 9111 section 4.2.2
+        }
+        return 0;
     }
-}
 
+    private static long initialAge(HttpResponseHead head, long requestTime, long responseTime) {
+        long date = parseDate(head.getHeader("Date"));
+        long apparentAge = date < 0 ? 0 : Math.max(0, responseTime - date);
+        long ageValue = 0;
+        try {
+            String age = head.getHeader("Age");
+            ageValue = age == null ? 0 : Long.parseLong(age.trim()) * 1000;
+        } catch (NumberFormatException ignored) {
+            // An unusable Age header counts as zero
+        }
+        long correctedAgeValue = ageValue + (responseTime - requestTime);
+        return Math.max(apparentAge, correctedAgeValue);
+    }
+
+    private static boolean hasRequestHeader(String requestHeaders, String name) {
+        for (String line : requestHeaders.split("\r\n")) {
+            int colonPos = line.indexOf(':');
+            if (colonPos != -1 && line.substring(0, colonPos).trim().equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasDirective(String cacheControl, String directive) {
+        for (String part : cacheControl.split(",")) {
+            String name = part.trim();
+            int equals = name.indexOf('=');
+            if ((equals == -1 ? name : name.substring(0, equals).trim()).equals(directive)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the delta-seconds value of a directive, or -1 when it is absent or malformed.
+     */
+    private static long directiveSeconds(String cacheControl, String directive) {
+        for (String part : cacheControl.split(",")) {
+            String[] pair = part.trim().split("=", 2);
+            if (pair.length == 2 && pair[0].trim().equals(directive)) {
+                try {
+                    return Long.parseLong(pair[1].trim().replace("\"", ""));
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static long parseDate(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    private static String lower(String value) {
+        return value == null ? "" : value.toLowerCase(Locale.ROOT);
+    }
+}
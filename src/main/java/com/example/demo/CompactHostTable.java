@@ -0,0 +1,395 @@
+package com.example.demo;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Host rules for blocklists too large to keep as objects: a blocked Bloom filter in front of a sorted,
+ * front-coded table in a memory-mapped file. A lookup hashes each suffix of the host once; almost every host
+ * is rejected by the filter without leaving its cache line, and only candidate hits are confirmed by a binary
+ * search of the table. The heap holds little more than the filter, about 1.5 bytes per rule, and the table's
+ * pages are left to the OS page cache.
+ * Keys are stored with their labels reversed ({@code com.example.cdn}) so that hosts of one domain sort next to
+ * each other and share prefixes. The table itself is immutable; {@link #with} and {@link #without} return a
+ * matcher sharing it with a small overlay of the changes, which is dropped on the next rebuild.
+ */
+public final class CompactHostTable implements HostMatcher {
+    private static final int MAGIC = 0x48535431; // "HST1"
+    private static final int ENTRIES_PER_BLOCK = 16; // Full key at the start of each block, front-coded after it
+    private static final int BITS_PER_KEY = 12; // About 0.5 % of negative lookups reach the table
+    private static final int MAX_KEY_LENGTH = 255; // Longer than any valid host name
+    private static final byte[] FLAGS = {HostRule.EXACT, HostRule.SUBDOMAINS};
+
+    private final Table table;
+    private final DomainTrie added; // Rules added since the build
+    private final Set<String> removed; // Table rules removed since the build, as "domain" or "*.domain"
+    private final int size;
+
+    private CompactHostTable(Table table, DomainTrie added, Set<String> removed, int size) {
+        this.table = table;
+        this.added = added;
+        this.removed = removed;
+        this.size = size;
+    }
+
+    /**
+     * Writes the rules to a table file in {@code directory} and maps it. The file is unlinked once mapped, so
+     * nothing is left behind when the matcher is dropped; invalid rules are skipped.
+     */
+    public static CompactHostTable build(Collection<String> rules, Path directory) throws IOException {
+        BlockedBloomFilter filter = new BlockedBloomFilter(rules.size(), BITS_PER_KEY);
+        List<Entry> entries = new ArrayList<>(rules.size());
+        for (String rule : rules) {
+            HostRule parsed = HostRule.parse(rule);
+            if (parsed == null) {
+                continue;
+            }
+            byte[] key = key(parsed.domain);
+            if (key.length > MAX_KEY_LENGTH) {
+                continue;
+            }
+            for (byte flag : FLAGS) {
+                if ((parsed.flags & flag) != 0) {
+                    filter.add(hash(parsed.domain, 0, parsed.domain.length(), flag));
+                }
+            }
+            entries.add(new Entry(key, parsed.flags));
+        }
+        entries.sort((a, b) -> Arrays.compareUnsigned(a.key, b.key));
+
+        int count = 0;
+        int size = 0;
+        for (Entry entry : entries) { // Merge duplicates, ".example.com" and "example.com" share one entry
+            if (count > 0 && Arrays.equals(entries.get(count - 1).key, entry.key)) {
+                Entry previous = entries.get(count - 1);
+                size += Integer.bitCount(entry.flags & ~previous.flags);
+                previous.flags |= entry.flags;
+            } else {
+                entries.set(count++, entry);
+                size += Integer.bitCount(entry.flags);
+            }
+        }
+
+        int blockCount = (count + ENTRIES_PER_BLOCK - 1) / ENTRIES_PER_BLOCK;
+        int[] blockOffsets = new int[blockCount];
+        long dataLength = 0;
+        for (int i = 0; i < count; i++) {
+            if (i % ENTRIES_PER_BLOCK == 0) {
+                blockOffsets[i / ENTRIES_PER_BLOCK] = (int) dataLength;
+            }
+            dataLength += encodedLength(i % ENTRIES_PER_BLOCK == 0 ? null : entries.get(i - 1).key, entries.get(i).key);
+            if (dataLength > Integer.MAX_VALUE - 16L - 4L * blockCount) {
+                throw new IOException("Host table too large to map");
+            }
+        }
+
+        Path file = Files.createTempFile(directory, "filtered-hosts-", ".idx");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(count);
+            out.writeInt(blockCount);
+            for (int offset : blockOffsets) {
+                out.writeInt(offset);
+            }
+            for (int i = 0; i < count; i++) {
+                byte[] previous = i % ENTRIES_PER_BLOCK == 0 ? null : entries.get(i - 1).key;
+                byte[] key = entries.get(i).key;
+                int shared = previous == null ? 0 : sharedPrefix(previous, key);
+                out.writeByte(shared);
+                out.writeByte(key.length - shared);
+                out.write(key, shared, key.length - shared);
+                out.writeByte(entries.get(i).flags);
+            }
+        }
+        try {
+            return new CompactHostTable(new Table(file, filter), DomainTrie.EMPTY, Set.of(), size);
+        } finally {
+            try {
+                Files.delete(file); // The mapping stays valid
+            } catch (IOException e) {
+                file.toFile().deleteOnExit(); // Platforms that can't delete a mapped file
+            }
+        }
+    }
+
+    @Override
+    public boolean matches(String host) {
+        if (host == null || host.isEmpty()) {
+            return false;
+        }
+        if (added.size() > 0 && added.matches(host)) {
+            return true;
+        }
+        int end = host.length();
+        if (host.charAt(end - 1) == '.') {
+            end--; // Fully qualified form
+        }
+        int start = end;
+        while (start > 0) {
+            int dot = host.lastIndexOf('.', start - 1);
+            if (dot + 1 == start) {
+                return false; // Empty label
+            }
+            byte flag = dot >= 0 ? HostRule.SUBDOMAINS : HostRule.EXACT; // A proper suffix only matches subdomain rules
+            if (table.filter.mightContain(hash(host, dot + 1, end, flag)) && hasTableRule(host.substring(dot + 1, end).toLowerCase(Locale.ROOT), flag)) {
+                return true;
+            }
+            start = dot;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean containsRule(String rule) {
+        HostRule parsed = HostRule.parse(rule);
+        if (parsed == null) {
+            return false;
+        }
+        for (byte flag : FLAGS) {
+            if ((parsed.flags & flag) != 0 && !hasRule(parsed.domain, flag)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public CompactHostTable with(String rule) {
+        HostRule parsed = HostRule.parse(rule);
+        if (parsed == null) {
+            return this;
+        }
+        DomainTrie newAdded = added;
+        Set<String> newRemoved = removed;
+        int newSize = size;
+        for (byte flag : FLAGS) {
+            if ((parsed.flags & flag) == 0 || hasRule(parsed.domain, flag)) {
+                continue;
+            }
+            String text = ruleText(parsed.domain, flag);
+            if (newRemoved.contains(text)) {
+                newRemoved = copy(newRemoved, text, false); // Back in the table
+            } else {
+                newAdded = newAdded.with(text);
+            }
+            newSize++;
+        }
+        return newSize == size ? this : new CompactHostTable(table, newAdded, newRemoved, newSize);
+    }
+
+    @Override
+    public CompactHostTable without(String rule) {
+        HostRule parsed = HostRule.parse(rule);
+        if (parsed == null) {
+            return this;
+        }
+        DomainTrie newAdded = added;
+        Set<String> newRemoved = removed;
+        int newSize = size;
+        for (byte flag : FLAGS) {
+            if ((parsed.flags & flag) == 0 || !hasRule(parsed.domain, flag)) {
+                continue;
+            }
+            String text = ruleText(parsed.domain, flag);
+            if (newAdded.containsRule(text)) {
+                newAdded = newAdded.without(text);
+            } else {
+                newRemoved = copy(newRemoved, text, true);
+            }
+            newSize--;
+        }
+        return newSize == size ? this : new CompactHostTable(table, newAdded, newRemoved, newSize);
+    }
+
+    /**
+     * Heap taken by the Bloom filter.
+     */
+    public long getFilterBytes() {
+        return table.filter.getSizeInBytes();
+    }
+
+    /**
+     * Size of the mapped table.
+     */
+    public long getTableBytes() {
+        return table.data.capacity();
+    }
+
+    private boolean hasRule(String domain, byte flag) {
+        return added.containsRule(ruleText(domain, flag)) || hasTableRule(domain, flag);
+    }
+
+    private boolean hasTableRule(String domain, byte flag) {
+        return (table.flags(key(domain)) & flag) != 0 && (removed.isEmpty() || !removed.contains(ruleText(domain, flag)));
+    }
+
+    private static String ruleText(String domain, byte flag) {
+        return flag == HostRule.SUBDOMAINS ? "*." + domain : domain;
+    }
+
+    private static Set<String> copy(Set<String> rules, String rule, boolean add) {
+        Set<String> copy = new HashSet<>(rules);
+        if (add) {
+            copy.add(rule);
+        } else {
+            copy.remove(rule);
+        }
+        return copy;
+    }
+
+    /**
+     * The domain's labels in reverse order, {@code cdn.example.com} becoming {@code com.example.cdn}.
+     */
+    private static byte[] key(String domain) {
+        StringBuilder reversed = new StringBuilder(domain.length());
+        int end = domain.length();
+        while (end > 0) {
+            int dot = domain.lastIndexOf('.', end - 1);
+            if (reversed.length() > 0) {
+                reversed.append('.');
+            }
+            reversed.append(domain, dot + 1, end);
+            end = dot;
+        }
+        return reversed.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * FNV-1a over the lower-cased characters and the rule flag, finished with the MurmurHash3 mixer so every bit
+     * of the result depends on every input bit.
+     */
+    private static long hash(String host, int start, int end, byte flag) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i++) {
+            h ^= Character.toLowerCase(host.charAt(i));
+            h *= 0x100000001b3L;
+        }
+        h ^= flag;
+        h *= 0x100000001b3L;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static int sharedPrefix(byte[] a, byte[] b) {
+        int mismatch = Arrays.mismatch(a, b);
+        return Math.min(mismatch < 0 ? a.length : mismatch, MAX_KEY_LENGTH);
+    }
+
+    private static int encodedLength(byte[] previous, byte[] key) {
+        return 3 + key.length - (previous == null ? 0 : sharedPrefix(previous, key)); // shared, suffix length, suffix, flags
+    }
+
+    private static final class Entry {
+        private final byte[] key;
+        private byte flags;
+
+        private Entry(byte[] key, byte flags) {
+            this.key = key;
+            this.flags = flags;
+        }
+    }
+
+    /**
+     * The mapped file: a header, the offset of every block, then the blocks. Read with absolute gets only, so
+     * one buffer serves all threads.
+     */
+    private static final class Table {
+        private final BlockedBloomFilter filter;
+        private final MappedByteBuffer data;
+        private final int count;
+        private final int blockCount;
+        private final int blocksStart;
+
+        private Table(Path file, BlockedBloomFilter filter) throws IOException {
+            this.filter = filter;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                this.data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            if (data.getInt(0) != MAGIC) {
+                throw new IOException("Not a host table: " + file);
+            }
+            this.count = data.getInt(4);
+            this.blockCount = data.getInt(8);
+            this.blocksStart = 12 + 4 * blockCount;
+        }
+
+        /**
+         * Flags stored for {@code key}, or 0 if it is not in the table.
+         */
+        private byte flags(byte[] key) {
+            if (key.length > MAX_KEY_LENGTH) {
+                return 0;
+            }
+            int low = 0;
+            int high = blockCount - 1;
+            int block = -1; // Last block whose first key is not after the key
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int offset = blockOffset(middle);
+                if (compare(offset + 2, data.get(offset + 1) & 0xff, key) <= 0) {
+                    block = middle;
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            if (block < 0) {
+                return 0;
+            }
+            byte[] current = new byte[MAX_KEY_LENGTH];
+            int position = blockOffset(block);
+            int entries = Math.min(ENTRIES_PER_BLOCK, count - block * ENTRIES_PER_BLOCK);
+            for (int i = 0; i < entries; i++) {
+                int shared = data.get(position) & 0xff;
+                int suffix = data.get(position + 1) & 0xff;
+                data.get(position + 2, current, shared, suffix);
+                int comparison = Arrays.compareUnsigned(current, 0, shared + suffix, key, 0, key.length);
+                if (comparison == 0) {
+                    return data.get(position + 2 + suffix);
+                } else if (comparison > 0) {
+                    return 0; // Sorted, it would have come before
+                }
+                position += 3 + suffix;
+            }
+            return 0;
+        }
+
+        private int blockOffset(int block) {
+            return blocksStart + data.getInt(12 + 4 * block);
+        }
+
+        private int compare(int position, int length, byte[] key) {
+            int common = Math.min(length, key.length);
+            for (int i = 0; i < common; i++) {
+                int difference = (data.get(position + i) & 0xff) - (key[i] & 0xff);
+                if (difference != 0) {
+                    return difference;
+                }
+            }
+            return length - key.length;
+        }
+    }
+}
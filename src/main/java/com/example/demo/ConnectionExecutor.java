@@ -0,0 +1,97 @@
+package com.example.demo;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs client connection handlers and their relay loops.
+ * By default every task gets its own virtual thread, so an idle keep-alive or CONNECT tunnel only costs
+ * a small heap-allocated stack. The number of concurrently handled client connections is capped by a semaphore;
+ * when the cap is reached the accept loop blocks and new sockets wait in the listen backlog.
+ */
+public class ConnectionExecutor {
+    private static final int DEFAULT_MAX_CONNECTIONS = 10_000;
+
+    private final ExecutorService executor;
+    private final Semaphore connectionPermits; // One permit per client connection being handled
+    private final int maxConnections;
+
+    public ConnectionExecutor(ThreadFactory threadFactory, int maxConnections) {
+        if (maxConnections <= 0) {
+            throw new IllegalArgumentException("maxConnections must be positive: " + maxConnections);
+        }
+        this.executor = Executors.newThreadPerTaskExecutor(threadFactory);
+        this.connectionPermits = new Semaphore(maxConnections);
+        this.maxConnections = maxConnections;
+    }
+
+    public static ConnectionExecutor virtualThreads(int maxConnections) {
+        return new ConnectionExecutor(Thread.ofVirtual().name("proxy-conn-", 0).factory(), maxConnections);
+    }
+
+    public static ConnectionExecutor platformThreads(int maxConnections) {
+        return new ConnectionExecutor(Thread.ofPlatform().name("proxy-conn-", 0).daemon(true).factory(), maxConnections);
+    }
+
+    /**
+     * Builds the executor from the {@code proxy.executor} ("virtual" or "platform") and
+     * {@code proxy.maxConnections} system properties.
+     */
+    public static ConnectionExecutor fromSystemProperties() {
+        int maxConnections = Integer.getInteger("proxy.maxConnections", DEFAULT_MAX_CONNECTIONS);
+        String mode = System.getProperty("proxy.executor", "virtual");
+        if ("platform".equalsIgnoreCase(mode)) {
+            return platformThreads(maxConnections);
+        }
+        return virtualThreads(maxConnections);
+    }
+
+    /**
+     * Runs a client connection handler, blocking the caller while the connection cap is reached.
+     */
+    public void submitConnection(Runnable handler) throws InterruptedException {
+        connectionPermits.acquire();
+        try {
+            executor.execute(() -> {
+                try {
+                    handler.run();
+                } finally {
+                    connectionPermits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            connectionPermits.release(); // Executor is shutting down, give the permit back
+            throw e;
+        }
+    }
+
+    /**
+     * Runs a subtask of an already admitted connection (e.g. one relay direction); does not count against the cap.
+     */
+    public Future<?> fork(Runnable task) {
+        return executor.submit(task);
+    }
+
+    public int getActiveConnections() {
+        return maxConnections - connectionPermits.availablePermits();
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    /**
+     * Stops accepting new connections; connections already being handled run to completion.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
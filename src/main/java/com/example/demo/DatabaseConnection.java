@@ -16,9 +16,24 @@ public class DatabaseConnection {
     private static final String DB_URL = "jdbc:postgresql://localhost:5432/proxy";
     private static final String USER = "postgres";
     private static final String PASSWORD = "12345";
+    private static final JdbcConnectionPool POOL = JdbcConnectionPool.fromSystemProperties(DatabaseConnection::openConnection);
 
+    /**
+     * Borrows a connection from the shared pool; closing it gives it back.
+     */
     public static Connection getConnection() throws SQLException {
+        return POOL.getConnection();
+    }
+
+    /**
+     * Opens a connection of its own, outside the pool.
+     */
+    public static Connection openConnection() throws SQLException {
         return DriverManager.getConnection(DB_URL, USER, PASSWORD);
     }
 
+    public static JdbcConnectionPool getPool() {
+        return POOL;
+    }
+
 }
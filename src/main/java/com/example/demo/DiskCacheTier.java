@@ -0,0 +1,447 @@
+package com.example.demo;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Second cache tier holding responses in large append-only segment files that are memory-mapped for both
+ * writing and reading. The in-memory index only maps each key to the packed segment/offset of its latest record
+ * and is rebuilt on startup by scanning the segments, so the cache survives restarts.
+ * Space is reclaimed a whole segment at a time: once the tier is over its size, the oldest segment is deleted
+ * together with every entry still pointing into it.
+ * A single writer thread first rebuilds the index, during which every lookup misses, and then appends the
+ * records queued by {@link #put} and {@link #remove} through a bounded {@link RingBuffer}: a full queue drops
+ * puts, so filling the cache never waits for the disk, while removals wait for room as losing one could bring a
+ * stale entry back.
+ *
+ * <p>Record layout: {@code length, crc32, requestTime, responseTime, key, head, body}, where {@code length}
+ * covers the whole record, the CRC covers everything after it, and key and head are length-prefixed. A record
+ * with an empty head is a tombstone for its key. A zero length (the file's zero-filled tail) ends a segment.
+ */
+public class DiskCacheTier {
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final int RECORD_HEADER_SIZE = 4 + 4 + 8 + 8;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final Map<String, Long> index = new ConcurrentHashMap<>(); // Key -> segment id << 32 | offset
+    private final Map<Integer, MappedByteBuffer> segments = new ConcurrentHashMap<>();
+    private final Deque<Integer> segmentOrder = new ArrayDeque<>(); // Oldest first, guarded by this
+    private int activeSegment; // Guarded by this
+    private int writePosition; // Guarded by this
+    private long recordsWritten;
+    private long segmentsDropped;
+
+    private final RingBuffer<Write> writes;
+    private final Map<String, Integer> pendingRemovals = new ConcurrentHashMap<>(); // Queued tombstones per key
+    private final AtomicLong queuedWrites = new AtomicLong();
+    private final AtomicLong completedWrites = new AtomicLong();
+    private final AtomicLong droppedWrites = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean ready; // Index rebuilt, lookups may hit
+    private volatile boolean shutdown;
+
+    private DiskCacheTier(Path directory, int segmentSize, long maxBytes, int writeQueueSize) {
+        if (segmentSize <= RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("segmentSize too small: " + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = (int) Math.max(2, maxBytes / segmentSize);
+        this.writes = new RingBuffer<>(writeQueueSize);
+        this.writer = new Thread(this::run, "disk-cache-writer");
+        writer.setDaemon(true);
+    }
+
+    /**
+     * Creates the tier and starts its writer thread, which rebuilds the index from the segments already in
+     * {@code directory} before applying any write; nothing is read from disk on the calling thread.
+     */
+    public static DiskCacheTier open(Path directory, int segmentSize, long maxBytes, int writeQueueSize) {
+        DiskCacheTier tier = new DiskCacheTier(directory, segmentSize, maxBytes, writeQueueSize);
+        tier.writer.start();
+        return tier;
+    }
+
+    /**
+     * Opens the tier in {@code proxy.cache.dir}, or returns {@code null} when that property is not set.
+     * Sized by {@code proxy.cache.diskMaxBytes} (default 10 GB) in segments of
+     * {@code proxy.cache.diskSegmentBytes} (default 256 MB), with up to {@code proxy.cache.diskWriteQueue}
+     * (default 1024) writes waiting.
+     */
+    public static DiskCacheTier fromSystemProperties() {
+        String dir = System.getProperty("proxy.cache.dir");
+        if (dir == null || dir.isBlank()) {
+            return null;
+        }
+        return open(Paths.get(dir), Integer.getInteger("proxy.cache.diskSegmentBytes", 256 * 1024 * 1024),
+                Long.getLong("proxy.cache.diskMaxBytes", 10L * 1024 * 1024 * 1024), Integer.getInteger("proxy.cache.diskWriteQueue", 1024));
+    }
+
+    /**
+     * Whether the index has been rebuilt; until then every lookup misses.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Loads an entry with its body copied into {@link OffHeapBodyStore#SHARED}; the caller owns its reference.
+     * Returns {@code null} on a miss, while the index is being rebuilt, or when the store has no room for the body.
+     */
+    public CachedResources get(String key) {
+        if (!ready || pendingRemovals.containsKey(key)) {
+            return null;
+        }
+        Long location = index.get(key);
+        if (location == null) {
+            return null;
+        }
+        MappedByteBuffer segment = segments.get((int) (location >>> 32));
+        if (segment == null) {
+            return null; // Segment dropped since the lookup
+        }
+        try {
+            return decode(segment, (int) (long) location, key);
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Discarding unreadable disk cache entry for " + key + ": " + e.getMessage());
+            index.remove(key, location);
+            return null;
+        }
+    }
+
+    /**
+     * Queues the entry to be written with a reference of its own, or drops it if the queue is full.
+     */
+    public void put(String key, CachedResources value) {
+        if (shutdown || !value.retain()) {
+            return;
+        }
+        if (!writes.offer(new Write(key, value))) {
+            value.release();
+            droppedWrites.incrementAndGet();
+            return;
+        }
+        queuedWrites.incrementAndGet();
+        LockSupport.unpark(writer);
+    }
+
+    /**
+     * Hides the entry right away and queues a tombstone, so it also stays gone after a restart.
+     */
+    public void remove(String key) {
+        if (shutdown) {
+            return;
+        }
+        pendingRemovals.merge(key, 1, Integer::sum);
+        Write tombstone = new Write(key, null);
+        while (!writes.offer(tombstone)) {
+            if (shutdown) {
+                return;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(100_000); // Wait for the writer to free some slots
+        }
+        queuedWrites.incrementAndGet();
+        LockSupport.unpark(writer);
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    public synchronized long getBytesUsed() {
+        return segmentOrder.isEmpty() ? 0 : (long) (segmentOrder.size() - 1) * segmentSize + writePosition;
+    }
+
+    public long getMaxBytes() {
+        return (long) maxSegments * segmentSize;
+    }
+
+    public synchronized long getRecordsWritten() {
+        return recordsWritten;
+    }
+
+    public synchronized long getSegmentsDropped() {
+        return segmentsDropped;
+    }
+
+    /**
+     * Puts dropped because the write queue was full.
+     */
+    public long getDroppedWrites() {
+        return droppedWrites.get();
+    }
+
+    /**
+     * Waits until the writes queued so far have been applied, then forces the active segment to the storage
+     * device.
+     */
+    public void flush() {
+        long target = queuedWrites.get();
+        while (completedWrites.get() < target && writer.isAlive()) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(1_000_000);
+        }
+        synchronized (this) {
+            MappedByteBuffer segment = segments.get(activeSegment);
+            if (segment != null) {
+                segment.force();
+            }
+        }
+    }
+
+    /**
+     * Applies the writes still queued and stops the writer thread; later puts and removals are ignored.
+     */
+    public void shutdown(long timeoutMillis) throws InterruptedException {
+        shutdown = true;
+        LockSupport.unpark(writer);
+        writer.join(timeoutMillis);
+    }
+
+    private void run() {
+        try {
+            Files.createDirectories(directory);
+            rebuildIndex();
+            ready = true;
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Disk cache unavailable, caching on the heap only: " + e.getMessage());
+        }
+        while (true) {
+            Write write = writes.poll();
+            if (write == null) {
+                if (shutdown) {
+                    break;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            try {
+                if (ready) {
+                    apply(write);
+                }
+            } catch (RuntimeException e) {
+                System.out.println("Failed to write disk cache entry for " + write.key + ": " + e.getMessage());
+            } finally {
+                if (write.value == null) {
+                    pendingRemovals.computeIfPresent(write.key, (key, count) -> count == 1 ? null : count - 1);
+                } else {
+                    write.value.release();
+                }
+                completedWrites.incrementAndGet();
+            }
+        }
+    }
+
+    private void apply(Write write) {
+        if (write.value != null) {
+            CachedResources value = write.value;
+            append(write.key, encodeHead(value.getHead()), value.getBody(), value.getRequestTime(), value.getResponseTime());
+        } else if (index.containsKey(write.key)) {
+            append(write.key, new byte[0], null, 0, 0); // Tombstone
+        }
+    }
+
+    /**
+     * Runs on the writer thread only, so records are appended and indexed in queue order; the monitor is held
+     * just long enough to reserve room, and readers only see a record once the index points to it.
+     */
+    private void append(String key, byte[] head, OffHeapBody body, long requestTime, long responseTime) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long bodyLength = body == null ? 0 : body.length();
+        long length = RECORD_HEADER_SIZE + 4L + keyBytes.length + 4L + head.length + 4L + bodyLength;
+        if (length > segmentSize) {
+            return; // Could never fit a segment
+        }
+        int recordLength = (int) length;
+        int id;
+        int offset;
+        MappedByteBuffer segment;
+        synchronized (this) {
+            try {
+                if (writePosition + recordLength + 4 > segmentSize) { // Keep room for the zero end marker
+                    startSegment(activeSegment + 1);
+                }
+            } catch (IOException e) {
+                System.out.println("Failed to start a disk cache segment: " + e.getMessage());
+                return;
+            }
+            id = activeSegment;
+            segment = segments.get(id);
+            offset = writePosition;
+            writePosition += recordLength;
+            recordsWritten++;
+        }
+        int position = offset + 8;
+        segment.putLong(position, requestTime);
+        segment.putLong(position + 8, responseTime);
+        position = putBytes(segment, position + 16, keyBytes);
+        position = putBytes(segment, position, head);
+        segment.putInt(position, (int) bodyLength);
+        if (body != null) {
+            body.copyTo(segment, position + 4); // Off-heap to mapped file, no heap copy
+        }
+        segment.putInt(offset + 4, checksum(segment, offset + 8, recordLength - 8));
+        segment.putInt(offset, recordLength); // Written last, so a torn record reads as the segment end
+        if (head.length == 0) {
+            index.remove(key);
+        } else {
+            index.put(key, (long) id << 32 | offset);
+        }
+    }
+
+    private static int putBytes(MappedByteBuffer segment, int position, byte[] bytes) {
+        segment.putInt(position, bytes.length);
+        segment.put(position + 4, bytes);
+        return position + 4 + bytes.length;
+    }
+
+    private CachedResources decode(MappedByteBuffer segment, int offset, String key) throws IOException {
+        int recordLength = segment.getInt(offset);
+        if (segment.getInt(offset + 4) != checksum(segment, offset + 8, recordLength - 8)) {
+            throw new IOException("Checksum mismatch");
+        }
+        long requestTime = segment.getLong(offset + 8);
+        long responseTime = segment.getLong(offset + 16);
+        int position = offset + RECORD_HEADER_SIZE;
+        position += 4 + segment.getInt(position); // Skip the key, the index already matched it
+        byte[] head = getBytes(segment, position);
+        position += 4 + head.length;
+        HttpResponseHead responseHead = HttpResponseHead.read(new ByteArrayInputStream(head));
+        if (responseHead == null) {
+            throw new IOException("Empty response head");
+        }
+        URL url = URI.create(key).toURL();
+        OffHeapBody body = OffHeapBodyStore.SHARED.copyOf(segment.slice(position + 4, segment.getInt(position)));
+        return body == null ? null : new CachedResources(url, responseHead, body, requestTime, responseTime);
+    }
+
+    private static byte[] getBytes(MappedByteBuffer segment, int position) {
+        byte[] bytes = new byte[segment.getInt(position)];
+        segment.get(position + 4, bytes);
+        return bytes;
+    }
+
+    private static int checksum(MappedByteBuffer segment, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(segment.slice(offset, length));
+        return (int) crc.getValue();
+    }
+
+    private static byte[] encodeHead(HttpResponseHead head) {
+        StringBuilder encoded = new StringBuilder(head.getStatusLine()).append("\r\n");
+        for (String[] header : head.getHeaderLines()) {
+            encoded.append(header[0]).append(": ").append(header[1]).append("\r\n");
+        }
+        return encoded.append("\r\n").toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private synchronized void rebuildIndex() throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .forEach(name -> ids.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()))));
+        }
+        ids.sort(null);
+        for (int id : ids) { // Later records win, so replay oldest first
+            MappedByteBuffer segment = map(id);
+            segments.put(id, segment);
+            segmentOrder.addLast(id);
+            activeSegment = id;
+            writePosition = scan(id, segment);
+        }
+        if (segmentOrder.isEmpty()) {
+            startSegment(0);
+        }
+        while (segmentOrder.size() > maxSegments) { // The size limit may have been lowered since the last run
+            dropOldestSegment();
+        }
+    }
+
+    /**
+     * Indexes the records of one segment and returns where the next record would go.
+     */
+    private int scan(int id, MappedByteBuffer segment) {
+        int offset = 0;
+        while (offset + RECORD_HEADER_SIZE <= segmentSize) {
+            int recordLength = segment.getInt(offset);
+            if (recordLength < RECORD_HEADER_SIZE || offset + recordLength > segmentSize
+                    || segment.getInt(offset + 4) != checksum(segment, offset + 8, recordLength - 8)) {
+                break; // End of written data, or a record torn by a crash
+            }
+            byte[] key = getBytes(segment, offset + RECORD_HEADER_SIZE);
+            int headLength = segment.getInt(offset + RECORD_HEADER_SIZE + 4 + key.length);
+            String keyString = new String(key, StandardCharsets.UTF_8);
+            if (headLength == 0) {
+                index.remove(keyString);
+            } else {
+                index.put(keyString, (long) id << 32 | offset);
+            }
+            offset += recordLength;
+        }
+        return offset;
+    }
+
+    private void startSegment(int id) throws IOException {
+        segments.put(id, map(id));
+        segmentOrder.addLast(id);
+        activeSegment = id;
+        writePosition = 0;
+        while (segmentOrder.size() > maxSegments) {
+            dropOldestSegment();
+        }
+    }
+
+    private void dropOldestSegment() throws IOException {
+        int id = segmentOrder.removeFirst();
+        segments.remove(id);
+        index.values().removeIf(location -> (int) (location >>> 32) == id);
+        Files.deleteIfExists(segmentPath(id)); // Readers still holding the mapping keep a valid view
+        segmentsDropped++;
+    }
+
+    private MappedByteBuffer map(int id) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(id), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize); // The mapping outlives the channel
+        }
+    }
+
+    Path segmentPath(int id) {
+        return directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    private static final class Write {
+        final String key;
+        final CachedResources value; // null for a tombstone; otherwise holds a reference until written
+
+        Write(String key, CachedResources value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.demo;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable trie of host rules keyed by reversed labels ({@code cdn.example.com} is stored as
+ * com &rarr; example &rarr; cdn), so a lookup costs one step per label of the host, however long the list is.
+ * Rules:
+ * <ul>
+ *     <li>{@code example.com} matches that host only,</li>
+ *     <li>{@code *.example.com} matches every subdomain of it but not the domain itself,</li>
+ *     <li>{@code .example.com} matches the domain and every subdomain.</li>
+ * </ul>
+ * {@link #with} and {@link #without} copy only the nodes on the rule's path and share the rest, so a changed
+ * list can be published while readers keep using the old one. Children are kept in sorted arrays rather than
+ * maps to keep millions of rules compact.
+ */
+public final class DomainTrie implements HostMatcher {
+    private static final byte EXACT = HostRule.EXACT;
+    private static final byte SUBDOMAINS = HostRule.SUBDOMAINS;
+    private static final Node EMPTY_NODE = new Node(new String[0], new Node[0], (byte) 0);
+
+    public static final DomainTrie EMPTY = new DomainTrie(EMPTY_NODE, 0);
+
+    private final Node root;
+    private final int size;
+
+    private DomainTrie(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Builds a trie from a whole list in one pass; invalid rules are skipped.
+     */
+    public static DomainTrie build(Collection<String> rules) {
+        BuildNode buildRoot = new BuildNode();
+        Map<String, String> labels = new HashMap<>(); // One String per distinct label
+        int count = 0;
+        for (String rule : rules) {
+            HostRule parsed = HostRule.parse(rule);
+            if (parsed == null) {
+                continue;
+            }
+            BuildNode node = buildRoot;
+            for (int i = parsed.labels.length - 1; i >= 0; i--) {
+                node = node.children.computeIfAbsent(labels.computeIfAbsent(parsed.labels[i], label -> label), label -> new BuildNode());
+            }
+            if ((node.flags & parsed.flags) != parsed.flags) {
+                count += Integer.bitCount(parsed.flags & ~node.flags);
+                node.flags |= parsed.flags;
+            }
+        }
+        return new DomainTrie(buildRoot.freeze(), count);
+    }
+
+    /**
+     * Returns a trie with {@code rule} added, or this one if the rule is invalid or already present.
+     */
+    @Override
+    public DomainTrie with(String rule) {
+        HostRule parsed = HostRule.parse(rule);
+        if (parsed == null || containsRule(parsed)) {
+            return this;
+        }
+        Node current = find(parsed);
+        int added = Integer.bitCount(parsed.flags & ~(current == null ? 0 : current.flags));
+        return new DomainTrie(update(root, parsed.labels, parsed.labels.length - 1, parsed.flags, true), size + added);
+    }
+
+    /**
+     * Returns a trie without {@code rule}, or this one if it was not present.
+     */
+    @Override
+    public DomainTrie without(String rule) {
+        HostRule parsed = HostRule.parse(rule);
+        Node current = parsed == null ? null : find(parsed);
+        if (current == null || (current.flags & parsed.flags) == 0) {
+            return this;
+        }
+        Node newRoot = update(root, parsed.labels, parsed.labels.length - 1, parsed.flags, false);
+        return new DomainTrie(newRoot == null ? EMPTY_NODE : newRoot, size - Integer.bitCount(current.flags & parsed.flags));
+    }
+
+    @Override
+    public boolean matches(String host) {
+        if (host == null || host.isEmpty()) {
+            return false;
+        }
+        int end = host.length();
+        if (host.charAt(end - 1) == '.') {
+            end--; // Fully qualified form
+        }
+        Node node = root;
+        while (end > 0) {
+            int dot = host.lastIndexOf('.', end - 1);
+            node = node.child(host, dot + 1, end);
+            if (node == null) {
+                return false;
+            }
+            if (dot >= 0 && (node.flags & SUBDOMAINS) != 0) {
+                return true; // More labels below a subdomain rule
+            }
+            end = dot;
+        }
+        return end == 0 ? false : (node.flags & EXACT) != 0;
+    }
+
+    @Override
+    public boolean containsRule(String rule) {
+        HostRule parsed = HostRule.parse(rule);
+        return parsed != null && containsRule(parsed);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private boolean containsRule(HostRule parsed) {
+        Node node = find(parsed);
+        return node != null && (node.flags & parsed.flags) == parsed.flags;
+    }
+
+    private Node find(HostRule parsed) {
+        Node node = root;
+        for (int i = parsed.labels.length - 1; i >= 0 && node != null; i--) {
+            String label = parsed.labels[i];
+            node = node.child(label, 0, label.length());
+        }
+        return node;
+    }
+
+    /**
+     * Path-copying update: returns the replacement for {@code node}, or {@code null} when it ends up empty.
+     */
+    private static Node update(Node node, String[] labels, int index, byte flags, boolean add) {
+        if (index < 0) {
+            byte newFlags = (byte) (add ? node.flags | flags : node.flags & ~flags);
+            return newFlags == 0 && node.labels.length == 0 ? null : new Node(node.labels, node.children, newFlags);
+        }
+        String label = labels[index];
+        int position = node.indexOf(label, 0, label.length());
+        Node child = position >= 0 ? node.children[position] : EMPTY_NODE;
+        Node newChild = update(child, labels, index - 1, flags, add);
+        String[] newLabels;
+        Node[] newChildren;
+        if (position >= 0 && newChild != null) {
+            newLabels = node.labels;
+            newChildren = node.children.clone();
+            newChildren[position] = newChild;
+        } else if (position >= 0) { // Prune the emptied child
+            newLabels = new String[node.labels.length - 1];
+            newChildren = new Node[node.children.length - 1];
+            System.arraycopy(node.labels, 0, newLabels, 0, position);
+            System.arraycopy(node.labels, position + 1, newLabels, position, newLabels.length - position);
+            System.arraycopy(node.children, 0, newChildren, 0, position);
+            System.arraycopy(node.children, position + 1, newChildren, position, newChildren.length - position);
+        } else if (newChild != null) {
+            int insert = -position - 1;
+            newLabels = new String[node.labels.length + 1];
+            newChildren = new Node[node.children.length + 1];
+            System.arraycopy(node.labels, 0, newLabels, 0, insert);
+            System.arraycopy(node.labels, insert, newLabels, insert + 1, node.labels.length - insert);
+            System.arraycopy(node.children, 0, newChildren, 0, insert);
+            System.arraycopy(node.children, insert, newChildren, insert + 1, node.children.length - insert);
+            newLabels[insert] = label;
+            newChildren[insert] = newChild;
+        } else {
+            return node;
+        }
+        return newLabels.length == 0 && node.flags == 0 ? null : new Node(newLabels, newChildren, node.flags);
+    }
+
+    private static final class Node {
+        private final String[] labels; // Sorted, parallel to children
+        private final Node[] children;
+        private final byte flags;
+
+        private Node(String[] labels, Node[] children, byte flags) {
+            this.labels = labels;
+            this.children = children;
+            this.flags = flags;
+        }
+
+        private Node child(String host, int start, int end) {
+            int position = indexOf(host, start, end);
+            return position >= 0 ? children[position] : null;
+        }
+
+        /**
+         * Binary search for {@code host[start, end)}, compared without allocating a substring.
+         */
+        private int indexOf(String host, int start, int end) {
+            int low = 0;
+            int high = labels.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int comparison = compare(labels[middle], host, start, end);
+                if (comparison < 0) {
+                    low = middle + 1;
+                } else if (comparison > 0) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -(low + 1);
+        }
+
+        private static int compare(String label, String host, int start, int end) {
+            int length = Math.min(label.length(), end - start);
+            for (int i = 0; i < length; i++) {
+                int difference = label.charAt(i) - Character.toLowerCase(host.charAt(start + i));
+                if (difference != 0) {
+                    return difference;
+                }
+            }
+            return label.length() - (end - start);
+        }
+    }
+
+    private static final class BuildNode {
+        private final Map<String, BuildNode> children = new TreeMap<>(); // Sorted as the frozen arrays must be
+        private byte flags;
+
+        private Node freeze() {
+            String[] labels = children.keySet().toArray(new String[0]);
+            Node[] frozen = new Node[labels.length];
+            int i = 0;
+            for (BuildNode child : children.values()) {
+                frozen[i++] = child.freeze();
+            }
+            return labels.length == 0 && flags == 0 ? EMPTY_NODE : new Node(labels, frozen, flags);
+        }
+    }
+}
@@ -1,27 +1,54 @@
 package com.example.demo;
 
+import org.postgresql.PGConnection;
+
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
 
 import java.sql.*;
 
+/**
+ * The filtered host list. Lookups read an immutable in-memory {@link HostMatcher} snapshot and never touch the
+ * database, so hosts can be filtered by exact, {@code *.domain} and {@code .domain} rules; the
+ * snapshot is replaced copy-on-write after {@link #addHost}/{@link #removeHost} and, once {@link #start}ed, reloaded
+ * from the database every {@code proxy.filter.reloadMillis} (default 30 s) to pick up changes made elsewhere. On
+ * PostgreSQL a periodic reload first compares the table's modification counters with those seen by the last load,
+ * and skips the rebuild when they haven't moved.
+ * Lists of at least {@code proxy.filter.compactThreshold} rules (default 1,000,000) are loaded into a
+ * {@link CompactHostTable} in {@code proxy.filter.compactDir} (default the temp directory) instead of a
+ * {@link DomainTrie}, trading a little lookup time for a fraction of the heap.
+ */
 public class FilteredListManager {
-    private final Connection connection;
+    private static final long RELOAD_INTERVAL_MILLIS = Long.getLong("proxy.filter.reloadMillis", 30_000L);
+    private static final int COMPACT_THRESHOLD = Integer.getInteger("proxy.filter.compactThreshold", 1_000_000);
+    private static final Path COMPACT_DIR = Path.of(System.getProperty("proxy.filter.compactDir", System.getProperty("java.io.tmpdir")));
 
-    public FilteredListManager() {
-        try {
-            connection = DatabaseConnection.getConnection();
-        } catch (SQLException e) {
-            e.printStackTrace();
-            throw new IllegalStateException("Unable to establish database connection", e);
-        }
+    private final AtomicReference<HostMatcher> snapshot = new AtomicReference<>(DomainTrie.EMPTY);
+    private final Object updateLock = new Object(); // Serializes snapshot replacements
+    private long modifications; // Guarded by updateLock, lets a reload detect edits made while it was reading
+    private String loadedVersion; // Guarded by updateLock, table version the snapshot was loaded at, null if unknown
+
+    /**
+     * Loads the snapshot and starts the periodic reload. Cancelling the returned handle stops the reloads; the
+     * last snapshot stays in use.
+     */
+    public ReloadSchedule start() {
+        ReloadSchedule schedule = new ReloadSchedule();
+        reload();
+        scheduleReload(schedule);
+        return schedule;
     }
 
     public void addHost(String host) {
-        try {
-            PreparedStatement statement = connection.prepareStatement("INSERT INTO filtered_hosts (host) VALUES (?)");
+        try (Connection connection = DatabaseConnection.getConnection();
+             PreparedStatement statement = connection.prepareStatement("INSERT INTO filtered_hosts (host) VALUES (?)")) {
             statement.setString(1, host);
             statement.executeUpdate();
+            update(trie -> trie.with(host));
         } catch (SQLException e) {
             e.printStackTrace();
             // Handle exception appropriately
@@ -30,23 +57,15 @@ public class FilteredListManager {
 
 
     public boolean isHostExist(String host) {
-        try {
-            PreparedStatement statement = connection.prepareStatement("SELECT COUNT(*) FROM filtered_hosts WHERE host = ?");
-            statement.setString(1, host);
-            ResultSet resultSet = statement.executeQuery();
-            resultSet.next();
-            return resultSet.getInt(1) > 0;
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return false;
-        }
+        return snapshot.get().containsRule(host);
     }
 
     public boolean removeHost(String host) {
-        try {
-            PreparedStatement statement = connection.prepareStatement("DELETE FROM filtered_hosts WHERE host = ?");
+        try (Connection connection = DatabaseConnection.getConnection();
+             PreparedStatement statement = connection.prepareStatement("DELETE FROM filtered_hosts WHERE host = ?")) {
             statement.setString(1, host);
             int affectedRows = statement.executeUpdate();
+            update(trie -> trie.without(host));
             return affectedRows > 0;
         } catch (SQLException e) {
             e.printStackTrace();
@@ -55,25 +74,32 @@ public class FilteredListManager {
     }
 
 
+    /**
+     * Called for every proxied request, answered from the in-memory snapshot.
+     */
     public boolean isFilteredHost(String host) {
-        try {
-            PreparedStatement statement = connection.prepareStatement("SELECT COUNT(*) FROM filtered_hosts WHERE host = ?");
-            statement.setString(1, host);
-            ResultSet resultSet = statement.executeQuery();
-            resultSet.next();
-            return resultSet.getInt(1) > 0;
-        } catch (SQLException e) {
-            e.printStackTrace();
-            // Handle exception appropriately
-            return false;
-        }
+        return snapshot.get().matches(host);
+    }
+
+    public int getRuleCount() {
+        return snapshot.get().size();
+    }
+
+    /**
+     * Bulk-loads a hosts file or blocklist into the table, then rebuilds the snapshot once. Runs on the caller's
+     * thread and can take a while for large lists.
+     */
+    public BlocklistImporter.Result importHosts(Path file) throws IOException, SQLException {
+        BlocklistImporter.Result result = new BlocklistImporter().importFile(file);
+        reload();
+        return result;
     }
 
     public List<String> getFilteredHosts() {
         List<String> filteredHosts = new ArrayList<>();
-        try {
-            Statement statement = connection.createStatement();
-            ResultSet resultSet = statement.executeQuery("SELECT host FROM filtered_hosts");
+        try (Connection connection = DatabaseConnection.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT host FROM filtered_hosts")) {
             while (resultSet.next()) {
                 filteredHosts.add(resultSet.getString("host"));
             }
@@ -83,4 +109,120 @@ public class FilteredListManager {
         }
         return filteredHosts;
     }
+
+    /**
+     * Replaces the snapshot with the current contents of the table. A reload that overlaps an add or remove is
+     * discarded, the next one picks the change up.
+     */
+    public void reload() {
+        reload(tableVersion());
+    }
+
+    private void reload(String version) {
+        long startedAt;
+        synchronized (updateLock) {
+            startedAt = modifications;
+        }
+        List<String> hosts = new ArrayList<>();
+        try (Connection connection = DatabaseConnection.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT host FROM filtered_hosts")) {
+            while (resultSet.next()) {
+                hosts.add(resultSet.getString("host"));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return; // Keep filtering with the last good snapshot
+        }
+        HostMatcher loaded = build(hosts); // Outside the lock, large lists take a while
+        synchronized (updateLock) {
+            if (modifications == startedAt) {
+                snapshot.set(loaded);
+                loadedVersion = version;
+            }
+        }
+    }
+
+    /**
+     * Reloads unless the table is known to be unchanged since the last load.
+     */
+    private void reloadIfChanged() {
+        String version = tableVersion();
+        synchronized (updateLock) {
+            if (version != null && version.equals(loadedVersion)) {
+                return;
+            }
+        }
+        reload(version);
+    }
+
+    /**
+     * A cheap fingerprint of the table from PostgreSQL's statistics: the inserted, updated and deleted tuple
+     * counters plus the live tuple estimate, which also moves on a TRUNCATE. A single catalog row, never a scan of
+     * the table. Read before the rows, so a change made during a load shows up as a new version next time.
+     * {@code null} on other databases or if it can't be read, which always reloads.
+     */
+    private static String tableVersion() {
+        try (Connection connection = DatabaseConnection.getConnection();
+             Statement statement = connection.createStatement()) {
+            if (!connection.isWrapperFor(PGConnection.class)) {
+                return null;
+            }
+            try (ResultSet resultSet = statement.executeQuery("SELECT n_tup_ins, n_tup_upd, n_tup_del, n_live_tup FROM pg_stat_user_tables WHERE relid = 'filtered_hosts'::regclass")) {
+                return resultSet.next() ? resultSet.getLong(1) + "/" + resultSet.getLong(2) + "/" + resultSet.getLong(3) + "/" + resultSet.getLong(4) : null;
+            }
+        } catch (SQLException e) {
+            return null;
+        }
+    }
+
+    private static HostMatcher build(List<String> hosts) {
+        if (hosts.size() >= COMPACT_THRESHOLD) {
+            try {
+                return CompactHostTable.build(hosts, COMPACT_DIR);
+            } catch (IOException e) {
+                System.out.println("Could not build the compact host table, keeping the list in memory: " + e.getMessage());
+            }
+        }
+        return DomainTrie.build(hosts);
+    }
+
+    private void update(UnaryOperator<HostMatcher> change) {
+        synchronized (updateLock) {
+            snapshot.set(change.apply(snapshot.get())); // Path copy, readers keep the old trie
+            modifications++;
+        }
+    }
+
+    private void scheduleReload(ReloadSchedule schedule) {
+        // The query runs on its own thread, timing wheel tasks must stay short
+        schedule.next = TimingWheel.SHARED.schedule(RELOAD_INTERVAL_MILLIS, () -> Thread.startVirtualThread(() -> {
+            if (!schedule.cancelled) {
+                reloadIfChanged();
+                scheduleReload(schedule);
+            }
+        }));
+        if (schedule.cancelled) {
+            schedule.next.cancel(); // Cancelled while this one was being scheduled
+        }
+    }
+
+    /**
+     * Handle on the periodic reload started by {@link #start}.
+     */
+    public static final class ReloadSchedule {
+        private volatile boolean cancelled;
+        private volatile TimingWheel.Timeout next;
+
+        private ReloadSchedule() {
+        }
+
+        public void cancel() {
+            cancelled = true;
+            TimingWheel.Timeout timeout = next;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+    }
 }
@@ -5,19 +5,23 @@ import java.util.*;
 
 public class HeaderUtils {
 
-    public static String processHeaders(String headers, URL url, String method) {
+    public static String processHeaders(String headers, URL url, String method, boolean keepAlive) {
         StringBuilder processedHeaders = new StringBuilder();
         Set<String> sentHeaders = new HashSet<>();
 
         // Common headers processing
-        processedHeaders.append(method).append(" ").append(url.getPath()).append(" HTTP/1.1\r\n");
-        // it produces a string like "GET /path HTTP/1.1\r\n"
+        String file = url.getFile().isEmpty() ? "/" : url.getFile(); // Path plus query string
+        processedHeaders.append(method).append(" ").append(file).append(" HTTP/1.1\r\n");
+        // it produces a string like "GET /path?query HTTP/1.1\r\n"
 
         String[] lines = headers.split("\r\n");
         for (String line : lines) {
             int colonPos = line.indexOf(':');
             if (colonPos != -1) {
                 String headerName = line.substring(0, colonPos).trim();
+                if (HttpResponseHead.isConnectionHeader(headerName)) {
+                    continue; // Hop-by-hop: the upstream connection gets our own Connection header below
+                }
                 if (!sentHeaders.contains(headerName)) {
                     processedHeaders.append(line).append("\r\n");
                     sentHeaders.add(headerName);
@@ -30,8 +34,8 @@ public class HeaderUtils {
             processedHeaders.append("Host: ").append(url.getHost()).append("\r\n");
         }
 
-        // Always close the connection after the request is completed
-        processedHeaders.append("Connection: close\r\n");
+        // Pooled upstream connections stay open, everything else is closed after the request is completed
+        processedHeaders.append(keepAlive ? "Connection: keep-alive\r\n" : "Connection: close\r\n");
 
         return processedHeaders.toString();
     }
@@ -1,6 +1,7 @@
 package com.example.demo;
 
 import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyObjectWrapper;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
@@ -9,20 +10,19 @@ import javafx.scene.layout.*;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.nio.channels.ServerSocketChannel;
 import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
 
 public class HomepageScreen {
     private final Scene scene;
@@ -33,18 +33,26 @@ public class HomepageScreen {
     private volatile boolean isRunning = false;
     private Thread httpProxyThread;
     private Thread httpsProxyThread;
-    private final TextArea logTextArea;
-    private ConcurrentMap<String, CachedResources> cache;
+    private ConnectionExecutor connectionExecutor;
+    private TunnelEngine tunnelEngine;
+    private UpstreamConnectionPool upstreamPool;
+    private BackgroundRefresher refresher;
+    private RequestLogSink requestLog;
+    private TrafficRollup traffic;
+    private final LogBuffer logBuffer; // Filled by any thread, drained by logView once per frame
+    private final LogView logView;
+    private ProxyCache cache;
     private final Customer currentCustomer;
 
-    public HomepageScreen(Stage primaryStage, FilteredListManager filteredListManager, ConcurrentMap<String, CachedResources> cache, Customer currentCustomer) {
+    public HomepageScreen(Stage primaryStage, FilteredListManager filteredListManager, ProxyCache cache, Customer currentCustomer) {
         this.primaryStage = primaryStage;
         this.filteredListManager = filteredListManager;
         this.cache = cache;
         this.currentCustomer = currentCustomer;
-        this.logTextArea = new TextArea();
+        this.logBuffer = LogBuffer.fromSystemProperties();
+        this.logView = LogView.fromSystemProperties(logBuffer);
 
-        configureTextArea();
+        configureLogView();
         VBox homepageLayout = configureLayout();
         BorderPane root = new BorderPane(homepageLayout, new MenuBar(createFileMenu(), createHelpMenu()), null, null, null);
         root.setPadding(new Insets(20));
@@ -52,12 +60,9 @@ public class HomepageScreen {
         this.scene.getStylesheets().add(getClass().getResource("styles.css").toExternalForm());
     }
 
-    private void configureTextArea() {
-        logTextArea.setEditable(false);
-        logTextArea.setWrapText(true);
-        logTextArea.setPrefHeight(200);
-        logTextArea.setStyle("-fx-font-family: 'Courier New'; -fx-font-size: 12;");
-        VBox.setVgrow(logTextArea, Priority.ALWAYS);  // Make TextArea grow vertically
+    private void configureLogView() {
+        logView.setPrefHeight(200);
+        VBox.setVgrow(logView, Priority.ALWAYS);  // Make the log view grow vertically
     }
 
     private VBox configureLayout() {
@@ -76,7 +81,7 @@ public class HomepageScreen {
         HBox buttonBox = new HBox(10, startButton, stopButton);
         buttonBox.setAlignment(Pos.CENTER);
 
-        VBox layout = new VBox(20, statusLabel, buttonBox, logTextArea);
+        VBox layout = new VBox(20, statusLabel, buttonBox, logView);
         layout.setAlignment(Pos.CENTER);
         layout.setPadding(new Insets(20));
         layout.setStyle("-fx-background-color: #f0f0f0; -fx-border-color: #ccc; -fx-border-width: 1; -fx-border-radius: 5;");
@@ -85,8 +90,14 @@ public class HomepageScreen {
 
     private void startProxy(Label statusLabel) {
         try {
-            httpServerSocket = new ServerSocket(80);
-            httpsServerSocket = new ServerSocket(443);
+            httpServerSocket = openServerSocket(80);
+            httpsServerSocket = openServerSocket(443);
+            connectionExecutor = ConnectionExecutor.fromSystemProperties();
+            tunnelEngine = TunnelEngine.fromSystemProperties();
+            upstreamPool = UpstreamConnectionPool.fromSystemProperties();
+            refresher = BackgroundRefresher.fromSystemProperties(cache, upstreamPool, logBuffer);
+            requestLog = RequestLogSink.fromSystemProperties();
+            traffic = TrafficRollup.fromSystemProperties();
             isRunning = true;
             updateStatus(statusLabel, "Proxy Status: Starting...");
 
@@ -95,8 +106,10 @@ public class HomepageScreen {
                 try {
                     while (isRunning && !Thread.currentThread().isInterrupted()) {
                         Socket incoming = httpServerSocket.accept();
-                        new ServerHandler(incoming, filteredListManager, logTextArea, cache, currentCustomer,false).start();
+                        connectionExecutor.submitConnection(new ServerHandler(incoming, filteredListManager, logBuffer, cache, currentCustomer, false, connectionExecutor, tunnelEngine, upstreamPool, refresher, requestLog, traffic));
                     }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt(); // Interrupted while waiting for a free connection slot
                 } catch (IOException e) {
                     if (isRunning) { // Only log unexpected errors.
                         logError("Error accepting connection on HTTP port: " + e.getMessage());
@@ -112,8 +125,10 @@ public class HomepageScreen {
                 try {
                     while (isRunning && !Thread.currentThread().isInterrupted()) {
                         Socket incoming = httpsServerSocket.accept();
-                        new ServerHandler(incoming, filteredListManager, logTextArea, cache, currentCustomer, true).start();
+                        connectionExecutor.submitConnection(new ServerHandler(incoming, filteredListManager, logBuffer, cache, currentCustomer, true, connectionExecutor, tunnelEngine, upstreamPool, refresher, requestLog, traffic));
                     }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt(); // Interrupted while waiting for a free connection slot
                 } catch (IOException e) {
                     if (isRunning) { // Only log unexpected errors.
                         logError("Error accepting connection on HTTPS port: " + e.getMessage());
@@ -134,6 +149,13 @@ public class HomepageScreen {
         }
     }
 
+    private ServerSocket openServerSocket(int port) throws IOException {
+        // Channel-backed so accepted sockets can later be handed to the non-blocking TunnelEngine
+        ServerSocket serverSocket = ServerSocketChannel.open().socket();
+        serverSocket.bind(new InetSocketAddress(port));
+        return serverSocket;
+    }
+
     private void stopProxy(Label statusLabel) {
         if (!isRunning) {
             updateStatus(statusLabel, "Proxy Status: Already Stopped");
@@ -156,6 +178,24 @@ public class HomepageScreen {
                 httpsProxyThread.interrupt();
                 httpsProxyThread.join(3000); // Wait for the thread to finish
             }
+            if (connectionExecutor != null) {
+                connectionExecutor.shutdown(); // Let in-flight connections finish, accept no new ones
+            }
+            if (tunnelEngine != null) {
+                tunnelEngine.shutdown(); // Open tunnels keep running until their peers close them
+            }
+            if (refresher != null) {
+                refresher.shutdown(); // Queued refreshes are dropped, entries refresh again on their next hit
+            }
+            if (upstreamPool != null) {
+                upstreamPool.close(); // Drop idle keep-alive connections to origin servers
+            }
+            if (requestLog != null) {
+                requestLog.shutdown(5000); // Flush queued log entries
+            }
+            if (traffic != null) {
+                traffic.shutdown(5000); // Write out the counters of the last few minutes
+            }
             updateStatus(statusLabel, "Proxy Status: Stopped");
         } catch (IOException | InterruptedException e) {
             logError("Error occurred while closing the proxy: " + e.getMessage());
@@ -168,7 +208,8 @@ public class HomepageScreen {
     }
 
     private void logError(String error) {
-        System.out.println(error);  // Replace this with a more robust logging approach
+        System.out.println(error);
+        logBuffer.log(LogBuffer.Level.ERROR, error);
     }
 
     private Menu createFileMenu() {
@@ -183,19 +224,34 @@ public class HomepageScreen {
         MenuItem reportItem = new MenuItem("Report");
         reportItem.setOnAction(e -> promptForIpAddress());
 
+        MenuItem trafficItem = new MenuItem("Traffic Summary");
+        trafficItem.setOnAction(e -> promptForTrafficSummary());
+
+        MenuItem exportItem = new MenuItem("Export Request Logs...");
+        exportItem.setOnAction(e -> exportRequestLogs(""));
+
         MenuItem addHostItem = new MenuItem("Add Host to Filter");
         addHostItem.setOnAction(e -> addHostToFilter());
 
+        MenuItem importHostsItem = new MenuItem("Import Blocklist...");
+        importHostsItem.setOnAction(e -> importBlocklist());
+
         MenuItem removeHostItem = new MenuItem("Remove Host from Filter");
         removeHostItem.setOnAction(e -> removeHostFromFilter());
 
         MenuItem displayFilterItem = new MenuItem("Display Current Filtered Hosts");
         displayFilterItem.setOnAction(e -> displayFilteredHosts());
 
+        MenuItem cacheStatsItem = new MenuItem("Cache Statistics");
+        cacheStatsItem.setOnAction(e -> displayCacheStatistics());
+
+        MenuItem databaseStatsItem = new MenuItem("Database Statistics");
+        databaseStatsItem.setOnAction(e -> displayDatabaseStatistics());
+
         MenuItem exitItem = new MenuItem("Exit");
         exitItem.setOnAction(e -> primaryStage.close());
 
-        fileMenu.getItems().addAll(startItem, stopItem, reportItem, addHostItem, displayFilterItem, removeHostItem, new SeparatorMenuItem(), exitItem);
+        fileMenu.getItems().addAll(startItem, stopItem, reportItem, trafficItem, exportItem, addHostItem, importHostsItem, displayFilterItem, removeHostItem, cacheStatsItem, databaseStatsItem, new SeparatorMenuItem(), exitItem);
         return fileMenu;
     }
 
@@ -223,6 +279,42 @@ public class HomepageScreen {
         });
     }
 
+    private void importBlocklist() {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Import Blocklist");
+        fileChooser.getExtensionFilters().addAll(new FileChooser.ExtensionFilter("Hosts and Blocklist Files", "*.txt", "hosts", "*.hosts", "*.list"),
+                new FileChooser.ExtensionFilter("All Files", "*"));
+        File file = fileChooser.showOpenDialog(primaryStage);
+        if (file == null) {
+            return;
+        }
+        appendToLog("Importing " + file.getName() + "...");
+        Thread importThread = new Thread(() -> { // Millions of lines, keep the UI responsive
+            try {
+                BlocklistImporter.Result result = filteredListManager.importHosts(file.toPath());
+                appendToLog("Imported " + file.getName() + ": " + result.getRules() + " rules from " + result.getLines() + " lines, " + result.getInserted() + " new");
+                Platform.runLater(() -> {
+                    Alert confirmation = new Alert(Alert.AlertType.INFORMATION);
+                    confirmation.setTitle("Import Finished");
+                    confirmation.setHeaderText(null);
+                    confirmation.setContentText(result.getInserted() + " new hosts added to the filter list (" + result.getRules() + " read from " + file.getName() + ").");
+                    confirmation.showAndWait();
+                });
+            } catch (IOException | SQLException e) {
+                logError("Error importing blocklist: " + e.getMessage());
+                Platform.runLater(() -> {
+                    Alert error = new Alert(Alert.AlertType.ERROR);
+                    error.setTitle("Import Failed");
+                    error.setHeaderText(null);
+                    error.setContentText("Failed to import '" + file.getName() + "': " + e.getMessage());
+                    error.showAndWait();
+                });
+            }
+        }, "blocklist-import");
+        importThread.setDaemon(true);
+        importThread.start();
+    }
+
     private void removeHostFromFilter() {
         TextInputDialog dialog = new TextInputDialog();
         dialog.setTitle("Remove Host from Filter");
@@ -271,95 +363,265 @@ public class HomepageScreen {
         alert.showAndWait();
     }
 
+    private void displayCacheStatistics() {
+        Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.setTitle("Cache Statistics");
+        alert.setHeaderText(null);
+        alert.setContentText(cache.getStatistics());
+        alert.showAndWait();
+    }
+
+    private void displayDatabaseStatistics() {
+        StringBuilder statistics = new StringBuilder(DatabaseConnection.getPool().getStatistics());
+        if (requestLog != null) {
+            statistics.append("\n").append(requestLog.getStatistics());
+        }
+        if (traffic != null) {
+            statistics.append("\n").append(traffic.getStatistics());
+        }
+        Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.setTitle("Database Statistics");
+        alert.setHeaderText(null);
+        alert.setContentText(statistics.toString());
+        alert.showAndWait();
+    }
+
     private void displayReport(String ipAddress) {
-        // Logic to fetch log entries from the database
-        try (Connection connection = DatabaseConnection.getConnection()) {
-            String sql = "SELECT r.date, r.client_ip, r.domain, r.resource_path, r.method, r.status_code " +
-                    "FROM request_logs r " +
-                    "JOIN Customer c ON r.customer_id = c.id " +
-                    "WHERE r.client_ip = ?";
-            try (PreparedStatement statement = connection.prepareStatement(sql)) {
-                statement.setString(1, ipAddress);
-                try (ResultSet resultSet = statement.executeQuery()) {
-                    StringBuilder reportBuilder = new StringBuilder();
-                    while (resultSet.next()) {
-                        // Retrieve data from the result set
-                        Date date = resultSet.getDate("date");
-                        String clientIP = resultSet.getString("client_ip");
-                        String domain = resultSet.getString("domain");
-                        String resourcePath = resultSet.getString("resource_path");
-                        String method = resultSet.getString("method");
-                        int statusCode = resultSet.getInt("status_code");
-                        // Append data to the report string
-                        reportBuilder.append("Date: ").append(date).append("\n");
-                        reportBuilder.append("Client IP: ").append(clientIP).append("\n");
-                        reportBuilder.append("Domain: ").append(domain).append("\n");
-                        reportBuilder.append("Resource Path: ").append(resourcePath).append("\n");
-                        reportBuilder.append("Method: ").append(method).append("\n");
-                        reportBuilder.append("Status Code: ").append(statusCode).append("\n");
-                        reportBuilder.append("\n"); // Add a newline between entries
-                    }
-                    // Create a scrollable text area and set it to the content of the report
-                    TextArea textArea = new TextArea(reportBuilder.toString());
-                    textArea.setEditable(false);
-                    textArea.setWrapText(true);
-                    textArea.setMaxWidth(Double.MAX_VALUE);
-                    textArea.setMaxHeight(Double.MAX_VALUE);
-                    GridPane.setVgrow(textArea, Priority.ALWAYS);
-                    GridPane.setHgrow(textArea, Priority.ALWAYS);
-
-                    GridPane expContent = new GridPane();
-                    expContent.setMaxWidth(Double.MAX_VALUE);
-                    expContent.add(textArea, 0, 0);
-
-                    // Add export button
-                    Button exportButton = new Button("Export as TXT");
-                    exportButton.setStyle("-fx-background-color: #2196F3; -fx-text-fill: white;");
-                    exportButton.setOnAction(e -> exportReportAsTxt(reportBuilder.toString()));
-
-                    VBox vbox = new VBox(expContent, exportButton);
-                    vbox.setSpacing(10);
-                    vbox.setPadding(new Insets(20));
-                    vbox.setStyle("-fx-background-color: #fff; -fx-border-color: #ccc; -fx-border-width: 1; -fx-border-radius: 5;");
-
-                    // Show the report in a popup dialog with a scrollable area
-                    Alert reportAlert = new Alert(Alert.AlertType.INFORMATION);
-                    reportAlert.setTitle("Request Log Report");
-                    reportAlert.setHeaderText("Log Report for IP: " + ipAddress);
-                    reportAlert.getDialogPane().setContent(vbox);
-                    reportAlert.showAndWait();
+        ReportTable reportTable = new ReportTable(new RequestLogReport(ipAddress));
+        TableView<RequestLogReport.Row> table = reportTable.table;
+        table.setMaxWidth(Double.MAX_VALUE);
+        table.setMaxHeight(Double.MAX_VALUE);
+        table.setPrefSize(800, 500);
+        GridPane.setVgrow(table, Priority.ALWAYS);
+        GridPane.setHgrow(table, Priority.ALWAYS);
+
+        GridPane expContent = new GridPane();
+        expContent.setMaxWidth(Double.MAX_VALUE);
+        expContent.add(table, 0, 0);
+
+        // Add export button
+        Button exportButton = new Button("Export...");
+        exportButton.setStyle("-fx-background-color: #2196F3; -fx-text-fill: white;");
+        exportButton.setOnAction(e -> exportRequestLogs(ipAddress));
+
+        VBox vbox = new VBox(expContent, exportButton);
+        vbox.setSpacing(10);
+        vbox.setPadding(new Insets(20));
+        vbox.setStyle("-fx-background-color: #fff; -fx-border-color: #ccc; -fx-border-width: 1; -fx-border-radius: 5;");
+
+        reportTable.loadMore(); // Fetched in the background, the dialog opens right away
+
+        // Show the report in a popup dialog; rows are fetched a page at a time as the table is scrolled
+        Alert reportAlert = new Alert(Alert.AlertType.INFORMATION);
+        reportAlert.setTitle("Request Log Report");
+        reportAlert.setHeaderText("Log Report for IP: " + ipAddress);
+        reportAlert.getDialogPane().setContent(vbox);
+        reportAlert.setResizable(true);
+        reportAlert.showAndWait();
+    }
+
+    private void promptForTrafficSummary() {
+        TextInputDialog dialog = new TextInputDialog();
+        dialog.setTitle("Traffic Summary");
+        dialog.setHeaderText("Enter the IP address, or leave empty for all clients:");
+        Optional<String> result = dialog.showAndWait();
+        result.ifPresent(ip -> displayTrafficSummary(ip.isBlank() ? null : ip.trim()));
+    }
+
+    /**
+     * Shows today's busiest domains from the traffic rollup, which stays a small query however much traffic
+     * the proxy has seen.
+     */
+    private void displayTrafficSummary(String ipAddress) {
+        TableView<TrafficRollup.DomainTraffic> table = new TableView<>();
+        table.getColumns().add(trafficColumn("Domain", 200, TrafficRollup.DomainTraffic::getDomain));
+        table.getColumns().add(trafficColumn("Requests", 80, TrafficRollup.DomainTraffic::getRequests));
+        table.getColumns().add(trafficColumn("Bytes", 100, TrafficRollup.DomainTraffic::getBytes));
+        for (int hundreds = 2; hundreds <= 5; hundreds++) {
+            int statusClass = hundreds;
+            table.getColumns().add(trafficColumn(hundreds + "xx", 60, row -> row.getStatusCount(statusClass)));
+        }
+        table.setPlaceholder(new Label("Loading..."));
+        table.setPrefSize(650, 400);
+
+        TrafficRollup currentTraffic = traffic;
+        Date since = Date.from(LocalDate.now().atStartOfDay(ZoneId.systemDefault()).toInstant());
+        Thread summaryThread = new Thread(() -> {
+            try {
+                if (currentTraffic != null) {
+                    currentTraffic.flush(); // Include the requests counted since the last periodic flush
                 }
+                List<TrafficRollup.DomainTraffic> rows = TrafficRollup.topDomains(ipAddress, since, 100);
+                Platform.runLater(() -> {
+                    table.getItems().setAll(rows);
+                    table.setPlaceholder(new Label("No traffic recorded today"));
+                });
             } catch (SQLException e) {
-                throw new RuntimeException(e);
+                logError("Error fetching the traffic summary: " + e.getMessage());
+                Platform.runLater(() -> table.setPlaceholder(new Label("Could not load the traffic summary: " + e.getMessage())));
             }
-        } catch (SQLException e) {
-            logError("Error fetching log entries from the database: " + e.getMessage());
-            // Handle the exception (e.g., show an error message to the user)
+        }, "traffic-summary");
+        summaryThread.setDaemon(true);
+        summaryThread.start();
+
+        Alert summaryAlert = new Alert(Alert.AlertType.INFORMATION);
+        summaryAlert.setTitle("Traffic Summary");
+        summaryAlert.setHeaderText("Top domains today" + (ipAddress != null ? " for IP: " + ipAddress : ""));
+        summaryAlert.getDialogPane().setContent(table);
+        summaryAlert.setResizable(true);
+        summaryAlert.showAndWait();
+    }
+
+    private static <T> TableColumn<TrafficRollup.DomainTraffic, T> trafficColumn(String title, double width, Function<TrafficRollup.DomainTraffic, T> value) {
+        TableColumn<TrafficRollup.DomainTraffic, T> column = new TableColumn<>(title);
+        column.setPrefWidth(width);
+        column.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(value.apply(cell.getValue())));
+        return column;
+    }
+
+    /**
+     * A virtualized table over a {@link RequestLogReport}. Only the rows on screen get cells; the next page is
+     * fetched off the FX thread once a row near the end of what has been loaded is shown.
+     */
+    private final class ReportTable {
+        private final RequestLogReport report;
+        private final TableView<RequestLogReport.Row> table = new TableView<>();
+        private boolean loading; // FX thread only
+
+        ReportTable(RequestLogReport report) {
+            this.report = report;
+            table.getColumns().add(column("Date", 170, RequestLogReport.Row::getDate));
+            table.getColumns().add(column("Client IP", 110, RequestLogReport.Row::getClientIP));
+            table.getColumns().add(column("Domain", 170, RequestLogReport.Row::getDomain));
+            table.getColumns().add(column("Resource Path", 220, RequestLogReport.Row::getResourcePath));
+            table.getColumns().add(column("Method", 70, RequestLogReport.Row::getMethod));
+            table.getColumns().add(column("Status Code", 90, RequestLogReport.Row::getStatusCode));
+            table.setPlaceholder(new Label("Loading..."));
+            table.setRowFactory(view -> new TableRow<>() {
+                @Override
+                protected void updateItem(RequestLogReport.Row item, boolean empty) {
+                    super.updateItem(item, empty);
+                    if (!empty && getIndex() >= view.getItems().size() - RequestLogReport.PAGE_SIZE / 4) {
+                        loadMore();
+                    }
+                }
+            });
+        }
+
+        void loadMore() {
+            if (loading || report.isExhausted()) {
+                return;
+            }
+            loading = true;
+            Thread pageThread = new Thread(() -> {
+                try {
+                    List<RequestLogReport.Row> page = report.nextPage();
+                    Platform.runLater(() -> {
+                        table.getItems().addAll(page);
+                        if (table.getItems().isEmpty()) {
+                            table.setPlaceholder(new Label("No requests logged for " + report.getClientIP()));
+                        }
+                        loading = false;
+                    });
+                } catch (SQLException e) {
+                    logError("Error fetching log entries from the database: " + e.getMessage());
+                    Platform.runLater(() -> {
+                        table.setPlaceholder(new Label("Could not load the report: " + e.getMessage()));
+                        loading = false;
+                    });
+                }
+            }, "request-log-report");
+            pageThread.setDaemon(true);
+            pageThread.start();
+        }
+
+        private <T> TableColumn<RequestLogReport.Row, T> column(String title, double width, Function<RequestLogReport.Row, T> value) {
+            TableColumn<RequestLogReport.Row, T> column = new TableColumn<>(title);
+            column.setPrefWidth(width);
+            column.setSortable(false); // Rows come in keyset order; sorting would only reorder the loaded pages
+            column.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(value.apply(cell.getValue())));
+            return column;
         }
     }
 
-    private void exportReportAsTxt(String reportContent) {
+    /**
+     * Asks for the filters, format and file, then streams the matching request logs to it in the background.
+     */
+    private void exportRequestLogs(String ipAddress) {
+        TextField ipField = new TextField(ipAddress);
+        ipField.setPromptText("All clients");
+        DatePicker fromPicker = new DatePicker();
+        DatePicker toPicker = new DatePicker();
+        TextField domainField = new TextField();
+        domainField.setPromptText("All domains");
+        ChoiceBox<RequestLogExporter.Format> formatChoice = new ChoiceBox<>();
+        formatChoice.getItems().addAll(RequestLogExporter.Format.values());
+        formatChoice.setValue(RequestLogExporter.Format.CSV);
+        CheckBox gzipCheck = new CheckBox("Compress with gzip");
+
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(10);
+        grid.addRow(0, new Label("Client IP:"), ipField);
+        grid.addRow(1, new Label("From:"), fromPicker);
+        grid.addRow(2, new Label("To:"), toPicker);
+        grid.addRow(3, new Label("Domain:"), domainField);
+        grid.addRow(4, new Label("Format:"), formatChoice);
+        grid.add(gzipCheck, 1, 5);
+
+        Dialog<ButtonType> dialog = new Dialog<>();
+        dialog.setTitle("Export Request Logs");
+        dialog.setHeaderText("Choose the requests to export:");
+        dialog.getDialogPane().setContent(grid);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+        if (dialog.showAndWait().filter(button -> button == ButtonType.OK).isEmpty()) {
+            return;
+        }
+
+        RequestLogExporter.Format format = formatChoice.getValue();
+        boolean gzip = gzipCheck.isSelected();
+        String extension = (format == RequestLogExporter.Format.CSV ? ".csv" : ".ndjson") + (gzip ? ".gz" : "");
         FileChooser fileChooser = new FileChooser();
-        fileChooser.setTitle("Save Report");
-        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Text Files", "*.txt"));
+        fileChooser.setTitle("Export Request Logs");
+        fileChooser.setInitialFileName("request-logs" + extension);
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter(format + " Files", "*" + extension));
         File file = fileChooser.showSaveDialog(primaryStage);
-        if (file != null) {
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
-                writer.write(reportContent);
-                Alert confirmation = new Alert(Alert.AlertType.INFORMATION);
-                confirmation.setTitle("Export Successful");
-                confirmation.setHeaderText(null);
-                confirmation.setContentText("Report successfully exported to " + file.getAbsolutePath());
-                confirmation.showAndWait();
-            } catch (IOException e) {
-                logError("Error exporting report: " + e.getMessage());
-                Alert error = new Alert(Alert.AlertType.ERROR);
-                error.setTitle("Export Failed");
-                error.setHeaderText(null);
-                error.setContentText("Failed to export the report. Please try again.");
-                error.showAndWait();
-            }
+        if (file == null) {
+            return;
         }
+
+        ZoneId zone = ZoneId.systemDefault();
+        Date from = fromPicker.getValue() == null ? null : Date.from(fromPicker.getValue().atStartOfDay(zone).toInstant());
+        Date to = toPicker.getValue() == null ? null : Date.from(toPicker.getValue().plusDays(1).atStartOfDay(zone).toInstant()); // Through the end of that day
+        String ip = ipField.getText().isBlank() ? null : ipField.getText().trim();
+        String domain = domainField.getText().isBlank() ? null : domainField.getText().trim();
+        RequestLogExporter exporter = new RequestLogExporter(ip, from, to, domain);
+
+        appendToLog("Exporting request logs to " + file.getName() + "...");
+        Thread exportThread = new Thread(() -> { // Can run for a long time on a big table
+            try {
+                long rows = exporter.export(file.toPath(), format, gzip);
+                appendToLog("Exported " + rows + " request log entries to " + file.getName());
+                Platform.runLater(() -> {
+                    Alert confirmation = new Alert(Alert.AlertType.INFORMATION);
+                    confirmation.setTitle("Export Successful");
+                    confirmation.setHeaderText(null);
+                    confirmation.setContentText(rows + " entries exported to " + file.getAbsolutePath());
+                    confirmation.showAndWait();
+                });
+            } catch (IOException | SQLException e) {
+                logError("Error exporting request logs: " + e.getMessage());
+                Platform.runLater(() -> {
+                    Alert error = new Alert(Alert.AlertType.ERROR);
+                    error.setTitle("Export Failed");
+                    error.setHeaderText(null);
+                    error.setContentText("Failed to export the request logs: " + e.getMessage());
+                    error.showAndWait();
+                });
+            }
+        }, "request-log-export");
+        exportThread.setDaemon(true);
+        exportThread.start();
     }
 
     private Menu createHelpMenu() {
@@ -376,7 +638,7 @@ public class HomepageScreen {
     }
 
     private void appendToLog(String message) {
-        Platform.runLater(() -> logTextArea.appendText(message + "\n"));
+        logBuffer.info(message);
     }
 
     public void show() {
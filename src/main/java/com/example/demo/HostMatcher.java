@@ -0,0 +1,25 @@
+package com.example.demo;
+
+/**
+ * An immutable set of host rules ({@code example.com}, {@code *.example.com}, {@code .example.com}) that the
+ * proxy checks every request against. Changes return a new matcher, so one can be published while readers keep
+ * using the old one.
+ */
+public interface HostMatcher {
+
+    boolean matches(String host);
+
+    /**
+     * Whether the matcher holds exactly this rule, as opposed to a rule that happens to match it.
+     */
+    boolean containsRule(String rule);
+
+    /**
+     * Number of rules; {@code .domain} counts as two, one for the domain and one for its subdomains.
+     */
+    int size();
+
+    HostMatcher with(String rule);
+
+    HostMatcher without(String rule);
+}
@@ -0,0 +1,50 @@
+package com.example.demo;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A filter rule split into lower-case labels in host order, with the flags its form stands for:
+ * {@code example.com} is {@link #EXACT}, {@code *.example.com} is {@link #SUBDOMAINS} and {@code .example.com}
+ * is both.
+ */
+final class HostRule {
+    static final byte EXACT = 1;
+    static final byte SUBDOMAINS = 2;
+
+    final String domain;
+    final String[] labels;
+    final byte flags;
+
+    private HostRule(String domain, String[] labels, byte flags) {
+        this.domain = domain;
+        this.labels = labels;
+        this.flags = flags;
+    }
+
+    /**
+     * Returns {@code null} for rules that can't match anything.
+     */
+    static HostRule parse(String rule) {
+        if (rule == null) {
+            return null;
+        }
+        String domain = rule.trim().toLowerCase(Locale.ROOT);
+        byte flags = EXACT;
+        if (domain.startsWith("*.")) {
+            domain = domain.substring(2);
+            flags = SUBDOMAINS;
+        } else if (domain.startsWith(".")) {
+            domain = domain.substring(1);
+            flags = EXACT | SUBDOMAINS;
+        }
+        if (domain.endsWith(".")) {
+            domain = domain.substring(0, domain.length() - 1);
+        }
+        String[] labels = domain.split("\\.", -1);
+        if (domain.isEmpty() || Arrays.stream(labels).anyMatch(label -> label.isEmpty() || label.contains("*"))) {
+            return null; // Empty labels or a wildcard anywhere but in front
+        }
+        return new HostRule(domain, labels, flags);
+    }
+}
@@ -0,0 +1,297 @@
+package com.example.demo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Status line and headers of an upstream HTTP/1.x response, plus the framing rules needed to find where its
+ * body ends (RFC 9112 section 6.3) so the connection can be reused for the next request.
+ */
+public class HttpResponseHead {
+    private static final int MAX_HEAD_SIZE = 64 * 1024;
+
+    private final String statusLine;
+    private final String httpVersion;
+    private final int statusCode;
+    private final List<String[]> headerLines; // Name/value pairs in arrival order
+    private final Map<String, String> headers; // Case-insensitive, repeated headers joined with ", "
+
+    public HttpResponseHead(String statusLine, List<String[]> headerLines) throws IOException {
+        String[] parts = statusLine.split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+            throw new IOException("Malformed status line: " + statusLine);
+        }
+        try {
+            this.statusCode = Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed status code: " + statusLine);
+        }
+        this.statusLine = statusLine;
+        this.httpVersion = parts[0];
+        this.headerLines = Collections.unmodifiableList(headerLines);
+        this.headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (String[] header : headerLines) {
+            headers.merge(header[0], header[1], (a, b) -> a + ", " + b);
+        }
+    }
+
+    /**
+     * Reads a response head, or returns {@code null} if the stream ends before the first byte
+     * (a kept-alive connection the server has since closed).
+     */
+    public static HttpResponseHead read(InputStream in) throws IOException {
+        String statusLine = readLine(in);
+        if (statusLine == null) {
+            return null;
+        }
+        List<String[]> headerLines = new ArrayList<>();
+        int headSize = statusLine.length();
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            headSize += line.length();
+            if (headSize > MAX_HEAD_SIZE) {
+                throw new IOException("Response head exceeds " + MAX_HEAD_SIZE + " bytes");
+            }
+            int colonPos = line.indexOf(':');
+            if (colonPos > 0) {
+                headerLines.add(new String[]{line.substring(0, colonPos).trim(), line.substring(colonPos + 1).trim()});
+            }
+        }
+        if (line == null) {
+            throw new EOFException("Connection closed inside the response head");
+        }
+        return new HttpResponseHead(statusLine, headerLines);
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getStatusLine() {
+        return statusLine;
+    }
+
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    public List<String[]> getHeaderLines() {
+        return headerLines;
+    }
+
+    public boolean isInformational() {
+        return statusCode >= 100 && statusCode < 200 && statusCode != 101;
+    }
+
+    public boolean isChunked() {
+        String transferEncoding = getHeader("Transfer-Encoding");
+        return transferEncoding != null && transferEncoding.toLowerCase(Locale.ROOT).endsWith("chunked");
+    }
+
+    /**
+     * Returns the Content-Length, or -1 when the header is missing or unusable.
+     */
+    public long getContentLength() {
+        String value = getHeader("Content-Length");
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.split(",")[0].trim()); // Repeated identical values are allowed
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public boolean hasBody(String requestMethod) {
+        return !"HEAD".equalsIgnoreCase(requestMethod) && statusCode >= 200 && statusCode != 204 && statusCode != 304;
+    }
+
+    /**
+     * True when the body (if any) can only be delimited by the server closing the connection.
+     */
+    public boolean isDelimitedByClose(String requestMethod) {
+        return hasBody(requestMethod) && !isChunked() && getContentLength() < 0;
+    }
+
+    /**
+     * True when the server allows another request on this connection once the response has been read.
+     */
+    public boolean isPersistent() {
+        String connection = getHeader("Connection");
+        String value = connection == null ? "" : connection.toLowerCase(Locale.ROOT);
+        if ("HTTP/1.0".equals(httpVersion)) {
+            return value.contains("keep-alive");
+        }
+        return !value.contains("close");
+    }
+
+    /**
+     * Returns a copy with every {@code name} header replaced by a single one carrying {@code value}.
+     */
+    public HttpResponseHead withHeader(String name, String value) {
+        List<String[]> lines = new ArrayList<>(headerLines.size() + 1);
+        boolean replaced = false;
+        for (String[] header : headerLines) {
+            if (!header[0].equalsIgnoreCase(name)) {
+                lines.add(header);
+            } else if (!replaced) {
+                lines.add(new String[]{header[0], value});
+                replaced = true;
+            }
+        }
+        if (!replaced) {
+            lines.add(new String[]{name, value});
+        }
+        try {
+            return new HttpResponseHead(statusLine, lines);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // The status line was already validated
+        }
+    }
+
+    /**
+     * Encodes the head for the client with the hop-by-hop connection headers replaced by our own.
+     */
+    public byte[] toBytes(boolean keepAlive) {
+        StringBuilder head = new StringBuilder(statusLine).append("\r\n");
+        for (String[] header : headerLines) {
+            if (!isConnectionHeader(header[0])) {
+                head.append(header[0]).append(": ").append(header[1]).append("\r\n");
+            }
+        }
+        head.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n\r\n");
+        return head.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Copies exactly this response's body from {@code in} to {@code out}, keeping the chunked encoding intact,
+     * and returns the number of bytes copied.
+     */
+    public long copyBody(InputStream in, OutputStream out, String requestMethod) throws IOException {
+        if (!hasBody(requestMethod)) {
+            return 0;
+        }
+        if (isChunked()) {
+            return copyChunked(in, out);
+        }
+        long contentLength = getContentLength();
+        if (contentLength >= 0) {
+            return copyFixed(in, out, contentLength);
+        }
+        return BufferPool.HEAP.copy(in, out); // Body ends when the server closes the connection
+    }
+
+    /**
+     * Copies one chunked body, chunk headers and trailers included, up to and including its final empty line.
+     */
+    static long copyChunked(InputStream in, OutputStream out) throws IOException {
+        long total = 0;
+        while (true) {
+            String sizeLine = readLine(in);
+            if (sizeLine == null) {
+                throw new EOFException("Connection closed inside a chunked body");
+            }
+            total += writeLine(out, sizeLine);
+            long chunkSize = parseChunkSize(sizeLine);
+            if (chunkSize == 0) {
+                String trailer;
+                do { // Trailer section ends with an empty line
+                    trailer = readLine(in);
+                    if (trailer == null) {
+                        throw new EOFException("Connection closed inside chunked trailers");
+                    }
+                    total += writeLine(out, trailer);
+                } while (!trailer.isEmpty());
+                out.flush();
+                return total;
+            }
+            total += copyFixed(in, out, chunkSize);
+            String chunkEnd = readLine(in); // CRLF after the chunk data
+            if (chunkEnd == null || !chunkEnd.isEmpty()) {
+                throw new IOException("Malformed chunk terminator");
+            }
+            total += writeLine(out, chunkEnd);
+        }
+    }
+
+    private static long copyFixed(InputStream in, OutputStream out, long length) throws IOException {
+        ByteBuffer buffer = BufferPool.HEAP.acquire((int) Math.min(length, BufferPool.MAX_BUFFER_SIZE));
+        try {
+            long remaining = length;
+            while (remaining > 0) {
+                int read = in.read(buffer.array(), 0, (int) Math.min(buffer.capacity(), remaining));
+                if (read == -1) {
+                    throw new EOFException("Connection closed with " + remaining + " body bytes outstanding");
+                }
+                out.write(buffer.array(), 0, read);
+                remaining -= read;
+                if (in.available() == 0) {
+                    out.flush(); // Coalesce flushes while more data is already waiting
+                }
+            }
+            out.flush();
+            return length;
+        } finally {
+            BufferPool.HEAP.release(buffer);
+        }
+    }
+
+    private static long parseChunkSize(String sizeLine) throws IOException {
+        int end = sizeLine.indexOf(';'); // Ignore chunk extensions
+        String hex = (end == -1 ? sizeLine : sizeLine.substring(0, end)).trim();
+        try {
+            long size = Long.parseLong(hex, 16);
+            if (size < 0) {
+                throw new IOException("Negative chunk size: " + sizeLine);
+            }
+            return size;
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed chunk size: " + sizeLine);
+        }
+    }
+
+    private static int writeLine(OutputStream out, String line) throws IOException {
+        byte[] bytes = (line + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        out.write(bytes);
+        return bytes.length;
+    }
+
+    /**
+     * Reads one CRLF (or bare LF) terminated line as ISO-8859-1, or returns {@code null} at end of stream.
+     */
+    static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                int length = line.size();
+                byte[] bytes = line.toByteArray();
+                if (length > 0 && bytes[length - 1] == '\r') {
+                    length--;
+                }
+                return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+            }
+            if (line.size() >= MAX_HEAD_SIZE) {
+                throw new IOException("Line exceeds " + MAX_HEAD_SIZE + " bytes");
+            }
+            line.write(b);
+        }
+        return line.size() == 0 ? null : line.toString(StandardCharsets.ISO_8859_1);
+    }
+
+    static boolean isConnectionHeader(String name) {
+        return name.equalsIgnoreCase("Connection") || name.equalsIgnoreCase("Keep-Alive") || name.equalsIgnoreCase("Proxy-Connection");
+    }
+}
@@ -0,0 +1,466 @@
+package com.example.demo;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of JDBC connections. Callers get a proxy whose {@link Connection#close()} gives the connection
+ * back instead of closing it; at most {@code maxSize} connections are handed out at once and further callers
+ * wait up to {@code acquireTimeoutMillis}.
+ * A connection that sat idle longer than {@code validateAfterMillis} is checked with
+ * {@link Connection#isValid(int)} before it is handed out, one that stays idle for {@code idleTimeoutMillis} is
+ * closed by the shared {@link TimingWheel}, and one that reported a connection-level error is discarded when it
+ * is returned. Each connection keeps up to {@code statementCacheSize} prepared statements by SQL text, so
+ * {@code prepareStatement(sql)} is parsed by the server once per connection rather than once per call.
+ * Connections come from a {@link ConnectionFactory}, so the pool works with any driver or a stand-in.
+ */
+public class JdbcConnectionPool {
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    @FunctionalInterface
+    public interface ConnectionFactory {
+        Connection open() throws SQLException;
+    }
+
+    private final ConnectionFactory factory;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long validateAfterMillis;
+    private final int statementCacheSize;
+    private final Semaphore permits; // One per connection handed out
+    private final Deque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicLong acquisitions = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+    private volatile boolean closed;
+
+    public JdbcConnectionPool(ConnectionFactory factory, int maxSize, long acquireTimeoutMillis, long idleTimeoutMillis, long validateAfterMillis, int statementCacheSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        this.factory = factory;
+        this.maxSize = maxSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validateAfterMillis = validateAfterMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true); // Fair, so waits stay bounded under contention
+    }
+
+    /**
+     * Builds the pool from {@code proxy.db.poolSize} (default 10), {@code proxy.db.acquireTimeoutMillis}
+     * (default 30 s), {@code proxy.db.idleTimeoutMillis} (default 10 min), {@code proxy.db.validateAfterMillis}
+     * (default 5 s) and {@code proxy.db.statementCacheSize} (default 50 per connection).
+     */
+    public static JdbcConnectionPool fromSystemProperties(ConnectionFactory factory) {
+        return new JdbcConnectionPool(factory, Integer.getInteger("proxy.db.poolSize", 10), Long.getLong("proxy.db.acquireTimeoutMillis", 30_000L),
+                Long.getLong("proxy.db.idleTimeoutMillis", 10 * 60_000L), Long.getLong("proxy.db.validateAfterMillis", 5_000L),
+                Integer.getInteger("proxy.db.statementCacheSize", 50));
+    }
+
+    /**
+     * Borrows a connection, opening a new one if none is idle. Blocks while {@code maxSize} connections are
+     * out; close the returned connection to give it back.
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new SQLTimeoutException("Timed out after " + acquireTimeoutMillis + " ms waiting for a database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a database connection", e);
+        }
+        long waited = System.nanoTime() - start;
+        acquisitions.incrementAndGet();
+        waitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        try {
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) { // Most recently used first, the likeliest to still be valid
+                pooled.idleTimeout.cancel();
+                if (isUsable(pooled)) {
+                    reused.incrementAndGet();
+                    return pooled.lease();
+                }
+                discard(pooled);
+            }
+            pooled = new PooledConnection(factory.open());
+            opened.incrementAndGet();
+            return pooled.lease();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getActive() {
+        return maxSize - permits.availablePermits();
+    }
+
+    public int getIdle() {
+        return idle.size();
+    }
+
+    public long getOpened() {
+        return opened.get();
+    }
+
+    public long getReused() {
+        return reused.get();
+    }
+
+    /**
+     * Connections closed because they failed validation, reported a connection error or could not be reset.
+     */
+    public long getDiscarded() {
+        return discarded.get();
+    }
+
+    public long getAcquisitions() {
+        return acquisitions.get();
+    }
+
+    public long getTotalWaitNanos() {
+        return waitNanos.get();
+    }
+
+    public long getMaxWaitNanos() {
+        return maxWaitNanos.get();
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    public long getStatementCacheHits() {
+        return statementHits.get();
+    }
+
+    public long getStatementCacheMisses() {
+        return statementMisses.get();
+    }
+
+    public String getStatistics() {
+        long count = acquisitions.get();
+        return String.format("Connections: %d active, %d idle, %d max%nOpened: %d, reused: %d, discarded: %d%n"
+                        + "Acquisitions: %d, average wait: %.2f ms, max wait: %.2f ms, timeouts: %d%nStatement cache hits: %d, misses: %d",
+                getActive(), getIdle(), maxSize, opened.get(), reused.get(), discarded.get(),
+                count, count == 0 ? 0.0 : waitNanos.get() / 1e6 / count, maxWaitNanos.get() / 1e6, timeouts.get(),
+                statementHits.get(), statementMisses.get());
+    }
+
+    /**
+     * Closes idle connections; connections still out are closed when they are returned.
+     */
+    public void close() {
+        closed = true;
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            pooled.idleTimeout.cancel();
+            closeQuietly(pooled.physical);
+        }
+    }
+
+    private boolean isUsable(PooledConnection pooled) {
+        if (System.currentTimeMillis() - pooled.lastUsed < validateAfterMillis) {
+            return true; // Used moments ago, skip the round trip
+        }
+        try {
+            return pooled.physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void release(PooledConnection pooled) {
+        if (!closed && !pooled.broken && reset(pooled)) {
+            pooled.lastUsed = System.currentTimeMillis();
+            pooled.idleTimeout = TimingWheel.SHARED.schedule(idleTimeoutMillis, () -> evictIdle(pooled));
+            idle.offerFirst(pooled);
+        } else {
+            discard(pooled);
+        }
+        permits.release();
+    }
+
+    /**
+     * Undoes what a borrower may have left behind: an open transaction and pending warnings.
+     */
+    private static boolean reset(PooledConnection pooled) {
+        try {
+            if (!pooled.physical.getAutoCommit()) {
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+            pooled.physical.clearWarnings();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Runs on the timing wheel; whoever takes the connection out of the idle deque first owns it. Closing
+     * talks to the server, so it is done off the wheel thread.
+     */
+    private void evictIdle(PooledConnection pooled) {
+        if (idle.removeFirstOccurrence(pooled)) {
+            Thread.startVirtualThread(() -> closeQuietly(pooled.physical));
+        }
+    }
+
+    private void discard(PooledConnection pooled) {
+        discarded.incrementAndGet();
+        closeQuietly(pooled.physical);
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            System.out.println("Error closing database connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * SQLSTATE class 08 is a connection exception: the connection can't be trusted any more.
+     */
+    private static boolean isFatal(Throwable error) {
+        return error instanceof SQLException sqlException && sqlException.getSQLState() != null && sqlException.getSQLState().startsWith("08");
+    }
+
+    /**
+     * Answers unwrap/isWrapperFor for the proxy itself, otherwise asks the driver's object.
+     */
+    private static Object unwrap(Object proxy, Object target, Method method, Object[] args) throws Throwable {
+        Class<?> type = (Class<?>) args[0];
+        if (type.isInstance(proxy)) {
+            return method.getName().equals("isWrapperFor") ? Boolean.TRUE : proxy;
+        }
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private final class PooledConnection {
+        private final Connection physical;
+        private final Map<String, CachedStatement> statements = new LinkedHashMap<>(16, 0.75f, true) { // Least recently used first
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() > statementCacheSize && !eldest.getValue().inUse) {
+                    closeStatement(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+        private volatile boolean broken;
+        private volatile long lastUsed = System.currentTimeMillis();
+        private TimingWheel.Timeout idleTimeout;
+
+        private PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        private Connection lease() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, new Lease(this));
+        }
+
+        /**
+         * The cached statement for {@code sql}, or a fresh one when the cached one is already in use by this lease.
+         */
+        private CachedStatement prepare(String sql) throws SQLException {
+            CachedStatement cached = statements.get(sql);
+            if (cached != null && !cached.inUse) {
+                statementHits.incrementAndGet();
+                cached.inUse = true;
+                return cached;
+            }
+            statementMisses.incrementAndGet();
+            CachedStatement fresh = new CachedStatement(physical.prepareStatement(sql), cached == null && statementCacheSize > 0);
+            fresh.inUse = true;
+            if (fresh.cached) {
+                statements.put(sql, fresh);
+            }
+            return fresh;
+        }
+
+        private void closeStatement(CachedStatement cached) {
+            try {
+                cached.statement.close();
+            } catch (SQLException e) {
+                broken |= isFatal(e);
+            }
+        }
+    }
+
+    private static final class CachedStatement {
+        private final PreparedStatement statement;
+        private final boolean cached; // False for a duplicate prepared while the cached one was in use
+        private boolean inUse;
+
+        private CachedStatement(PreparedStatement statement, boolean cached) {
+            this.statement = statement;
+            this.cached = cached;
+        }
+    }
+
+    /**
+     * One borrower's view of a pooled connection; unusable once closed, even if the connection is lent again.
+     */
+    private final class Lease implements InvocationHandler {
+        private final PooledConnection pooled;
+        private final List<StatementLease> statements = new ArrayList<>();
+        private boolean returned;
+
+        private Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        for (StatementLease statement : statements) {
+                            statement.giveBack(); // Statements left open by the borrower
+                        }
+                        statements.clear();
+                        release(pooled);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || pooled.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled " + pooled.physical;
+                default:
+                    break;
+            }
+            if (returned) {
+                throw new SQLException("Connection has been returned to the pool");
+            }
+            if (method.getName().equals("unwrap") || method.getName().equals("isWrapperFor")) {
+                return unwrap(proxy, pooled.physical, method, args);
+            }
+            if (method.getName().equals("prepareStatement") && args.length == 1) {
+                StatementLease lease = new StatementLease(proxy, pooled, pooled.prepare((String) args[0]));
+                statements.add(lease);
+                return Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class}, lease);
+            }
+            try {
+                return method.invoke(pooled.physical, args);
+            } catch (InvocationTargetException e) {
+                pooled.broken |= isFatal(e.getCause());
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * A borrower's handle on a cached statement. Closing it clears the statement and leaves it open for the
+     * next borrower of the connection.
+     */
+    private final class StatementLease implements InvocationHandler {
+        private final Object connectionProxy;
+        private final PooledConnection pooled;
+        private final CachedStatement cached;
+        private boolean closed;
+
+        private StatementLease(Object connectionProxy, PooledConnection pooled, CachedStatement cached) {
+            this.connectionProxy = connectionProxy;
+            this.pooled = pooled;
+            this.cached = cached;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    giveBack();
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "getConnection":
+                    return connectionProxy;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled " + cached.statement;
+                default:
+                    break;
+            }
+            if (closed) {
+                throw new SQLException("Statement is closed");
+            }
+            if (method.getName().equals("unwrap") || method.getName().equals("isWrapperFor")) {
+                return unwrap(proxy, cached.statement, method, args);
+            }
+            try {
+                return method.invoke(cached.statement, args);
+            } catch (InvocationTargetException e) {
+                pooled.broken |= isFatal(e.getCause());
+                throw e.getCause();
+            }
+        }
+
+        private void giveBack() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (!cached.cached) {
+                pooled.closeStatement(cached);
+                return;
+            }
+            try {
+                cached.statement.clearParameters();
+                cached.statement.clearBatch();
+                cached.inUse = false;
+            } catch (SQLException e) {
+                pooled.statements.values().remove(cached); // Don't hand out a statement in an unknown state
+                pooled.closeStatement(cached);
+            }
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ships {@link RequestJournal} segments to {@code request_logs} in batches, oldest first. The position reached is
+ * stored in {@code request_log_journal_checkpoint} in the same transaction as the rows, so after a crash the
+ * replay resumes exactly where the last committed batch ended, without losing or repeating entries. Segments
+ * are deleted once fully replayed, a failed delete being retried after the next segment; while the database is
+ * unreachable the replayer retries with a growing delay and the journal keeps the entries.
+ */
+class JournalReplayer {
+    private static final long MAX_RETRY_DELAY_MILLIS = 60_000;
+    private static final String CHECKPOINT_SQL = "INSERT INTO request_log_journal_checkpoint (journal, segment, position) VALUES (?, ?, ?) "
+            + "ON CONFLICT (journal) DO UPDATE SET segment = EXCLUDED.segment, position = EXCLUDED.position";
+
+    private final RequestJournal journal;
+    private final String journalKey; // Identifies this journal's checkpoint row
+    private final int batchSize;
+    private final long intervalMillis;
+    private final JdbcConnectionPool.ConnectionFactory connections;
+    private final Thread thread;
+    private final AtomicLong replayed = new AtomicLong();
+    private volatile boolean shutdown;
+    // Replay thread only
+    private boolean checkpointLoaded;
+    private long segmentNumber;
+    private int position;
+    private ByteBuffer segment;
+    private final Map<Integer, String> strings = new HashMap<>(); // Dictionary of the segment being read
+
+    JournalReplayer(RequestJournal journal, String journalKey, int batchSize, long intervalMillis, JdbcConnectionPool.ConnectionFactory connections) {
+        this.journal = journal;
+        this.journalKey = journalKey;
+        this.batchSize = Math.max(1, batchSize);
+        this.intervalMillis = Math.max(1, intervalMillis);
+        this.connections = connections;
+        this.thread = new Thread(this::run, "request-journal-replayer");
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    long getReplayed() {
+        return replayed.get();
+    }
+
+    void shutdown(long timeoutMillis) throws InterruptedException {
+        shutdown = true;
+        thread.interrupt();
+        thread.join(timeoutMillis);
+    }
+
+    private void run() {
+        long retryDelay = intervalMillis;
+        while (!shutdown) {
+            boolean more;
+            try {
+                more = replayBatch();
+                retryDelay = intervalMillis;
+            } catch (SQLException | IOException | RuntimeException e) {
+                if (shutdown) {
+                    break; // Interrupted mid-batch; nothing was committed, the next start picks it up
+                }
+                System.out.println("Request journal replay failed, retrying in " + retryDelay + " ms: " + e.getMessage());
+                sleep(retryDelay);
+                retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MILLIS);
+                continue;
+            }
+            if (!more) {
+                sleep(intervalMillis);
+            }
+        }
+    }
+
+    private void sleep(long millis) {
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(millis)); // Interrupt on shutdown wakes it
+    }
+
+    /**
+     * Replays up to one batch. Returns {@code true} if there may be more to replay right away.
+     */
+    private boolean replayBatch() throws SQLException, IOException {
+        if (!checkpointLoaded) {
+            loadCheckpoint();
+            checkpointLoaded = true;
+        }
+        if (segment == null && !openSegment()) {
+            return false;
+        }
+        boolean sealed = segmentNumber < journal.getActiveSegment(); // Checked first: if the segment is sealed in between, its limit is its end
+        int limit = Math.min(journal.readableLimit(segmentNumber), segment.capacity());
+
+        Object[][] rows = new Object[batchSize][];
+        int count = 0;
+        int next = position;
+        boolean atEnd = false;
+        while (count < batchSize) {
+            if (next >= limit) {
+                atEnd = true;
+                break;
+            }
+            byte type = segment.get(next);
+            if (type == RequestJournal.ENTRY && next + RequestJournal.ENTRY_SIZE <= limit) {
+                rows[count++] = decodeEntry(next);
+                next += RequestJournal.ENTRY_SIZE;
+            } else if (type == RequestJournal.DEFINE) {
+                next = readDefinition(next);
+            } else {
+                atEnd = true; // END marker, or a record not written (or torn by a crash)
+                break;
+            }
+        }
+        boolean finished = sealed && atEnd;
+        if (count == 0 && next == position && !finished) {
+            return false;
+        }
+        commit(rows, count, finished ? segmentNumber + 1 : segmentNumber, finished ? 0 : next);
+        replayed.addAndGet(count);
+        if (finished) { // Move past the segment first: it is in the database whether or not it can be deleted
+            segmentNumber++;
+            position = 0;
+            segment = null;
+            strings.clear();
+            deleteReplayedSegments();
+        } else {
+            position = next;
+        }
+        return count == batchSize || finished;
+    }
+
+    private void commit(Object[][] rows, int count, long checkpointSegment, int checkpointPosition) throws SQLException {
+        try (Connection connection = connections.open()) {
+            connection.setAutoCommit(false);
+            try {
+                if (count > 0) {
+                    try (PreparedStatement statement = connection.prepareStatement(RequestLogEntry.INSERT_SQL)) {
+                        for (int i = 0; i < count; i++) {
+                            Object[] row = rows[i];
+                            RequestLogEntry.bind(statement, (Long) row[0], (String) row[1], (String) row[2], (String) row[3], (String) row[4], (Integer) row[5], (Integer) row[6]);
+                            statement.addBatch();
+                        }
+                        statement.executeBatch();
+                    }
+                }
+                try (PreparedStatement statement = connection.prepareStatement(CHECKPOINT_SQL)) {
+                    statement.setString(1, journalKey);
+                    statement.setLong(2, checkpointSegment);
+                    statement.setInt(3, checkpointPosition);
+                    statement.executeUpdate();
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Reads the committed position, then drops segments that were replayed before the last crash but not deleted.
+     * A checkpoint ahead of the journal (its segments were removed, so numbering started over) is reset to the
+     * oldest segment on disk.
+     */
+    private void loadCheckpoint() throws SQLException, IOException {
+        try (Connection connection = connections.open()) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE IF NOT EXISTS request_log_journal_checkpoint (journal TEXT PRIMARY KEY, segment BIGINT NOT NULL, position INT NOT NULL)");
+            }
+            try (PreparedStatement statement = connection.prepareStatement("SELECT segment, position FROM request_log_journal_checkpoint WHERE journal = ?")) {
+                statement.setString(1, journalKey);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (resultSet.next()) {
+                        segmentNumber = resultSet.getLong("segment");
+                        position = resultSet.getInt("position");
+                    } else {
+                        segmentNumber = -1;
+                    }
+                }
+            }
+        }
+        long active = journal.getActiveSegment();
+        if (segmentNumber < 0 || segmentNumber > active || (segmentNumber == active && position > 0)) {
+            // No checkpoint yet, or one the journal never reached: the active segment was started empty on open
+            List<Long> existing = journal.segmentNumbers();
+            segmentNumber = existing.isEmpty() ? active : Math.min(existing.get(0), active);
+            position = 0;
+        }
+        deleteReplayedSegments();
+    }
+
+    /**
+     * Deletes the segments before the one being replayed. Best effort: a segment that can't be deleted yet is
+     * tried again next time, the active one is never touched.
+     */
+    private void deleteReplayedSegments() {
+        try {
+            long active = journal.getActiveSegment();
+            for (long number : journal.segmentNumbers()) {
+                if (number < segmentNumber && number < active) {
+                    try {
+                        journal.deleteSegment(number);
+                    } catch (IOException e) {
+                        System.out.println("Could not delete replayed journal segment " + number + ", retrying later: " + e.getMessage());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Could not list the request journal segments: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Maps the segment at the checkpoint, skipping numbers whose file is gone, and reloads its dictionary up to
+     * the checkpoint. Returns {@code false} if there is nothing to read yet.
+     */
+    private boolean openSegment() throws IOException {
+        long active = journal.getActiveSegment();
+        while (segmentNumber < active && !Files.exists(journal.segmentPath(segmentNumber))) {
+            segmentNumber++;
+            position = 0;
+        }
+        if (segmentNumber > active) {
+            return false;
+        }
+        segment = journal.openForReading(segmentNumber);
+        strings.clear();
+        int offset = 0;
+        while (offset < position) { // Definitions from before the checkpoint are still referenced after it
+            byte type = segment.get(offset);
+            if (type == RequestJournal.DEFINE) {
+                offset = readDefinition(offset);
+            } else if (type == RequestJournal.ENTRY) {
+                offset += RequestJournal.ENTRY_SIZE;
+            } else {
+                break;
+            }
+        }
+        return true;
+    }
+
+    private int readDefinition(int offset) {
+        int length = segment.getShort(offset + 2) & 0xFFFF;
+        int id = segment.getInt(offset + 4);
+        byte[] bytes = new byte[length];
+        segment.get(offset + RequestJournal.DEFINE_HEADER, bytes);
+        strings.put(id, new String(bytes, StandardCharsets.UTF_8));
+        return offset + RequestJournal.DEFINE_HEADER + length;
+    }
+
+    private Object[] decodeEntry(int offset) {
+        int statusCode = segment.getShort(offset + 2);
+        int customerId = segment.getInt(offset + 4);
+        long time = segment.getLong(offset + 8);
+        return new Object[]{time, string(segment.getInt(offset + 16)), string(segment.getInt(offset + 20)),
+                string(segment.getInt(offset + 24)), string(segment.getInt(offset + 28)), statusCode, customerId};
+    }
+
+    private String string(int id) {
+        return id == RequestJournal.NO_STRING ? null : strings.get(id);
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.demo;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Log lines on their way to the {@link LogView}. Any thread can add a line without blocking or touching the FX
+ * event queue; the view drains the buffer once per frame. The buffer is a bounded {@link RingBuffer}: when lines
+ * come in faster than the view takes them, the oldest are dropped, so a burst of logging costs a fixed amount of
+ * memory and never slows down the proxy. Lines below the minimum level are dropped before they are created.
+ */
+public class LogBuffer {
+
+    public enum Level {
+        DEBUG,
+        INFO,
+        WARN,
+        ERROR
+    }
+
+    /**
+     * One logged message with the time it was logged.
+     */
+    public static final class Line {
+        private final long time;
+        private final Level level;
+        private final String message;
+
+        Line(long time, Level level, String message) {
+            this.time = time;
+            this.level = level;
+            this.message = message;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public Level getLevel() {
+            return level;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    private final RingBuffer<Line> lines;
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile Level minimumLevel = Level.DEBUG;
+
+    public LogBuffer(int capacity) {
+        this.lines = new RingBuffer<>(capacity);
+    }
+
+    /**
+     * Builds the buffer from {@code proxy.ui.logBufferSize} (default 16384 lines).
+     */
+    public static LogBuffer fromSystemProperties() {
+        return new LogBuffer(Integer.getInteger("proxy.ui.logBufferSize", 16_384));
+    }
+
+    /**
+     * Lines logged below {@code level} from now on are discarded; the view sets it from its level choice.
+     */
+    public void setMinimumLevel(Level level) {
+        minimumLevel = level;
+    }
+
+    /**
+     * Whether a line at {@code level} would be kept; lets callers skip building messages that would be dropped.
+     */
+    public boolean isLoggable(Level level) {
+        return level.compareTo(minimumLevel) >= 0;
+    }
+
+    public void log(Level level, String message) {
+        if (!isLoggable(level)) {
+            return;
+        }
+        Line line = new Line(System.currentTimeMillis(), level, message);
+        while (!lines.offer(line)) {
+            if (lines.poll() != null) { // Make room by dropping the oldest line
+                dropped.incrementAndGet();
+            }
+        }
+    }
+
+    public void info(String message) {
+        log(Level.INFO, message);
+    }
+
+    /**
+     * Moves up to {@code max} waiting lines, oldest first, into {@code target}.
+     */
+    public int drainTo(Collection<? super Line> target, int max) {
+        return lines.drainTo(target, max);
+    }
+
+    /**
+     * Lines discarded because the view fell behind.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.demo;
+
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.collections.transformation.FilteredList;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.ChoiceBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.util.Duration;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Live view of a {@link LogBuffer}. A timeline drains the buffer {@code framesPerSecond} times a second and adds
+ * what it took in one change, so the FX thread does a fixed amount of work per frame however fast lines are
+ * logged. Only the last {@code maxLines} are kept, and the list is virtualized: only the visible lines get cells
+ * and are formatted. The level choice hides lines below it and sets the buffer's minimum level, so lines below it
+ * are not buffered at all.
+ */
+public class LogView extends BorderPane {
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private final LogBuffer buffer;
+    private final int maxLines;
+    private final ObservableList<LogBuffer.Line> lines = FXCollections.observableArrayList();
+    private final FilteredList<LogBuffer.Line> visibleLines = new FilteredList<>(lines);
+    private final ListView<LogBuffer.Line> listView = new ListView<>(visibleLines);
+    private final CheckBox followCheck = new CheckBox("Follow");
+    private final List<LogBuffer.Line> drained = new ArrayList<>(); // Reused by every frame
+    private final Timeline timeline;
+
+    private LogView(LogBuffer buffer, int maxLines, int framesPerSecond) {
+        this.buffer = buffer;
+        this.maxLines = Math.max(1, maxLines);
+
+        ChoiceBox<LogBuffer.Level> levelChoice = new ChoiceBox<>();
+        levelChoice.getItems().addAll(LogBuffer.Level.values());
+        levelChoice.valueProperty().addListener((observable, oldLevel, level) -> {
+            buffer.setMinimumLevel(level);
+            visibleLines.setPredicate(line -> line.getLevel().compareTo(level) >= 0); // Lines buffered before the change
+        });
+        levelChoice.setValue(LogBuffer.Level.INFO);
+        followCheck.setSelected(true);
+        Button clearButton = new Button("Clear");
+        clearButton.setOnAction(e -> lines.clear());
+        HBox toolBar = new HBox(10, new Label("Level:"), levelChoice, followCheck, clearButton);
+        toolBar.setAlignment(Pos.CENTER_LEFT);
+        toolBar.setPadding(new Insets(0, 0, 5, 0));
+
+        listView.setCellFactory(view -> new ListCell<>() {
+            @Override
+            protected void updateItem(LogBuffer.Line line, boolean empty) {
+                super.updateItem(line, empty);
+                setText(empty || line == null ? null : TIME_FORMAT.format(Instant.ofEpochMilli(line.getTime())) + " " + line.getLevel() + " " + line.getMessage());
+            }
+        });
+        listView.setStyle("-fx-font-family: 'Courier New'; -fx-font-size: 12;");
+        setTop(toolBar);
+        setCenter(listView);
+
+        timeline = new Timeline(new KeyFrame(Duration.millis(1000.0 / Math.max(1, framesPerSecond)), e -> drain()));
+        timeline.setCycleCount(Animation.INDEFINITE);
+    }
+
+    /**
+     * Creates a view of {@code buffer} and starts draining it.
+     */
+    public static LogView start(LogBuffer buffer, int maxLines, int framesPerSecond) {
+        LogView view = new LogView(buffer, maxLines, framesPerSecond);
+        view.timeline.play(); // Only once the view is fully constructed
+        return view;
+    }
+
+    /**
+     * Builds the view from {@code proxy.ui.logLines} (default 5000 lines kept) and {@code proxy.ui.logFps}
+     * (default 10 updates a second).
+     */
+    public static LogView fromSystemProperties(LogBuffer buffer) {
+        return start(buffer, Integer.getInteger("proxy.ui.logLines", 5000), Integer.getInteger("proxy.ui.logFps", 10));
+    }
+
+    private void drain() {
+        drained.clear();
+        buffer.drainTo(drained, maxLines); // A frame never takes more than fits; the buffer drops the oldest of a backlog
+        if (drained.isEmpty()) {
+            return;
+        }
+        int excess = lines.size() + drained.size() - maxLines;
+        if (excess > 0) {
+            lines.remove(0, excess);
+        }
+        lines.addAll(drained);
+        if (followCheck.isSelected() && !visibleLines.isEmpty()) {
+            listView.scrollTo(visibleLines.size() - 1);
+        }
+    }
+}
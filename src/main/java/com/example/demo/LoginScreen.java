@@ -14,8 +14,6 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.function.Consumer;
 
 public class LoginScreen {
@@ -71,13 +69,16 @@ public class LoginScreen {
             if (resultSet.next()) {
                 int customerId = resultSet.getInt("id");
                 // Successful login
-                ConcurrentMap<String, CachedResources> cache = new ConcurrentHashMap<>();// Create or get your cache here
+                ProxyCache cache = ProxyCache.fromSystemProperties(); // Bounded by -Dproxy.cache.maxBytes
 
                 // Assuming `isLoginBefore` is true and no `RequestLogEntry` initially.
                 // Now using fetched 'id' to construct the Customer.
                 Customer customer = new Customer(customerId, username, password, true, null);
 
-                HomepageScreen homepageScreen = new HomepageScreen(primaryStage, new FilteredListManager(), cache, customer);
+                FilteredListManager filteredListManager = new FilteredListManager();
+                filteredListManager.start(); // Reloads for as long as the application runs
+
+                HomepageScreen homepageScreen = new HomepageScreen(primaryStage, filteredListManager, cache, customer);
                 homepageScreen.show(); // Show the HomepageScreen
             } else {
                 // Invalid credentials
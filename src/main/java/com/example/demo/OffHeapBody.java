@@ -0,0 +1,117 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A response body held in {@link OffHeapBodyStore} pages, with an explicit reference count. One body may be
+ * shared by every cache entry whose payload has the same content.
+ * Whoever obtains a body holds one reference and must {@link #release()} it; the pages go back to the store
+ * when the last reference is released. {@link #retain()} fails once that has happened, so a reader racing an
+ * eviction either keeps the bytes alive or sees a miss, never reused pages.
+ */
+public class OffHeapBody {
+    private final OffHeapBodyStore store;
+    private final int[] pages;
+    private final long length;
+    private final String contentHash; // Hex SHA-256 of the bytes, the store shares bodies by it
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    OffHeapBody(OffHeapBodyStore store, int[] pages, long length, String contentHash) {
+        this.store = store;
+        this.pages = pages;
+        this.length = length;
+        this.contentHash = contentHash;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * Off-heap bytes taken by the body, including the unused tail of its last page.
+     */
+    public long getCapacity() {
+        return (long) pages.length * OffHeapBodyStore.PAGE_SIZE;
+    }
+
+    /**
+     * Takes another reference, or returns {@code false} if the body has already been freed.
+     */
+    public boolean retain() {
+        int count;
+        do {
+            count = references.get();
+            if (count == 0) {
+                return false;
+            }
+        } while (!references.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    public void release() {
+        int count = references.decrementAndGet();
+        if (count == 0) {
+            store.forget(this);
+            store.free(pages, pages.length);
+        } else if (count < 0) {
+            throw new IllegalStateException("Body released more often than retained");
+        }
+    }
+
+    /**
+     * Writes the whole body with one gathering write, straight from off-heap memory. The channel must be in
+     * blocking mode.
+     */
+    public void writeTo(GatheringByteChannel channel) throws IOException {
+        ByteBuffer[] views = views();
+        long remaining = length;
+        while (remaining > 0) {
+            remaining -= channel.write(views);
+        }
+    }
+
+    /**
+     * Copies the body to a stream, for clients without a channel. Goes through a pooled heap buffer.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        ByteBuffer buffer = BufferPool.HEAP.acquire(OffHeapBodyStore.PAGE_SIZE);
+        try {
+            for (ByteBuffer view : views()) {
+                int n = view.remaining();
+                view.get(buffer.array(), 0, n);
+                out.write(buffer.array(), 0, n);
+            }
+        } finally {
+            BufferPool.HEAP.release(buffer);
+        }
+    }
+
+    /**
+     * Copies the body into {@code target} starting at {@code position}, without moving the target's position.
+     */
+    public void copyTo(ByteBuffer target, int position) {
+        for (ByteBuffer view : views()) {
+            int n = view.remaining();
+            target.put(position, view, 0, n);
+            position += n;
+        }
+    }
+
+    private ByteBuffer[] views() {
+        ByteBuffer[] views = new ByteBuffer[pages.length];
+        long remaining = length;
+        for (int i = 0; i < pages.length; i++) {
+            views[i] = store.page(pages[i]).limit((int) Math.min(OffHeapBodyStore.PAGE_SIZE, remaining));
+            remaining -= views[i].limit();
+        }
+        return views;
+    }
+}
@@ -0,0 +1,273 @@
+package com.example.demo;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Off-heap storage for cached response bodies. Direct-buffer slabs are carved into fixed-size pages; a body is
+ * a list of pages and returns them to the free list as soon as its last reference is released, so cached bytes
+ * neither sit in the Java heap nor wait for a GC cycle to be reused. Slabs are allocated on demand up to the
+ * store's capacity and are kept for the life of the process.
+ * Reading a page takes no lock: slabs sit in a fixed-size array that is only ever filled in. Writers take free
+ * pages in batches and give back the unused rest when they finish, so the free list's lock is taken once per
+ * batch and once per freed body rather than once per page.
+ * Bodies are content-addressed: a finished body whose SHA-256 matches a live one is dropped in favour of a new
+ * reference to the existing pages, so identical payloads cached under many URLs are stored once.
+ */
+public class OffHeapBodyStore {
+    public static final int PAGE_SIZE = 4 * 1024;
+    private static final int PAGES_PER_SLAB = 1024; // 4 MB slabs
+    private static final int MAX_PAGE_BATCH = 64; // Pages a writer takes at once, for bodies that keep growing
+
+    /**
+     * Shared by the response cache, sized by {@code proxy.cache.offHeapBytes} (default 5/4 of
+     * {@code proxy.cache.maxBytes}, leaving room for bodies still being served after their eviction).
+     */
+    public static final OffHeapBodyStore SHARED = new OffHeapBodyStore(Long.getLong("proxy.cache.offHeapBytes",
+            Long.getLong("proxy.cache.maxBytes", 256L * 1024 * 1024) / 4 * 5));
+
+    private final int maxSlabs;
+    private final Map<String, OffHeapBody> bodiesByHash = new ConcurrentHashMap<>();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder deduplicatedBytes = new LongAdder();
+    private final AtomicReferenceArray<ByteBuffer> slabs; // Filled in order, an element never changes once set
+    private int slabCount; // Guarded by this
+    private int[] freePages = new int[PAGES_PER_SLAB]; // Stack of free page ids, guarded by this
+    private int freeCount;
+    private long usedPages; // Including pages a writer took but hasn't used yet
+
+    public OffHeapBodyStore(long capacityBytes) {
+        this.maxSlabs = (int) Math.max(1, capacityBytes / ((long) PAGE_SIZE * PAGES_PER_SLAB));
+        this.slabs = new AtomicReferenceArray<>(maxSlabs);
+    }
+
+    /**
+     * Copies {@code source}'s remaining bytes into a new body, or returns {@code null} if the store is full.
+     */
+    public OffHeapBody copyOf(ByteBuffer source) {
+        Writer writer = newWriter();
+        if (!writer.write(source)) {
+            return null;
+        }
+        return writer.finish();
+    }
+
+    public Writer newWriter() {
+        return new Writer();
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedPages * PAGE_SIZE;
+    }
+
+    public synchronized long getAllocatedBytes() {
+        return (long) slabCount * PAGES_PER_SLAB * PAGE_SIZE;
+    }
+
+    public long getCapacity() {
+        return (long) maxSlabs * PAGES_PER_SLAB * PAGE_SIZE;
+    }
+
+    public int getDistinctBodies() {
+        return bodiesByHash.size();
+    }
+
+    /**
+     * Number of finished bodies that turned out to duplicate a live one.
+     */
+    public long getDeduplicated() {
+        return deduplicated.sum();
+    }
+
+    public long getDeduplicatedBytes() {
+        return deduplicatedBytes.sum();
+    }
+
+    /**
+     * Returns a reference to the live body with the same content as {@code body}, releasing {@code body}, or
+     * registers {@code body} as the one to share if there is none.
+     */
+    private OffHeapBody intern(OffHeapBody body) {
+        while (true) {
+            OffHeapBody existing = bodiesByHash.putIfAbsent(body.getContentHash(), body);
+            if (existing == null) {
+                return body;
+            }
+            if (existing.length() == body.length() && existing.retain()) {
+                body.release();
+                deduplicated.increment();
+                deduplicatedBytes.add(existing.getCapacity());
+                return existing;
+            }
+            bodiesByHash.remove(body.getContentHash(), existing); // Being freed, take its place
+        }
+    }
+
+    void forget(OffHeapBody body) {
+        bodiesByHash.remove(body.getContentHash(), body);
+    }
+
+    /**
+     * Moves up to {@code count} free page ids into {@code target} and returns how many, 0 when every page is in
+     * use and no more slabs may be allocated.
+     */
+    private synchronized int allocatePages(int[] target, int count) {
+        if (freeCount == 0 && !addSlab()) {
+            return 0;
+        }
+        int n = Math.min(count, freeCount);
+        freeCount -= n;
+        System.arraycopy(freePages, freeCount, target, 0, n);
+        usedPages += n;
+        return n;
+    }
+
+    private boolean addSlab() {
+        if (slabCount >= maxSlabs) {
+            return false;
+        }
+        try {
+            slabs.set(slabCount, ByteBuffer.allocateDirect(PAGES_PER_SLAB * PAGE_SIZE)); // Set before any of its pages is handed out
+        } catch (OutOfMemoryError e) {
+            return false; // Direct memory limit reached before our own
+        }
+        slabCount++;
+        if (freePages.length < slabCount * PAGES_PER_SLAB) { // Room for every page to be free at once
+            freePages = Arrays.copyOf(freePages, slabCount * PAGES_PER_SLAB);
+        }
+        int first = (slabCount - 1) * PAGES_PER_SLAB;
+        for (int page = first + PAGES_PER_SLAB - 1; page >= first; page--) { // Lowest page on top
+            freePages[freeCount++] = page;
+        }
+        return true;
+    }
+
+    synchronized void free(int[] pages, int count) {
+        System.arraycopy(pages, 0, freePages, freeCount, count);
+        freeCount += count;
+        usedPages -= count;
+    }
+
+    /**
+     * A view of one page. Views share the slab's memory but not its position or limit.
+     */
+    ByteBuffer page(int page) {
+        return slabs.get(page / PAGES_PER_SLAB).slice((page % PAGES_PER_SLAB) * PAGE_SIZE, PAGE_SIZE);
+    }
+
+    /**
+     * Fills a body page by page. Anything written is given back to the store if the writer is abandoned.
+     */
+    public final class Writer extends OutputStream {
+        private int[] pages = new int[4];
+        private int pageCount;
+        private final int[] spare = new int[MAX_PAGE_BATCH]; // Taken from the store, not written yet
+        private int spareCount;
+        private ByteBuffer current; // Page being filled, null before the first write
+        private long length;
+        private boolean failed;
+        private final MessageDigest digest = sha256();
+
+        /**
+         * Appends {@code len} bytes, returning {@code false} (and freeing the pages written so far) when the store
+         * runs out of space.
+         */
+        public boolean append(byte[] b, int off, int len) {
+            return write(ByteBuffer.wrap(b, off, len));
+        }
+
+        @Override
+        public void write(int b) {
+            append(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            append(b, off, len);
+        }
+
+        /**
+         * Appends the remaining bytes of {@code source}, see {@link #append(byte[], int, int)}.
+         */
+        public boolean write(ByteBuffer source) {
+            if (failed) {
+                return false;
+            }
+            while (source.hasRemaining()) {
+                if (current == null || !current.hasRemaining()) {
+                    if (spareCount == 0) { // Enough for this write, or as many as written so far for a growing body
+                        int needed = (source.remaining() + PAGE_SIZE - 1) / PAGE_SIZE;
+                        spareCount = allocatePages(spare, Math.min(MAX_PAGE_BATCH, Math.max(needed, pageCount)));
+                    }
+                    if (spareCount == 0) {
+                        abandon();
+                        return false;
+                    }
+                    int page = spare[--spareCount];
+                    if (pageCount == pages.length) {
+                        pages = Arrays.copyOf(pages, pageCount * 2);
+                    }
+                    pages[pageCount++] = page;
+                    current = page(page);
+                }
+                int n = Math.min(source.remaining(), current.remaining());
+                current.put(current.position(), source, source.position(), n);
+                digest.update(current.slice(current.position(), n));
+                current.position(current.position() + n);
+                source.position(source.position() + n);
+                length += n;
+            }
+            return true;
+        }
+
+        public long size() {
+            return length;
+        }
+
+        public void abandon() {
+            if (!failed) {
+                failed = true;
+                free(pages, pageCount);
+                pageCount = 0;
+                returnSpare();
+            }
+        }
+
+        private void returnSpare() {
+            if (spareCount > 0) {
+                free(spare, spareCount);
+                spareCount = 0;
+            }
+        }
+
+        /**
+         * Returns the written body holding one reference, or {@code null} if the writer was abandoned.
+         * The body may be an existing one with the same content, in which case the written pages are freed.
+         */
+        public OffHeapBody finish() {
+            if (failed) {
+                return null;
+            }
+            failed = true; // The pages now belong to the body
+            returnSpare();
+            String contentHash = HexFormat.of().formatHex(digest.digest());
+            return intern(new OffHeapBody(OffHeapBodyStore.this, Arrays.copyOf(pages, pageCount), length, contentHash));
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required on every Java platform", e);
+        }
+    }
+}
@@ -0,0 +1,547 @@
+package com.example.demo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Response cache bounded by the total weight (body and head bytes) of its entries, a body shared by several
+ * entries counting once, using W-TinyLFU:
+ * new entries land in a small LRU admission window; entries leaving the window only displace an entry of the
+ * main segmented LRU (probation + protected) if a count-min sketch says they are accessed more often.
+ * Lookups are lock-free; recency and frequency bookkeeping is skipped rather than waited for when another
+ * thread holds the policy lock, trading a little hit ratio for never blocking a read.
+ * Entries hold their body off-heap: the cache keeps one reference per stored entry and releases it on eviction,
+ * and {@link #get} hands the caller a reference of its own to release once the body has been served.
+ * With a {@link DiskCacheTier} attached, every stored entry is also queued for the tier's writer thread to put on
+ * disk; entries evicted from the heap live on there, and a heap miss that hits the disk tier queues the entry to
+ * be promoted back onto the heap by the timing wheel thread, so the read itself never waits for the policy lock.
+ * Entries that can't be revalidated (no ETag or Last-Modified) are reclaimed by the shared {@link TimingWheel}
+ * once they have been stale for {@code proxy.cache.expiredRetentionMillis}; the others stay until evicted, as
+ * they can still save a body transfer through a 304.
+ */
+public class ProxyCache {
+    private static final double WINDOW_SHARE = 0.01;
+    private static final double PROTECTED_SHARE = 0.80; // Of the main segment
+    private static final int PROMOTION_BUFFER_SIZE = 1024; // Disk hits beyond this are served but not promoted
+    private static final long EXPIRED_RETENTION_MILLIS = Long.getLong("proxy.cache.expiredRetentionMillis", 60_000L); // Room for stale-while-revalidate
+
+    private final ConcurrentMap<String, Node> data = new ConcurrentHashMap<>();
+    private final ReentrantLock policyLock = new ReentrantLock();
+    private final FrequencySketch sketch;
+    private final AccessQueue window = new AccessQueue();
+    private final AccessQueue probation = new AccessQueue();
+    private final AccessQueue protectedQueue = new AccessQueue();
+    private final DiskCacheTier diskTier; // null when the cache is heap-only
+    private final long maxWeight;
+    private final long maxWindowWeight;
+    private final long maxProtectedWeight;
+    private long totalWeight; // Each distinct body counted once, however many entries share it
+    private final Map<OffHeapBody, Integer> bodyHolders = new HashMap<>(); // Entries per shared body, guarded by policyLock
+    private long windowWeight;
+    private long protectedWeight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder evictedBytes = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final Queue<Node> expired = new ConcurrentLinkedQueue<>(); // Due for reclamation on the next batch
+    private final AtomicBoolean reclaimScheduled = new AtomicBoolean();
+    private final RingBuffer<Promotion> promotions = new RingBuffer<>(PROMOTION_BUFFER_SIZE); // Disk hits waiting to be admitted
+    private final AtomicBoolean promotionScheduled = new AtomicBoolean();
+
+    public ProxyCache(long maxWeight) {
+        this(maxWeight, null);
+    }
+
+    public ProxyCache(long maxWeight, DiskCacheTier diskTier) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("maxWeight must be positive: " + maxWeight);
+        }
+        this.maxWeight = maxWeight;
+        this.diskTier = diskTier;
+        this.maxWindowWeight = Math.max(1, (long) (maxWeight * WINDOW_SHARE));
+        this.maxProtectedWeight = (long) ((maxWeight - maxWindowWeight) * PROTECTED_SHARE);
+        this.sketch = new FrequencySketch((int) Math.min(1 << 20, Math.max(1024, maxWeight / (16 * 1024)))); // Sized for ~16 KB objects
+    }
+
+    /**
+     * Builds the cache from {@code proxy.cache.maxBytes} (default 256 MB), backed by the disk tier configured
+     * through {@code proxy.cache.dir} if any. The disk tier opens in the background and only serves hits once its
+     * index is rebuilt; one that fails to open leaves the cache heap-only.
+     */
+    public static ProxyCache fromSystemProperties() {
+        return new ProxyCache(Long.getLong("proxy.cache.maxBytes", 256L * 1024 * 1024), DiskCacheTier.fromSystemProperties());
+    }
+
+    /**
+     * Returns the entry with a reference retained for the caller, who must {@link CachedResources#release()} it.
+     */
+    public CachedResources get(String key) {
+        Node node = data.get(key);
+        if (node == null || !node.value.retain()) { // Not cached, or evicted and freed since the lookup
+            CachedResources promoted = diskTier == null ? null : diskTier.get(key);
+            if (promoted != null) {
+                hits.increment();
+                diskHits.increment();
+                schedulePromotion(key, promoted); // Back into memory later, the disk copy stays as it is
+                return promoted;
+            }
+            misses.increment();
+            if (policyLock.tryLock()) {
+                try {
+                    sketch.increment(key); // Misses count too, that is what lets new popular keys get admitted
+                } finally {
+                    policyLock.unlock();
+                }
+            }
+            return null;
+        }
+        hits.increment();
+        if (policyLock.tryLock()) {
+            try {
+                if (node.queue != null) { // Still cached
+                    sketch.increment(key);
+                    onAccess(node);
+                }
+            } finally {
+                policyLock.unlock();
+            }
+        }
+        return node.value;
+    }
+
+    /**
+     * Stores the entry with a reference of the cache's own; the caller keeps (and still has to release) its own.
+     */
+    public void put(String key, CachedResources value) {
+        admit(key, value, false);
+        if (diskTier != null) {
+            diskTier.put(key, value); // Only queued, neither the caller nor heap readers wait for the disk
+        }
+    }
+
+    /**
+     * Queues a disk hit for promotion onto the heap. Like recency updates on heap hits, this is lossy: when the
+     * buffer is full the entry is simply served from disk again next time, and the reader never waits for the
+     * policy lock.
+     */
+    private void schedulePromotion(String key, CachedResources value) {
+        if (!value.retain()) {
+            return;
+        }
+        if (!promotions.offer(new Promotion(key, value))) {
+            value.release();
+            return;
+        }
+        if (promotionScheduled.compareAndSet(false, true)) {
+            TimingWheel.SHARED.schedule(0, this::drainPromotions);
+        }
+    }
+
+    /**
+     * Runs on the timing wheel thread and admits the queued disk hits.
+     */
+    private void drainPromotions() {
+        promotionScheduled.set(false);
+        Promotion promotion;
+        while ((promotion = promotions.poll()) != null) {
+            try {
+                admit(promotion.key, promotion.value, true); // A put since the disk read holds newer data
+            } finally {
+                promotion.value.release();
+            }
+        }
+    }
+
+    private void admit(String key, CachedResources value, boolean onlyIfAbsent) {
+        long weight = value.getWeight() + key.length();
+        if (weight > maxWeight) {
+            rejections.increment(); // Could never fit
+            return;
+        }
+        value.retain(); // Cannot fail while the caller holds its reference
+        Node node = new Node(key, value, weight);
+        policyLock.lock();
+        try {
+            if (onlyIfAbsent && data.containsKey(key)) {
+                value.release();
+                return;
+            }
+            Node previous = data.put(key, node);
+            if (previous != null) {
+                unlink(previous);
+            }
+            sketch.increment(key);
+            window.addLast(node);
+            node.queue = window;
+            if (!value.hasValidators()) {
+                node.expiry = TimingWheel.SHARED.schedule(Math.max(0, value.getTimeToExpiry()) + EXPIRED_RETENTION_MILLIS, () -> expire(node));
+            }
+            windowWeight += weight;
+            totalWeight += weight - sharedBodyWeight(node, 1);
+            while (windowWeight > maxWindowWeight) { // Window overflow becomes an admission candidate
+                Node candidate = window.removeFirst();
+                windowWeight -= candidate.weight;
+                probation.addLast(candidate);
+                candidate.queue = probation;
+            }
+            evictIfNeeded();
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    public void remove(String key) {
+        policyLock.lock();
+        try {
+            Node node = data.remove(key);
+            if (node != null) {
+                unlink(node);
+            }
+        } finally {
+            policyLock.unlock();
+        }
+        if (diskTier != null) {
+            diskTier.remove(key);
+        }
+    }
+
+    /**
+     * Estimated recent access frequency of the key, from the admission sketch (0 to 15).
+     */
+    public int getFrequency(String key) {
+        policyLock.lock();
+        try {
+            return sketch.frequency(key);
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    public int size() {
+        return data.size();
+    }
+
+    public long getWeight() {
+        policyLock.lock();
+        try {
+            return totalWeight;
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getEvictedBytes() {
+        return evictedBytes.sum();
+    }
+
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    public long getDiskHits() {
+        return diskHits.sum();
+    }
+
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    /**
+     * Runs on the timing wheel thread; nodes are collected and reclaimed together under one lock acquisition.
+     */
+    private void expire(Node node) {
+        expired.add(node);
+        if (reclaimScheduled.compareAndSet(false, true)) {
+            TimingWheel.SHARED.schedule(0, this::reclaimExpired);
+        }
+    }
+
+    private void reclaimExpired() {
+        reclaimScheduled.set(false);
+        List<String> reclaimed = new ArrayList<>();
+        policyLock.lock();
+        try {
+            Node node;
+            while ((node = expired.poll()) != null) {
+                if (node.queue != null && data.remove(node.key, node)) { // Not evicted or replaced meanwhile
+                    unlink(node);
+                    expirations.increment();
+                    reclaimed.add(node.key);
+                }
+            }
+        } finally {
+            policyLock.unlock();
+        }
+        if (diskTier != null) {
+            for (String key : reclaimed) {
+                diskTier.remove(key); // Useless on disk as well
+            }
+        }
+    }
+
+    public String getStatistics() {
+        long hitCount = getHits();
+        long lookups = hitCount + getMisses();
+        return "Entries: " + size() + "\n"
+                + "Size: " + getWeight() / 1024 + " KB of " + maxWeight / 1024 + " KB\n"
+                + "Hits: " + hitCount + ", Misses: " + getMisses()
+                + (lookups > 0 ? String.format(" (hit ratio %.1f%%)", 100.0 * hitCount / lookups) : "") + "\n"
+                + "Evictions: " + getEvictions() + " (" + getEvictedBytes() / 1024 + " KB), expired: " + getExpirations() + "\n"
+                + "Rejected (too large): " + getRejections() + "\n"
+                + "Off-heap bodies: " + OffHeapBodyStore.SHARED.getUsedBytes() / 1024 + " KB in use, "
+                + OffHeapBodyStore.SHARED.getAllocatedBytes() / 1024 + " KB allocated, "
+                + OffHeapBodyStore.SHARED.getDeduplicated() + " duplicate bodies shared ("
+                + OffHeapBodyStore.SHARED.getDeduplicatedBytes() / 1024 + " KB)"
+                + (diskTier == null ? "" : "\nDisk: " + diskTier.size() + " entries, " + diskTier.getBytesUsed() / (1024 * 1024)
+                        + " MB of " + diskTier.getMaxBytes() / (1024 * 1024) + " MB, " + getDiskHits() + " hits promoted to memory");
+    }
+
+    private void onAccess(Node node) {
+        if (node.queue == window) {
+            window.moveToLast(node);
+        } else if (node.queue == probation) { // Second hit in main: promote to protected
+            probation.remove(node);
+            protectedQueue.addLast(node);
+            node.queue = protectedQueue;
+            protectedWeight += node.weight;
+            while (protectedWeight > maxProtectedWeight) {
+                Node demoted = protectedQueue.removeFirst();
+                protectedWeight -= demoted.weight;
+                probation.addLast(demoted);
+                demoted.queue = probation;
+            }
+        } else {
+            protectedQueue.moveToLast(node);
+        }
+    }
+
+    private void evictIfNeeded() {
+        while (totalWeight > maxWeight) {
+            Node victim = probation.peekFirst();
+            Node candidate = probation.peekLast();
+            if (victim == null) {
+                victim = protectedQueue.peekFirst() != null ? protectedQueue.peekFirst() : window.peekFirst();
+                evict(victim);
+            } else if (victim == candidate) {
+                evict(victim);
+            } else if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                evict(victim); // Candidate is more popular than the main segment's least recent entry
+            } else {
+                evict(candidate);
+            }
+        }
+    }
+
+    private void evict(Node node) {
+        data.remove(node.key, node);
+        unlink(node);
+        evictions.increment();
+        evictedBytes.add(node.weight);
+    }
+
+    private void unlink(Node node) {
+        if (node.queue == null) {
+            return;
+        }
+        node.queue.remove(node);
+        if (node.queue == window) {
+            windowWeight -= node.weight;
+        } else if (node.queue == protectedQueue) {
+            protectedWeight -= node.weight;
+        }
+        totalWeight -= node.weight - sharedBodyWeight(node, -1);
+        node.queue = null;
+        if (node.expiry != null) {
+            node.expiry.cancel();
+        }
+        node.value.release(); // The off-heap body is freed once no request is still serving it
+    }
+
+    /**
+     * Records one more ({@code delta} 1) or one fewer ({@code delta} -1) entry holding the node's body and
+     * returns the part of the node's weight that is not charged, because another entry already pays for the body.
+     */
+    private long sharedBodyWeight(Node node, int delta) {
+        OffHeapBody body = node.value.getBody();
+        Integer holders = bodyHolders.merge(body, delta, Integer::sum);
+        if (holders == 0) {
+            bodyHolders.remove(body);
+        }
+        boolean alone = delta > 0 ? holders == 1 : holders == 0;
+        return alone ? 0 : body.getCapacity();
+    }
+
+    private static final class Promotion {
+        final String key;
+        final CachedResources value; // Holds a reference of its own until admitted
+
+        Promotion(String key, CachedResources value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private static final class Node {
+        private final String key;
+        private final CachedResources value;
+        private final long weight;
+        private AccessQueue queue; // Guarded by policyLock, null once removed
+        private TimingWheel.Timeout expiry; // Reclamation once stale, null for entries kept for revalidation
+        private Node previous;
+        private Node next;
+
+        private Node(String key, CachedResources value, long weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Intrusive doubly linked LRU list, least recently used first.
+     */
+    private static final class AccessQueue {
+        private Node first;
+        private Node last;
+
+        private void addLast(Node node) {
+            node.previous = last;
+            node.next = null;
+            if (last == null) {
+                first = node;
+            } else {
+                last.next = node;
+            }
+            last = node;
+        }
+
+        private void remove(Node node) {
+            if (node.previous == null) {
+                first = node.next;
+            } else {
+                node.previous.next = node.next;
+            }
+            if (node.next == null) {
+                last = node.previous;
+            } else {
+                node.next.previous = node.previous;
+            }
+            node.previous = null;
+            node.next = null;
+        }
+
+        private Node removeFirst() {
+            Node node = first;
+            remove(node);
+            return node;
+        }
+
+        private void moveToLast(Node node) {
+            if (node != last) {
+                remove(node);
+                addLast(node);
+            }
+        }
+
+        private Node peekFirst() {
+            return first;
+        }
+
+        private Node peekLast() {
+            return last;
+        }
+    }
+
+    /**
+     * Count-min sketch of access frequencies with four rows of saturating 4-bit counters (stored one per byte).
+     * All counters are halved after {@code 10 * width} increments so that old popularity fades.
+     */
+    private static final class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+        private final byte[] counters;
+        private final int mask;
+        private final int sampleSize;
+        private int increments;
+
+        private FrequencySketch(int expectedEntries) {
+            int width = Integer.highestOneBit(Math.max(16, expectedEntries - 1) << 1);
+            this.counters = new byte[width * DEPTH];
+            this.mask = width - 1;
+            this.sampleSize = 10 * width;
+        }
+
+        private void increment(String key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int row = 0; row < DEPTH; row++) {
+                int index = row * (mask + 1) + indexOf(hash, row);
+                if (counters[index] < 15) {
+                    counters[index]++;
+                    added = true;
+                }
+            }
+            if (added && ++increments >= sampleSize) {
+                reset();
+            }
+        }
+
+        private int frequency(String key) {
+            int hash = spread(key.hashCode());
+            int frequency = Integer.MAX_VALUE;
+            for (int row = 0; row < DEPTH; row++) {
+                frequency = Math.min(frequency, counters[row * (mask + 1) + indexOf(hash, row)]);
+            }
+            return frequency;
+        }
+
+        private int indexOf(int hash, int row) {
+            int h = (hash ^ SEEDS[row]) * SEEDS[(row + 1) % DEPTH];
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private void reset() {
+            for (int i = 0; i < counters.length; i++) {
+                counters[i] = (byte) (counters[i] >>> 1);
+            }
+            increments /= 2;
+        }
+
+        private static int spread(int hash) {
+            hash ^= hash >>> 17;
+            hash *= 0xED5AD4BB;
+            hash ^= hash >>> 11;
+            return hash;
+        }
+    }
+}
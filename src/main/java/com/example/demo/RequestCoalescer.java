@@ -0,0 +1,302 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Single-flight coalescing of concurrent cache misses.
+ * The first miss for a key becomes the leader and fetches from the origin; misses arriving while that fetch is
+ * in flight become followers and receive the leader's response bytes as they stream in, instead of each opening
+ * their own origin request.
+ * Only the body bytes are held on the heap, and only while followers are attached: a flight stops recording and
+ * takes no more followers once it has none left, and gives up on a body that grows past {@code maxSharedBytes}.
+ */
+public class RequestCoalescer {
+    private final ConcurrentMap<String, Flight> inFlight = new ConcurrentHashMap<>();
+    private final long maxSharedBytes;
+
+    public RequestCoalescer(long maxSharedBytes) {
+        this.maxSharedBytes = maxSharedBytes;
+    }
+
+    /**
+     * Starts a flight for the key, or joins the one already running. {@link Flight#isLeader()} tells which.
+     */
+    public Flight join(String key) {
+        while (true) {
+            Flight flight = new Flight(key);
+            Flight existing = inFlight.putIfAbsent(key, flight);
+            if (existing == null) {
+                return flight;
+            }
+            if (existing.addFollower()) {
+                return existing.asFollower();
+            }
+            inFlight.remove(key, existing); // Stopped sharing and on its way out of the map, start a new flight
+        }
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    public final class Flight {
+        private static final int BLOCK_SIZE = 16 * 1024;
+
+        private final String key;
+        private final Flight leaderView; // null for the leader's own handle
+        private final List<byte[]> blocks = new ArrayList<>(); // Body bytes, every block but the last one is full
+        private HttpResponseHead head;
+        private long size;
+        private int followers;
+        private boolean declined; // Not shareable, followers fetch on their own
+        private boolean closed; // Takes no more followers; the body is no longer recorded
+        private boolean abandoned; // Grew past maxSharedBytes while shared, attached followers fail
+        private boolean complete;
+        private boolean failed;
+        private boolean left; // Follower handles only, guarded by the leader: the follower slot was given back
+
+        private Flight(String key) {
+            this.key = key;
+            this.leaderView = null;
+        }
+
+        private Flight(Flight leaderView) {
+            this.key = leaderView.key;
+            this.leaderView = leaderView;
+        }
+
+        private Flight asFollower() {
+            return new Flight(this);
+        }
+
+        public boolean isLeader() {
+            return leaderView == null;
+        }
+
+        // ---- Leader side ----
+
+        /**
+         * Publishes the response head. Followers only share responses that are {@code shareable}; otherwise they
+         * are released to do their own fetch before they have written anything.
+         */
+        public synchronized void publishHead(HttpResponseHead responseHead, boolean shareable) {
+            if (!shareable) {
+                declined = true;
+                close();
+            } else {
+                head = responseHead;
+            }
+            notifyAll();
+        }
+
+        public synchronized boolean hasFollowers() {
+            return followers > 0;
+        }
+
+        /**
+         * Wraps the leader's client stream: every body byte is recorded for followers before it goes to the client.
+         * If the leader's client goes away while followers are attached, the body keeps being read for them and the
+         * client's failure is reported once the body is complete.
+         */
+        public OutputStream recorder(OutputStream client) {
+            return new OutputStream() {
+                private IOException clientFailure;
+
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    append(b, off, len);
+                    if (clientFailure == null) {
+                        try {
+                            client.write(b, off, len);
+                        } catch (IOException e) {
+                            clientFailure = e;
+                        }
+                    }
+                    throwIfAlone();
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    if (clientFailure == null) {
+                        try {
+                            client.flush();
+                        } catch (IOException e) {
+                            clientFailure = e;
+                        }
+                    }
+                    throwIfAlone();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    if (clientFailure != null) {
+                        throw clientFailure;
+                    }
+                }
+
+                private void throwIfAlone() throws IOException {
+                    if (clientFailure != null && !hasFollowers()) {
+                        throw clientFailure; // Nobody else needs the rest of the body
+                    }
+                }
+            };
+        }
+
+        private synchronized boolean addFollower() {
+            if (closed) {
+                return false;
+            }
+            followers++;
+            return true;
+        }
+
+        /**
+         * Stops taking followers and recording; the recorded blocks are dropped unless followers still read them.
+         */
+        private void close() {
+            closed = true;
+            inFlight.remove(key, this);
+            if (followers == 0) {
+                blocks.clear();
+            }
+        }
+
+        private synchronized void append(byte[] b, int off, int len) {
+            if (closed) {
+                return;
+            }
+            if (followers == 0) {
+                close(); // Nobody to share with; anyone arriving now fetches on their own
+                return;
+            }
+            if (size + len > maxSharedBytes) {
+                abandoned = true; // Followers were promised the whole body; fail them rather than buffer without bound
+                close();
+                blocks.clear();
+                notifyAll();
+                return;
+            }
+            while (len > 0) {
+                int used = (int) (size % BLOCK_SIZE);
+                if (used == 0) {
+                    blocks.add(new byte[BLOCK_SIZE]);
+                }
+                int n = Math.min(len, BLOCK_SIZE - used);
+                System.arraycopy(b, off, blocks.get(blocks.size() - 1), used, n);
+                size += n;
+                off += n;
+                len -= n;
+            }
+            notifyAll();
+        }
+
+        /**
+         * Ends the flight. Followers see the body as complete, or as failed if {@code success} is false.
+         */
+        public synchronized void finish(boolean success) {
+            closed = true;
+            inFlight.remove(key, this);
+            if (success) {
+                complete = true;
+            } else {
+                failed = true;
+            }
+            notifyAll();
+        }
+
+        // ---- Follower side ----
+
+        /**
+         * Waits for the leader's response head. Returns {@code null} when the response is not shared
+         * (declined, failed, or finished without publishing one, as after a 304 revalidation); the caller then
+         * serves the refreshed cache entry or fetches on its own.
+         */
+        public HttpResponseHead awaitHead() throws InterruptedException {
+            Flight leader = leaderView;
+            synchronized (leader) {
+                while (leader.head == null && !leader.declined && !leader.failed && !leader.complete) {
+                    leader.wait();
+                }
+                if (leader.head == null) {
+                    leave();
+                }
+                return leader.head;
+            }
+        }
+
+        /**
+         * Gives the follower slot back, so the leader stops recording and reading the body for a follower that is
+         * gone. Every follower must call this in a {@code finally}; calling it more than once is harmless.
+         */
+        public void leave() {
+            Flight leader = leaderView;
+            synchronized (leader) {
+                if (left) {
+                    return;
+                }
+                left = true;
+                leader.followers--;
+                if (leader.followers == 0 && leader.closed) {
+                    leader.blocks.clear(); // The last reader is done with them
+                }
+            }
+        }
+
+        /**
+         * Streams the shared body to {@code out} as it arrives and returns once the leader has finished.
+         */
+        public void streamBody(OutputStream out) throws IOException, InterruptedException {
+            Flight leader = leaderView;
+            long position = 0;
+            try {
+                while (true) {
+                    long available;
+                    boolean done;
+                    synchronized (leader) {
+                        while (leader.size == position && !leader.complete && !leader.failed && !leader.abandoned) {
+                            leader.wait();
+                        }
+                        if (leader.failed) {
+                            throw new IOException("Shared upstream response failed");
+                        }
+                        if (leader.abandoned) {
+                            throw new IOException("Shared upstream response grew past " + maxSharedBytes + " bytes");
+                        }
+                        available = leader.size;
+                        done = leader.complete;
+                    }
+                    while (position < available) { // Blocks below the snapshot are no longer written to
+                        byte[] block = leader.blocks(position);
+                        int offset = (int) (position % BLOCK_SIZE);
+                        int n = (int) Math.min(BLOCK_SIZE - offset, available - position);
+                        out.write(block, offset, n);
+                        position += n;
+                    }
+                    out.flush();
+                    if (done && position == available) {
+                        return;
+                    }
+                }
+            } finally {
+                leave();
+            }
+        }
+
+        private synchronized byte[] blocks(long position) throws IOException {
+            if (abandoned) {
+                throw new IOException("Shared upstream response grew past " + maxSharedBytes + " bytes");
+            }
+            return blocks.get((int) (position / BLOCK_SIZE));
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Append-only request log on local disk, shipped to {@code request_logs} by a {@link JournalReplayer}. Entries
+ * survive a slow or unreachable database and a restart of the proxy; appending is a few dozen bytes copied
+ * into a memory-mapped segment file under a short lock.
+ * Each entry is a fixed-width 32-byte record. Its strings (client address, domain, path, method) are interned
+ * per segment: the first use of a string writes a definition record with its id, later entries only carry the
+ * id, so a segment can be read on its own. A record's type byte is written last, and readers stop at the first
+ * zero, so a record torn by a crash is never read.
+ * Segments are {@code requests-<n>.wal} files of {@code segmentBytes}; a new one is started on every open and
+ * whenever the current one is full. When the segments waiting to be replayed would exceed {@code maxBytes},
+ * new entries are dropped.
+ */
+public class RequestJournal implements RequestLogSink {
+    static final byte ENTRY = 1;
+    static final byte DEFINE = 2;
+    static final byte END = 3; // Rest of the segment is unused
+    static final int ENTRY_SIZE = 32; // type, unused, status, customer, time, ip, domain, path, method
+    static final int DEFINE_HEADER = 8; // type, unused, length, id
+    static final int NO_STRING = -1;
+    private static final int MAX_STRING_CHARS = 8192; // Longer paths are cut, keeps the encoded length within the short length field
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long maxBytes;
+    private final Map<String, Integer> strings = new HashMap<>(); // Current segment's dictionary, guarded by this
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final JournalReplayer replayer;
+    private MappedByteBuffer segment; // Guarded by this
+    private long segmentNumber; // Guarded by this
+    private int position; // Guarded by this
+    private volatile long oldestSegment; // First segment not yet deleted by the replayer
+    private volatile boolean shutdown;
+
+    private RequestJournal(Path directory, int segmentBytes, long maxBytes, int replayBatchSize, long replayIntervalMillis, JdbcConnectionPool.ConnectionFactory connections) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        List<Long> existing = segmentNumbers();
+        oldestSegment = existing.isEmpty() ? 0 : existing.get(0);
+        openSegment(existing.isEmpty() ? 0 : existing.get(existing.size() - 1) + 1); // Earlier segments may end in a torn record
+        replayer = new JournalReplayer(this, directory.toAbsolutePath().toString(), replayBatchSize, replayIntervalMillis, connections);
+    }
+
+    /**
+     * Opens the journal in {@code directory} and starts replaying what it holds.
+     */
+    public static RequestJournal open(Path directory, int segmentBytes, long maxBytes, int replayBatchSize, long replayIntervalMillis) throws IOException {
+        return open(directory, segmentBytes, maxBytes, replayBatchSize, replayIntervalMillis, DatabaseConnection::getConnection);
+    }
+
+    /**
+     * Opens the journal replaying over connections from {@code connections} rather than {@link DatabaseConnection}.
+     */
+    static RequestJournal open(Path directory, int segmentBytes, long maxBytes, int replayBatchSize, long replayIntervalMillis, JdbcConnectionPool.ConnectionFactory connections) throws IOException {
+        RequestJournal journal = new RequestJournal(directory, segmentBytes, maxBytes, replayBatchSize, replayIntervalMillis, connections);
+        journal.replayer.start(); // Only once the journal is fully constructed, the replayer reads it from its own thread
+        return journal;
+    }
+
+    /**
+     * Builds the journal from {@code proxy.log.journalDir} (default {@code ~/.transparent-proxy/journal}),
+     * {@code proxy.log.journalSegmentBytes} (default 64 MB), {@code proxy.log.journalMaxBytes} (default 1 GB),
+     * {@code proxy.log.batchSize} (default 500) and {@code proxy.log.flushMillis} (default 1000).
+     */
+    public static RequestJournal fromSystemProperties() throws IOException {
+        Path directory = Path.of(System.getProperty("proxy.log.journalDir", Path.of(System.getProperty("user.home"), ".transparent-proxy", "journal").toString()));
+        return open(directory, Integer.getInteger("proxy.log.journalSegmentBytes", 64 * 1024 * 1024),
+                Long.getLong("proxy.log.journalMaxBytes", 1024L * 1024 * 1024), Integer.getInteger("proxy.log.batchSize", 500),
+                Long.getLong("proxy.log.flushMillis", 1000L));
+    }
+
+    @Override
+    public boolean log(RequestLogEntry entry) {
+        String[] values = {entry.getClientIP(), entry.getDomain(), entry.getResourcePath(), entry.getMethod()};
+        int customerId = entry.getUser().getId();
+        synchronized (this) {
+            if (!shutdown && (fits(values) || (roll() && fits(values)))) {
+                append(entry.getDate().getTime(), entry.getStatusCode(), customerId, values);
+                appended.incrementAndGet();
+                return true;
+            }
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    public long getAppended() {
+        return appended.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public String getStatistics() {
+        return "Request journal: " + appended.get() + " appended, " + dropped.get() + " dropped, " + replayer.getReplayed() + " replayed, "
+                + (getActiveSegment() - oldestSegment + 1) + " segments on disk";
+    }
+
+    /**
+     * Stops appending and the replayer; whatever is not replayed yet is picked up on the next start.
+     */
+    @Override
+    public void shutdown(long timeoutMillis) throws InterruptedException {
+        synchronized (this) {
+            shutdown = true;
+            segment.force();
+        }
+        replayer.shutdown(timeoutMillis);
+    }
+
+    synchronized long getActiveSegment() {
+        return segmentNumber;
+    }
+
+    /**
+     * How far segment {@code number} may be read: up to the last complete record of the segment being written,
+     * to the end of any earlier one.
+     */
+    synchronized int readableLimit(long number) {
+        return number == segmentNumber ? position : segmentBytes;
+    }
+
+    Path segmentPath(long number) {
+        return directory.resolve(String.format("requests-%08d.wal", number));
+    }
+
+    List<Long> segmentNumbers() throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.matches("requests-\\d{8}\\.wal"))
+                    .forEach(name -> numbers.add(Long.parseLong(name.substring(9, 17))));
+        }
+        numbers.sort(null);
+        return numbers;
+    }
+
+    /**
+     * Called by the replayer once everything in the segment is in the database.
+     */
+    void deleteSegment(long number) throws IOException {
+        Files.deleteIfExists(segmentPath(number));
+        oldestSegment = Math.max(oldestSegment, number + 1);
+    }
+
+    private boolean fits(String[] values) {
+        int needed = ENTRY_SIZE + 1; // Leave room for the END marker
+        for (String value : values) {
+            if (value != null && !strings.containsKey(value)) {
+                needed += DEFINE_HEADER + encode(value).length;
+            }
+        }
+        return position + needed <= segmentBytes;
+    }
+
+    private void append(long time, int statusCode, int customerId, String[] values) {
+        int[] ids = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            ids[i] = intern(values[i]);
+        }
+        segment.putShort(position + 2, (short) statusCode);
+        segment.putInt(position + 4, customerId);
+        segment.putLong(position + 8, time);
+        for (int i = 0; i < ids.length; i++) {
+            segment.putInt(position + 16 + 4 * i, ids[i]);
+        }
+        segment.put(position, ENTRY); // Last, publishes the record
+        position += ENTRY_SIZE;
+    }
+
+    private int intern(String value) {
+        if (value == null) {
+            return NO_STRING;
+        }
+        Integer id = strings.get(value);
+        if (id != null) {
+            return id;
+        }
+        byte[] bytes = encode(value);
+        int newId = strings.size();
+        segment.putShort(position + 2, (short) bytes.length);
+        segment.putInt(position + 4, newId);
+        segment.put(position + DEFINE_HEADER, bytes);
+        segment.put(position, DEFINE);
+        position += DEFINE_HEADER + bytes.length;
+        strings.put(value, newId);
+        return newId;
+    }
+
+    private static byte[] encode(String value) {
+        return (value.length() > MAX_STRING_CHARS ? value.substring(0, MAX_STRING_CHARS) : value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Seals the current segment and starts the next one, unless that would take the journal past its limit.
+     */
+    private boolean roll() {
+        if ((segmentNumber + 2 - oldestSegment) * (long) segmentBytes > maxBytes) {
+            return false; // The database has fallen too far behind
+        }
+        if (position < segmentBytes) {
+            segment.put(position, END);
+        }
+        segment.force();
+        try {
+            openSegment(segmentNumber + 1);
+            return true;
+        } catch (IOException e) {
+            System.out.println("Could not start a new request journal segment: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void openSegment(long number) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segmentPath(number).toFile(), "rw")) {
+            file.setLength(segmentBytes);
+            segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+        segmentNumber = number;
+        position = 0;
+        strings.clear();
+    }
+
+    /**
+     * Maps a segment for reading.
+     */
+    ByteBuffer openForReading(long number) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(number))) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+}
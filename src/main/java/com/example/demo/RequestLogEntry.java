@@ -6,6 +6,8 @@ import java.sql.SQLException;
 import java.util.Date;
 
 public class RequestLogEntry {
+    static final String INSERT_SQL = "INSERT INTO request_logs (date, client_ip, domain, resource_path, method, status_code, customer_id) VALUES (?, ?, ?, ?, ?, ?, ?)";
+
     private Date date; // java.util.Date
     private String clientIP;
     private String domain;
@@ -24,24 +26,40 @@ public class RequestLogEntry {
         this.customer = customer;
     }
 
+    /**
+     * Writes this entry on its own connection. The proxy logs through {@link RequestLogWriter} instead.
+     */
     public void saveToDatabase() throws SQLException {
-        String sql = "INSERT INTO request_logs (date, client_ip, domain, resource_path, method, status_code, customer_id) VALUES (?, ?, ?, ?, ?, ?, ?)";
         try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setTimestamp(1, new java.sql.Timestamp(date.getTime()));
-            pstmt.setString(2, clientIP);
-            pstmt.setString(3, domain);
-            pstmt.setString(4, resourcePath);
-            pstmt.setString(5, method);
-            pstmt.setInt(6, statusCode);
-            pstmt.setInt(7, customer.getId()); // Assuming Customer class has getId() method
-
+             PreparedStatement pstmt = conn.prepareStatement(INSERT_SQL)) {
+            bind(pstmt);
             pstmt.executeUpdate();
         } catch (SQLException e) {
             throw new RuntimeException("Error saving request log entry: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Sets the parameters of {@link #INSERT_SQL} for this entry.
+     */
+    void bind(PreparedStatement pstmt) throws SQLException {
+        bind(pstmt, date.getTime(), clientIP, domain, resourcePath, method, statusCode, customer.getId()); // Assuming Customer class has getId() method
+    }
+
+    /**
+     * Sets the parameters of {@link #INSERT_SQL} for an entry that only exists as its fields, as replayed from
+     * the {@link RequestJournal}.
+     */
+    static void bind(PreparedStatement pstmt, long time, String clientIP, String domain, String resourcePath, String method, int statusCode, int customerId) throws SQLException {
+        pstmt.setTimestamp(1, new java.sql.Timestamp(time));
+        pstmt.setString(2, clientIP);
+        pstmt.setString(3, domain);
+        pstmt.setString(4, resourcePath);
+        pstmt.setString(5, method);
+        pstmt.setInt(6, statusCode);
+        pstmt.setInt(7, customerId);
+    }
+
     public Date getDate() {
         return date;
     }
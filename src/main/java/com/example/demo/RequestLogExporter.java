@@ -0,0 +1,213 @@
+package com.example.demo;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams {@code request_logs} rows to a CSV or NDJSON file, optionally gzipped. Rows are read through a
+ * server-side cursor ({@code FETCH_SIZE} at a time, which the PostgreSQL driver only does outside autocommit) and
+ * written as they arrive, so memory use stays the same whether the export has a hundred rows or a billion.
+ * Every filter is optional: client IP, a date range (from inclusive, to exclusive) and a domain, which also
+ * matches its subdomains.
+ */
+public class RequestLogExporter {
+    private static final int FETCH_SIZE = 1000;
+    private static final String[] COLUMNS = {"date", "client_ip", "domain", "resource_path", "method", "status_code", "customer_id"};
+
+    public enum Format {
+        CSV,
+        NDJSON
+    }
+
+    private final String clientIP;
+    private final Date from;
+    private final Date to;
+    private final String domain;
+    private final JdbcConnectionPool.ConnectionFactory connections;
+
+    /**
+     * Any filter may be {@code null} to leave it out.
+     */
+    public RequestLogExporter(String clientIP, Date from, Date to, String domain) {
+        this(clientIP, from, to, domain, DatabaseConnection::getConnection);
+    }
+
+    /**
+     * Reads over connections from {@code connections} rather than {@link DatabaseConnection}.
+     */
+    RequestLogExporter(String clientIP, Date from, Date to, String domain, JdbcConnectionPool.ConnectionFactory connections) {
+        this.connections = connections;
+        this.clientIP = clientIP;
+        this.from = from;
+        this.to = to;
+        this.domain = domain == null ? null : domain.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Writes every matching row to {@code file} and returns how many there were. A file left incomplete by an
+     * error is deleted.
+     */
+    public long export(Path file, Format format, boolean gzip) throws IOException, SQLException {
+        boolean complete = false;
+        try (OutputStream out = Files.newOutputStream(file);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(gzip ? new GZIPOutputStream(out, 64 * 1024) : out, StandardCharsets.UTF_8), 64 * 1024)) {
+            long rows = export(writer, format);
+            complete = true;
+            return rows;
+        } finally {
+            if (!complete) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    long export(Writer writer, Format format) throws IOException, SQLException {
+        List<Object> parameters = new ArrayList<>();
+        String sql = buildQuery(parameters);
+        try (Connection connection = connections.open()) {
+            connection.setAutoCommit(false); // Otherwise the driver reads the whole result before returning the first row
+            Throwable failure = null;
+            try (PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                statement.setFetchSize(FETCH_SIZE);
+                for (int i = 0; i < parameters.size(); i++) {
+                    statement.setObject(i + 1, parameters.get(i));
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (format == Format.CSV) {
+                        writer.write(String.join(",", COLUMNS));
+                        writer.write('\n');
+                    }
+                    long rows = 0;
+                    while (resultSet.next()) {
+                        writeRow(writer, format, resultSet);
+                        rows++;
+                    }
+                    return rows;
+                }
+            } catch (Throwable e) {
+                failure = e;
+                throw e;
+            } finally {
+                try {
+                    connection.rollback(); // Read only, just closes the cursor's transaction
+                } catch (SQLException e) {
+                    if (failure == null) {
+                        throw e;
+                    }
+                    failure.addSuppressed(e); // Keep the error that ended the export
+                }
+            }
+        }
+    }
+
+    private String buildQuery(List<Object> parameters) {
+        StringBuilder sql = new StringBuilder("SELECT r.date, r.client_ip, r.domain, r.resource_path, r.method, r.status_code, r.customer_id FROM request_logs r WHERE TRUE");
+        if (clientIP != null && !clientIP.isBlank()) {
+            sql.append(" AND r.client_ip = ?");
+            parameters.add(clientIP.trim());
+        }
+        if (from != null) {
+            sql.append(" AND r.date >= ?");
+            parameters.add(new Timestamp(from.getTime()));
+        }
+        if (to != null) {
+            sql.append(" AND r.date < ?");
+            parameters.add(new Timestamp(to.getTime()));
+        }
+        if (domain != null && !domain.isEmpty()) {
+            sql.append(" AND (r.domain = ? OR r.domain LIKE ?)");
+            parameters.add(domain);
+            parameters.add("%." + domain.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_"));
+        }
+        sql.append(" ORDER BY r.date, r.id");
+        return sql.toString();
+    }
+
+    private static void writeRow(Writer writer, Format format, ResultSet resultSet) throws SQLException, IOException {
+        Timestamp date = resultSet.getTimestamp(1);
+        Object[] values = {date == null ? null : date.toInstant().toString(), resultSet.getString(2), resultSet.getString(3),
+                resultSet.getString(4), resultSet.getString(5), resultSet.getInt(6), resultSet.getInt(7)};
+        if (format == Format.CSV) {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                if (values[i] != null) {
+                    writeCsvField(writer, values[i].toString());
+                }
+            }
+        } else {
+            writer.write('{');
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writer.write('"');
+                writer.write(COLUMNS[i]);
+                writer.write("\":");
+                if (values[i] == null) {
+                    writer.write("null");
+                } else if (values[i] instanceof Integer) {
+                    writer.write(values[i].toString());
+                } else {
+                    writeJsonString(writer, (String) values[i]);
+                }
+            }
+            writer.write('}');
+        }
+        writer.write('\n');
+    }
+
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    private static void writeJsonString(Writer writer, String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> writer.write("\\\"");
+                case '\\' -> writer.write("\\\\");
+                case '\n' -> writer.write("\\n");
+                case '\r' -> writer.write("\\r");
+                case '\t' -> writer.write("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        writer.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        writer.write(c);
+                    }
+                }
+            }
+        }
+        writer.write('"');
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.demo;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One client's request log, newest first, read a page at a time. Pages continue from the (date, id) of the last
+ * row instead of using OFFSET, so with the {@code (client_ip, date, id)} index every page is a single short index
+ * range scan, however far the report has been scrolled.
+ */
+public class RequestLogReport {
+    public static final int PAGE_SIZE = 200;
+    private static final String SELECT = "SELECT r.id, r.date, r.client_ip, r.domain, r.resource_path, r.method, r.status_code " +
+            "FROM request_logs r " +
+            "JOIN Customer c ON r.customer_id = c.id ";
+    private static final String FIRST_PAGE_SQL = SELECT +
+            "WHERE r.client_ip = ? " +
+            "ORDER BY r.date DESC, r.id DESC LIMIT ?";
+    private static final String NEXT_PAGE_SQL = SELECT +
+            "WHERE r.client_ip = ? AND (r.date, r.id) < (?, ?) " +
+            "ORDER BY r.date DESC, r.id DESC LIMIT ?";
+    private static final AtomicBoolean indexChecked = new AtomicBoolean();
+
+    private final String clientIP;
+    private final int pageSize;
+    private Timestamp lastDate; // Keyset of the last row returned
+    private long lastId;
+    private boolean exhausted;
+
+    public RequestLogReport(String clientIP) {
+        this(clientIP, PAGE_SIZE);
+    }
+
+    public RequestLogReport(String clientIP, int pageSize) {
+        this.clientIP = clientIP;
+        this.pageSize = Math.max(1, pageSize);
+    }
+
+    public String getClientIP() {
+        return clientIP;
+    }
+
+    /**
+     * Whether the last page has been read.
+     */
+    public synchronized boolean isExhausted() {
+        return exhausted;
+    }
+
+    /**
+     * Reads the next page; empty once the report is exhausted. Runs a query, so keep it off the FX thread.
+     */
+    public synchronized List<Row> nextPage() throws SQLException {
+        List<Row> rows = new ArrayList<>(pageSize);
+        if (exhausted) {
+            return rows;
+        }
+        ensureIndex();
+        try (Connection connection = DatabaseConnection.getConnection();
+             PreparedStatement statement = connection.prepareStatement(lastDate == null ? FIRST_PAGE_SQL : NEXT_PAGE_SQL)) {
+            int index = 1;
+            statement.setString(index++, clientIP);
+            if (lastDate != null) {
+                statement.setTimestamp(index++, lastDate);
+                statement.setLong(index++, lastId);
+            }
+            statement.setInt(index, pageSize);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    rows.add(new Row(resultSet.getLong("id"), resultSet.getTimestamp("date"), resultSet.getString("client_ip"),
+                            resultSet.getString("domain"), resultSet.getString("resource_path"), resultSet.getString("method"),
+                            resultSet.getInt("status_code")));
+                }
+            }
+        }
+        if (rows.size() < pageSize) {
+            exhausted = true;
+        }
+        if (!rows.isEmpty()) {
+            Row last = rows.get(rows.size() - 1);
+            lastDate = last.date;
+            lastId = last.id;
+        }
+        return rows;
+    }
+
+    /**
+     * Makes sure the index the pages are read through exists, once per process. Checked and built on a thread of
+     * its own so no page waits for it; pages read before it is ready are just slower. Built concurrently so
+     * request logging is not blocked while it is created on a large table.
+     */
+    private static void ensureIndex() {
+        if (indexChecked.compareAndSet(false, true)) {
+            Thread.startVirtualThread(RequestLogReport::buildIndex);
+        }
+    }
+
+    /**
+     * A concurrent build that failed or was cancelled leaves an invalid index behind, which {@code IF NOT EXISTS}
+     * would keep forever and the planner never uses, so such an index is dropped and built again.
+     */
+    private static void buildIndex() {
+        try (Connection connection = DatabaseConnection.getConnection();
+             Statement statement = connection.createStatement()) {
+            try (ResultSet resultSet = statement.executeQuery("SELECT indisvalid FROM pg_index WHERE indexrelid = to_regclass('request_logs_client_ip_date_id')")) {
+                if (resultSet.next()) {
+                    if (resultSet.getBoolean(1)) {
+                        return;
+                    }
+                    statement.execute("DROP INDEX CONCURRENTLY IF EXISTS request_logs_client_ip_date_id");
+                }
+            }
+            statement.execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS request_logs_client_ip_date_id ON request_logs (client_ip, date, id)");
+        } catch (SQLException e) {
+            indexChecked.set(false); // The next report tries again
+            System.out.println("Could not create the request log report index: " + e.getMessage());
+        }
+    }
+
+    public static final class Row {
+        private final long id;
+        private final Timestamp date;
+        private final String clientIP;
+        private final String domain;
+        private final String resourcePath;
+        private final String method;
+        private final int statusCode;
+
+        Row(long id, Timestamp date, String clientIP, String domain, String resourcePath, String method, int statusCode) {
+            this.id = id;
+            this.date = date;
+            this.clientIP = clientIP;
+            this.domain = domain;
+            this.resourcePath = resourcePath;
+            this.method = method;
+            this.statusCode = statusCode;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public Date getDate() {
+            return date;
+        }
+
+        public String getClientIP() {
+            return clientIP;
+        }
+
+        public String getDomain() {
+            return domain;
+        }
+
+        public String getResourcePath() {
+            return resourcePath;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.demo;
+
+import java.io.IOException;
+
+/**
+ * Where {@link ServerHandler} sends request log entries. {@link #log} is called on the request path and must not
+ * wait on the database.
+ */
+public interface RequestLogSink {
+
+    /**
+     * Accepts an entry for writing, or returns {@code false} if it had to be dropped.
+     */
+    boolean log(RequestLogEntry entry);
+
+    String getStatistics();
+
+    /**
+     * Stops accepting entries, giving queued ones up to {@code timeoutMillis} to be written out.
+     */
+    void shutdown(long timeoutMillis) throws InterruptedException;
+
+    /**
+     * The sink named by {@code proxy.log.sink}: "buffer" (the default) queues entries in memory for a
+     * {@link RequestLogWriter}, "journal" appends them to a {@link RequestJournal} on disk first.
+     */
+    static RequestLogSink fromSystemProperties() {
+        if ("journal".equalsIgnoreCase(System.getProperty("proxy.log.sink", "buffer"))) {
+            try {
+                return RequestJournal.fromSystemProperties();
+            } catch (IOException e) {
+                System.out.println("Could not open the request journal, logging through memory instead: " + e.getMessage());
+            }
+        }
+        return RequestLogWriter.fromSystemProperties();
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.demo;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes request log entries to the database off the request path. Handlers only put entries into a bounded
+ * {@link RingBuffer}; a single writer thread drains it and inserts them as JDBC batches over a pooled
+ * connection, flushing when {@code batchSize} entries are waiting or {@code flushMillis} after the oldest one
+ * arrived. When the buffer is full the {@link OverflowPolicy} decides between dropping the entry and making the
+ * handler wait for room.
+ */
+public class RequestLogWriter implements RequestLogSink {
+    private static final int MAX_ATTEMPTS = 3; // A batch that keeps failing is dropped so one bad row can't stall logging
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    public enum OverflowPolicy {
+        /**
+         * Discard the entry and count it, so logging never slows a request down.
+         */
+        DROP,
+        /**
+         * Wait until the writer makes room; no entry is lost but a slow database slows the proxy down.
+         */
+        BLOCK
+    }
+
+    private final RingBuffer<RequestLogEntry> buffer;
+    private final int batchSize;
+    private final long flushNanos;
+    private final OverflowPolicy overflowPolicy;
+    private final Thread writer;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile boolean shutdown;
+
+    private RequestLogWriter(int capacity, int batchSize, long flushMillis, OverflowPolicy overflowPolicy) {
+        this.buffer = new RingBuffer<>(capacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushMillis));
+        this.overflowPolicy = overflowPolicy;
+        this.writer = new Thread(this::run, "request-log-writer");
+        writer.setDaemon(true);
+    }
+
+    /**
+     * Creates the writer and starts its writer thread.
+     */
+    public static RequestLogWriter start(int capacity, int batchSize, long flushMillis, OverflowPolicy overflowPolicy) {
+        RequestLogWriter logWriter = new RequestLogWriter(capacity, batchSize, flushMillis, overflowPolicy);
+        logWriter.writer.start(); // Only once the writer is fully constructed
+        return logWriter;
+    }
+
+    /**
+     * Builds the writer from {@code proxy.log.bufferSize} (default 65536 entries), {@code proxy.log.batchSize}
+     * (default 500), {@code proxy.log.flushMillis} (default 1000) and {@code proxy.log.overflow} ("drop", the
+     * default, or "block").
+     */
+    public static RequestLogWriter fromSystemProperties() {
+        OverflowPolicy policy = "block".equalsIgnoreCase(System.getProperty("proxy.log.overflow", "drop")) ? OverflowPolicy.BLOCK : OverflowPolicy.DROP;
+        return start(Integer.getInteger("proxy.log.bufferSize", 65_536), Integer.getInteger("proxy.log.batchSize", 500),
+                Long.getLong("proxy.log.flushMillis", 1000L), policy);
+    }
+
+    @Override
+    public boolean log(RequestLogEntry entry) {
+        while (!shutdown) {
+            if (buffer.offer(entry)) {
+                if (buffer.size() >= batchSize) {
+                    LockSupport.unpark(writer); // A full batch is waiting, don't sit out the flush interval
+                }
+                return true;
+            }
+            if (overflowPolicy == OverflowPolicy.DROP) {
+                break;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(100_000); // Wait for the writer to free some slots
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Entries lost because the database rejected their batch.
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public int getQueued() {
+        return buffer.size();
+    }
+
+    @Override
+    public String getStatistics() {
+        return "Request log: " + written.get() + " written, " + buffer.size() + " queued, " + dropped.get() + " dropped, " + failed.get() + " failed";
+    }
+
+    @Override
+    public void shutdown(long timeoutMillis) throws InterruptedException {
+        shutdown = true;
+        LockSupport.unpark(writer);
+        writer.join(timeoutMillis);
+    }
+
+    private void run() {
+        List<RequestLogEntry> batch = new ArrayList<>(batchSize);
+        long firstQueuedAt = 0;
+        while (true) {
+            boolean wasEmpty = batch.isEmpty();
+            buffer.drainTo(batch, batchSize - batch.size());
+            if (wasEmpty && !batch.isEmpty()) {
+                firstQueuedAt = System.nanoTime();
+            }
+            boolean stopping = shutdown;
+            if (!batch.isEmpty() && (batch.size() >= batchSize || System.nanoTime() - firstQueuedAt >= flushNanos || stopping)) {
+                write(batch);
+                batch.clear();
+                continue; // More may be queued already
+            }
+            if (stopping && buffer.size() == 0) {
+                break;
+            }
+            LockSupport.parkNanos(batch.isEmpty() ? flushNanos : flushNanos - (System.nanoTime() - firstQueuedAt));
+        }
+    }
+
+    private void write(List<RequestLogEntry> batch) {
+        for (int attempt = 1; ; attempt++) {
+            try (Connection connection = DatabaseConnection.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(RequestLogEntry.INSERT_SQL)) {
+                for (RequestLogEntry entry : batch) {
+                    entry.bind(statement);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                written.addAndGet(batch.size());
+                return;
+            } catch (SQLException | RuntimeException e) {
+                System.out.println("Error saving " + batch.size() + " log entries (attempt " + attempt + "): " + e.getMessage());
+                if (attempt >= MAX_ATTEMPTS || shutdown || e instanceof RuntimeException) {
+                    failed.addAndGet(batch.size());
+                    return;
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(RETRY_DELAY_MILLIS * attempt));
+            }
+        }
+    }
+}
@@ -1,35 +1,54 @@
 package com.example.demo;
 
-import javafx.application.Platform;
-import javafx.scene.control.TextArea;
-
 import java.io.*;
 import java.net.*;
-import java.sql.SQLException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.SocketChannel;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
-public class ServerHandler extends Thread {
+public class ServerHandler implements Runnable {
     private final Socket connection; // Client connection socket
+    private final ConnectionExecutor connectionExecutor; // Executor running this handler and its relay loops
+    private final TunnelEngine tunnelEngine; // Non-blocking tunnel relay, null to relay tunnels with blocking streams
+    private final UpstreamConnectionPool upstreamPool; // Keep-alive connections to origin servers
+    private final BackgroundRefresher refresher; // Refreshes stale entries served while revalidating, null to disable
+    private final RequestLogSink requestLog; // Takes request log entries off the request path
+    private final TrafficRollup traffic; // Per-client traffic counters, null to disable
+    private boolean tunnelHandedOff = false; // Set once the tunnel engine owns the client connection
     private final FilteredListManager filteredListManager; // Manager for filtered lists
-    private BufferedReader clientInput; // Reader for client input stream
+    private InputStream clientInput; // Buffered client input stream, request lines are read as ISO-8859-1
     private DataOutputStream clientOutput; // Output stream for client
-    private static final int BUFFER_SIZE = 8192; // 8 KB buffer size
-    private final TextArea logTextArea; // TextArea for logging
-    private final ConcurrentMap<String, CachedResources> cache; // Thread-safe cache implementation
+    private CountingOutputStream clientBytes; // Counts what has been written to clientOutput
+    private int responseStatus; // Status code of the response last sent to the client
+    private boolean keepClientAlive; // Whether the current request's connection can carry another request
+    private final LogBuffer log; // Lines for the live log view
+    private final ProxyCache cache; // Bounded, thread-safe response cache
     private final Customer customer; // Customer object
     private final boolean isHttps; // Flag to check if connection is HTTPS
-    private static final int MAX_FILE_SIZE = 500 * 1024 * 1024; // 500 MB maximum file size
+    static final long MAX_CACHEABLE_SIZE = Long.getLong("proxy.cache.maxObjectSize", 10L * 1024 * 1024); // Larger bodies are streamed but not cached
+    private static final int CLIENT_IDLE_TIMEOUT_MILLIS = Integer.getInteger("proxy.client.idleTimeoutMillis", 15_000); // Idle keep-alive limit
 
     private static final String LOGIN_PAGE = "<html><body><h2>Login Page</h2><form method='post'>Token: <input type='text' name='token'><input type='submit' value='Submit'></form></body></html>";
     private static final Map<String, Boolean> clientTokens = new ConcurrentHashMap<>(); // Token map to manage client tokens
+    private static final Map<String, Long> sessionLastSeen = new ConcurrentHashMap<>(); // Last request of each client with a token
+    private static final long SESSION_IDLE_TIMEOUT_MILLIS = Long.getLong("proxy.session.idleTimeoutMillis", 30 * 60_000L); // Token must be entered again after this
+    private static final RequestCoalescer inFlightRequests = new RequestCoalescer(MAX_CACHEABLE_SIZE); // Cache misses currently being fetched
 
 
-    public ServerHandler(Socket connection, FilteredListManager filteredListManager, TextArea logTextArea, ConcurrentMap<String, CachedResources> cache, Customer customer, boolean isHttps) {
+    public ServerHandler(Socket connection, FilteredListManager filteredListManager, LogBuffer log, ProxyCache cache, Customer customer, boolean isHttps, ConnectionExecutor connectionExecutor, TunnelEngine tunnelEngine, UpstreamConnectionPool upstreamPool, BackgroundRefresher refresher, RequestLogSink requestLog, TrafficRollup traffic) {
         this.connection = connection;
+        this.connectionExecutor = connectionExecutor;
+        this.tunnelEngine = tunnelEngine;
+        this.upstreamPool = upstreamPool;
+        this.refresher = refresher;
+        this.requestLog = requestLog;
+        this.traffic = traffic;
         this.filteredListManager = filteredListManager;
-        this.logTextArea = logTextArea;
+        this.log = log;
         this.cache = cache;
         this.customer = customer;
         this.isHttps = isHttps;
@@ -38,25 +57,32 @@ public class ServerHandler extends Thread {
 
     private void initStreams() {
         try {
-            clientInput = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-            clientOutput = new DataOutputStream(connection.getOutputStream());
-            appendToLog("ServerHandler initialized for: " + connection);
+            clientInput = new BufferedInputStream(connection.getInputStream(), BufferPool.DEFAULT_BUFFER_SIZE);
+            // Buffered so a response's header and body writes leave in one segment; flushed explicitly
+            clientBytes = new CountingOutputStream(new BufferedOutputStream(connection.getOutputStream(), BufferPool.DEFAULT_BUFFER_SIZE));
+            clientOutput = new DataOutputStream(clientBytes);
+            appendToLog(LogBuffer.Level.DEBUG, "ServerHandler initialized for: " + connection);
         } catch (IOException e) {
-            appendToLog("Failed to initialize ServerHandler: " + e.getMessage());
+            appendToLog(LogBuffer.Level.ERROR, "Failed to initialize ServerHandler: " + e.getMessage());
         }
     }
 
     @Override
     public void run() {
         try {
-            appendToLog("Handling connection from " + connection.getInetAddress().getHostAddress());
+            appendToLog(LogBuffer.Level.DEBUG, "Handling connection from " + connection.getInetAddress().getHostAddress());
             if (isHttps) {
                 handleHttps(); // Handle HTTPS connections
             } else {
-                handleClientRequest(); // Handle HTTP requests
+                connection.setSoTimeout(CLIENT_IDLE_TIMEOUT_MILLIS); // Close keep-alive connections that stay idle
+                while (handleClientRequest()) { // Handle HTTP requests in arrival order until the connection closes
+                    clientOutput.flush(); // Each response goes out before the next pipelined request is read
+                }
             }
+        } catch (SocketTimeoutException e) {
+            appendToLog(LogBuffer.Level.DEBUG, "Closing idle connection from " + connection.getInetAddress().getHostAddress());
         } catch (Exception e) {
-            appendToLog("Error processing the request: " + e.getMessage());
+            appendToLog(LogBuffer.Level.ERROR, "Error processing the request: " + e.getMessage());
         } finally {
             closeResources(); // Close resources after handling request
         }
@@ -64,17 +90,15 @@ public class ServerHandler extends Thread {
 
     private void handleHttps() {
         try {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-            DataOutputStream dataOutputStream = new DataOutputStream(connection.getOutputStream());
-
             // Read the first line of the request to check if it is a CONNECT request
-            String firstLine = reader.readLine();
+            String firstLine = readClientLine();
             if (firstLine != null && firstLine.startsWith("CONNECT")) {
                 appendToLog("Received CONNECT request: " + firstLine);
+                readRestOfHeader(); // Consume the CONNECT headers so they are not relayed
 
                 // Acknowledge the CONNECT request
-                dataOutputStream.writeBytes("HTTP/1.1 200 Connection Established\r\n\r\n");
-                dataOutputStream.flush();
+                clientOutput.writeBytes("HTTP/1.1 200 Connection Established\r\n\r\n");
+                clientOutput.flush();
 
                 // Relay data transparently between client and target server
                 Socket targetSocket = null;
@@ -86,8 +110,13 @@ public class ServerHandler extends Thread {
                     int port = Integer.parseInt(hostPort[1]);
 
                     String clientIP = connection.getInetAddress().getHostAddress();
-                    if (!clientTokens.containsKey(clientIP)) {
-                        handleInitialRequest(); // Handle initial request if client token is not present
+                    if (!hasSession(clientIP)) {
+                        String requestLine = readClientLine();
+                        if (requestLine == null || requestLine.isEmpty()) {
+                            appendToLog(LogBuffer.Level.WARN, "Invalid request: empty first line.");
+                            return;
+                        }
+                        handleInitialRequest(requestLine, readRequestBody(readRestOfHeader())); // Handle initial request if client token is not present
                         return;
                     }
 
@@ -97,115 +126,121 @@ public class ServerHandler extends Thread {
                         return;
                     }
 
+                    if (canHandOffTunnel()) {
+                        SocketChannel serverChannel = SocketChannel.open(new InetSocketAddress(host, port));
+                        appendToLog(LogBuffer.Level.DEBUG, "Connected to target server: " + host + ":" + port);
+                        handOffTunnel(serverChannel); // The tunnel engine relays from here on
+                        return;
+                    }
+
                     // Connect to the target server
                     targetSocket = new Socket(host, port);
-                    appendToLog("Connected to target server: " + host + ":" + port);
+                    appendToLog(LogBuffer.Level.DEBUG, "Connected to target server: " + host + ":" + port);
 
                     // Relay data between the client and the target server
-                    relayData(connection.getInputStream(), targetSocket.getOutputStream(), targetSocket.getInputStream(), connection.getOutputStream());
+                    relayData(clientInput, targetSocket.getOutputStream(), targetSocket.getInputStream(), clientOutput);
 
                 } catch (Exception e) {
-                    appendToLog("Error handling CONNECT request: " + e.getMessage());
+                    appendToLog(LogBuffer.Level.ERROR, "Error handling CONNECT request: " + e.getMessage());
                     if (targetSocket != null && !targetSocket.isClosed()) {
                         targetSocket.close();
                     }
                 }
             } else {
-                appendToLog("Expected CONNECT request but received: " + firstLine);
+                appendToLog(LogBuffer.Level.WARN, "Expected CONNECT request but received: " + firstLine);
                 sendErrorResponse(400, "Bad Request");
             }
         } catch (IOException e) {
-            appendToLog("Failed to handle HTTPS: " + e.getMessage());
+            appendToLog(LogBuffer.Level.ERROR, "Failed to handle HTTPS: " + e.getMessage());
         }
     }
 
     private void relayData(InputStream clientInputStream, OutputStream serverOutputStream, InputStream serverInputStream, OutputStream clientOutputStream) {
-        Thread clientToServer = new Thread(() -> {
+        Future<?> clientToServer = connectionExecutor.fork(() -> {
             try {
-                byte[] buffer = new byte[BUFFER_SIZE];
-                int read;
-                while ((read = clientInputStream.read(buffer)) != -1) { // Read data from client and send to server
-                    serverOutputStream.write(buffer, 0, read);
-                    serverOutputStream.flush();
-                }
+                BufferPool.HEAP.copy(clientInputStream, serverOutputStream); // Read data from client and send to server
             } catch (IOException e) {
-                appendToLog("Error relaying data from client to server: " + e.getMessage());
+                appendToLog(LogBuffer.Level.ERROR, "Error relaying data from client to server: " + e.getMessage());
             }
         });
 
-        Thread serverToClient = new Thread(() -> {
+        Future<?> serverToClient = connectionExecutor.fork(() -> {
             try {
-                byte[] buffer = new byte[BUFFER_SIZE];
-                int read;
-                while ((read = serverInputStream.read(buffer)) != -1) { // Read data from server and send to client
-                    clientOutputStream.write(buffer, 0, read);
-                    clientOutputStream.flush();
-                }
+                BufferPool.HEAP.copy(serverInputStream, clientOutputStream); // Read data from server and send to client
             } catch (IOException e) {
-                appendToLog("Error relaying data from server to client: " + e.getMessage());
+                appendToLog(LogBuffer.Level.ERROR, "Error relaying data from server to client: " + e.getMessage());
             }
         });
 
-        clientToServer.start();
-        serverToClient.start();
+        awaitRelays(clientToServer, serverToClient);
+    }
 
+    private void awaitRelays(Future<?>... relays) {
         try {
-            clientToServer.join();
-            serverToClient.join();
+            for (Future<?> relay : relays) {
+                relay.get(); // Wait for each relay direction to finish
+            }
         } catch (InterruptedException e) {
-            appendToLog("Data relay threads interrupted: " + e.getMessage());
+            Thread.currentThread().interrupt();
+            appendToLog(LogBuffer.Level.WARN, "Data relay threads interrupted: " + e.getMessage());
+        } catch (ExecutionException e) {
+            appendToLog(LogBuffer.Level.ERROR, "Data relay failed: " + e.getCause());
         }
     }
 
-    private void handleClientRequest() throws IOException {
-        String clientIP = connection.getInetAddress().getHostAddress();
-
-        if (!clientTokens.containsKey(clientIP)) {
-            handleInitialRequest(); // Handle initial request if client token is not present
-            return;
+    /**
+     * Reads and answers one request. Returns true when the connection stays open for the next (possibly
+     * already pipelined) request.
+     */
+    private boolean handleClientRequest() throws IOException {
+        String firstLine = readClientLine();
+        while (firstLine != null && firstLine.isEmpty()) {
+            firstLine = readClientLine(); // Tolerate stray line breaks between pipelined requests
+        }
+        if (firstLine == null) {
+            return false; // Client closed the connection
         }
+        String header = readRestOfHeader(); // Read the rest of the HTTP header
+        byte[] body = readRequestBody(header); // Read the body so the next request starts at the right byte
+        keepClientAlive = isKeepAliveRequested(firstLine, header);
 
-        String firstLine = clientInput.readLine();
-        if (firstLine == null || firstLine.isEmpty()) {
-            appendToLog("Invalid request: empty first line.");
-            return;
+        String clientIP = connection.getInetAddress().getHostAddress();
+        if (!hasSession(clientIP)) {
+            handleInitialRequest(firstLine, body); // Handle initial request if client token is not present
+            return keepClientAlive;
         }
 
         String method = extractMethod(firstLine); // Extract HTTP method from request
         if ("CONNECT".equalsIgnoreCase(method)) {
             handleConnectRequest(firstLine); // Handle CONNECT request
-        } else {
-            handleHttpRequest(firstLine, method); // Handle other HTTP requests
+            return false; // The connection carried a tunnel
         }
+        handleHttpRequest(firstLine, method, header, body); // Handle other HTTP requests
+        return keepClientAlive;
     }
 
-    private void handleInitialRequest() throws IOException {
-        String firstLine = clientInput.readLine();
-        if (firstLine == null || firstLine.isEmpty()) {
-            appendToLog("Invalid request: empty first line.");
-            return;
-        }
-
+    private void handleInitialRequest(String firstLine, byte[] body) throws IOException {
         String method = extractMethod(firstLine); // Extract HTTP method from request
         if ("POST".equalsIgnoreCase(method)) {
-            handleTokenSubmission(); // Handle token submission via POST request
+            handleTokenSubmission(body); // Handle token submission via POST request
         } else {
             serveLoginPage(); // Serve login page for other requests
         }
     }
 
-    private void handleHttpRequest(String firstLine, String method) throws IOException {
-        String header = readRestOfHeader(); // Read the rest of the HTTP header
+    private void handleHttpRequest(String firstLine, String method, String header, byte[] body) throws IOException {
         String path = extractPath(firstLine); // Extract the path from the request line
         String host = extractHost(header); // Extract the host from the header
         if (host == null) {
-            appendToLog("Host header is missing.");
+            appendToLog(LogBuffer.Level.WARN, "Host header is missing.");
+            keepClientAlive = false;
             return;
         }
 
         String fullUrl = constructUrl(host, path); // Construct the full URL from host and path
         if (fullUrl.isEmpty()) {
-            appendToLog("Failed to construct URL.");
+            appendToLog(LogBuffer.Level.WARN, "Failed to construct URL.");
+            keepClientAlive = false;
             return;
         }
 
@@ -213,34 +248,42 @@ public class ServerHandler extends Thread {
         try {
             url = new URL(fullUrl); // Validate the constructed URL
         } catch (MalformedURLException e) {
-            appendToLog("Malformed URL: " + fullUrl);
+            appendToLog(LogBuffer.Level.WARN, "Malformed URL: " + fullUrl);
+            keepClientAlive = false;
             return;
         }
 
         String domain = url.getHost(); // Extract domain from URL
         String urlPath = url.getPath(); // Extract path from URL
 
+        long bytesBefore = clientBytes.getCount();
+        responseStatus = 0;
         Boolean isFilteringEnabled = clientTokens.get(connection.getInetAddress().getHostAddress());
         if (isFilteringEnabled != null && isFilteringEnabled && filteredListManager.isFilteredHost(domain)) {
             sendUnauthorizedResponse(domain); // Send unauthorized response if host is filtered
+            recordTraffic(domain, bytesBefore);
             return;
         }
 
         logRequest(domain, urlPath, method, 200); // Log the request
 
-        switch (method.toUpperCase()) {
-            case "GET":
-            case "HEAD":
-                handleGetHeadRequest(method, url, header); // Handle GET and HEAD requests
-                break;
-            case "POST":
-                handlePostRequest(url, header); // Handle POST request
-                break;
-            case "OPTIONS":
-                handleOptionsRequest(domain, urlPath, header); // Handle OPTIONS request
-                break;
-            default:
-                sendMethodNotAllowed(); // Send response for unsupported methods
+        try {
+            switch (method.toUpperCase()) {
+                case "GET":
+                case "HEAD":
+                    handleGetHeadRequest(method, url, header); // Handle GET and HEAD requests
+                    break;
+                case "POST":
+                    handlePostRequest(url, header, body); // Handle POST request
+                    break;
+                case "OPTIONS":
+                    handleOptionsRequest(domain, urlPath, header); // Handle OPTIONS request
+                    break;
+                default:
+                    sendMethodNotAllowed(); // Send response for unsupported methods
+            }
+        } finally {
+            recordTraffic(domain, bytesBefore); // Also when the response broke off halfway
         }
     }
 
@@ -248,7 +291,7 @@ public class ServerHandler extends Thread {
         appendToLog("Handling CONNECT request for: " + firstLine);
         String[] parts = firstLine.split(" ");
         if (parts.length != 3) {
-            appendToLog("Invalid CONNECT request line: " + firstLine);
+            appendToLog(LogBuffer.Level.WARN, "Invalid CONNECT request line: " + firstLine);
             sendErrorResponse(400, "Bad Request");
             return;
         }
@@ -268,45 +311,64 @@ public class ServerHandler extends Thread {
                 return;
             }
 
-            appendToLog("Parsed host: " + host + ", port: " + port);
+            appendToLog(LogBuffer.Level.DEBUG, "Parsed host: " + host + ", port: " + port);
+            connection.setSoTimeout(0); // Tunnels may legitimately stay quiet for a long time
+
+            if (canHandOffTunnel()) {
+                SocketChannel serverChannel = SocketChannel.open(new InetSocketAddress(host, port));
+                clientOutput.writeBytes("HTTP/1.1 200 Connection Established\r\n\r\n");
+                clientOutput.flush();
+                handOffTunnel(serverChannel); // The tunnel engine relays from here on
+                return;
+            }
 
             try (Socket serverSocket = new Socket(host, port);
-                 InputStream clientInput = connection.getInputStream();
-                 OutputStream clientOutput = connection.getOutputStream();
                  InputStream serverInput = serverSocket.getInputStream();
                  OutputStream serverOutput = serverSocket.getOutputStream()) {
 
-                clientOutput.write("HTTP/1.1 200 Connection Established\r\n\r\n".getBytes());
+                clientOutput.writeBytes("HTTP/1.1 200 Connection Established\r\n\r\n");
                 clientOutput.flush();
 
-                Thread clientToServer = new Thread(() -> relayData(clientInput, serverOutput));
-                Thread serverToClient = new Thread(() -> relayData(serverInput, clientOutput));
+                Future<?> clientToServer = connectionExecutor.fork(() -> relayData(clientInput, serverOutput));
+                Future<?> serverToClient = connectionExecutor.fork(() -> relayData(serverInput, clientOutput));
 
-                clientToServer.start();
-                serverToClient.start();
-
-                clientToServer.join();
-                serverToClient.join();
+                awaitRelays(clientToServer, serverToClient);
             }
         } catch (NumberFormatException e) {
-            appendToLog("Number format exception: " + e.getMessage());
+            appendToLog(LogBuffer.Level.WARN, "Number format exception: " + e.getMessage());
             sendErrorResponse(400, "Bad Request: Invalid port number.");
         } catch (Exception e) {
-            appendToLog("Failed to handle CONNECT request: " + e.getMessage());
+            appendToLog(LogBuffer.Level.ERROR, "Failed to handle CONNECT request: " + e.getMessage());
             sendErrorResponse(500, "Internal Server Error");
         }
     }
 
-    private void relayData(InputStream in, OutputStream out) {
+    private boolean canHandOffTunnel() {
+        return tunnelEngine != null && connection.getChannel() != null; // Only channel-backed sockets can be selected on
+    }
+
+    private void handOffTunnel(SocketChannel serverChannel) throws IOException {
         try {
-            byte[] buffer = new byte[BUFFER_SIZE];
-            int read;
-            while ((read = in.read(buffer)) != -1) { // Relay data between streams
-                out.write(buffer, 0, read);
-                out.flush();
+            int buffered = clientInput.available();
+            if (buffered > 0) { // Bytes the client sent right behind the CONNECT head are already in our buffer
+                ByteBuffer early = ByteBuffer.wrap(clientInput.readNBytes(buffered));
+                while (early.hasRemaining()) {
+                    serverChannel.write(early);
+                }
             }
+            tunnelEngine.register(connection.getChannel(), serverChannel);
+            tunnelHandedOff = true;
+        } catch (IOException e) {
+            serverChannel.close();
+            throw e;
+        }
+    }
+
+    private void relayData(InputStream in, OutputStream out) {
+        try {
+            BufferPool.HEAP.copy(in, out); // Relay data between streams
         } catch (IOException e) {
-            appendToLog("Error relaying data: " + e.getMessage());
+            appendToLog(LogBuffer.Level.ERROR, "Error relaying data: " + e.getMessage());
         }
     }
 
@@ -314,111 +376,285 @@ public class ServerHandler extends Thread {
         String urlString = url.toString();
 
         CachedResources cachedResource = cache.get(urlString);
-        if (cachedResource != null && !cachedResource.isExpired()) {
-            appendToLog("Serving cached data for URL: " + urlString);
-            clientOutput.write(cachedResource.getData());
-            clientOutput.flush();
-        } else {
-            GET_HEAD_FROM_SERVER(url, method, urlString, header); // Fetch and cache the GET/HEAD request
+        try {
+            if (cachedResource != null && !isNoCacheRequested(header)) {
+                if (!cachedResource.isExpired()) {
+                    appendToLog(LogBuffer.Level.DEBUG, "Serving cached data for URL: " + urlString);
+                    serveCached(method, cachedResource);
+                    return;
+                }
+                if (refresher != null && refresher.canServeStale(cachedResource)) {
+                    // Stale-while-revalidate: answer from the cache now, let the refresher fetch a new copy
+                    refresher.schedule(url, urlString, cachedResource);
+                    appendToLog("Serving stale data while refreshing URL: " + urlString);
+                    serveCached(method, cachedResource);
+                    return;
+                }
+            }
+            // A stale entry with validators is revalidated with a conditional request instead of refetched
+            CachedResources stale = cachedResource != null && cachedResource.hasValidators() ? cachedResource : null;
+            if ("GET".equalsIgnoreCase(method) && isCoalescable(header)) {
+                fetchCoalesced(url, method, urlString, header, stale); // Share one origin fetch among concurrent misses
+            } else {
+                GET_HEAD_FROM_SERVER(url, method, urlString, header, null, stale); // Fetch and cache the GET/HEAD request
+            }
+        } finally {
+            if (cachedResource != null) {
+                cachedResource.release(); // Our reference to the off-heap body
+            }
         }
     }
 
-    private void GET_HEAD_FROM_SERVER(URL url, String method, String urlString, String headers) throws IOException {
-        ByteArrayOutputStream bufferStream = new ByteArrayOutputStream();
-        try (Socket socket = new Socket(url.getHost(), url.getPort() == -1 ? 80 : url.getPort()); // Connect to the server using the URL host and port number
-             InputStream serverInput = socket.getInputStream();
-             OutputStream serverOutput = socket.getOutputStream();
-             PrintWriter writer = new PrintWriter(serverOutput, true)) {
+    private void serveCached(String method, CachedResources cachedResource) throws IOException {
+        HttpResponseHead cachedHead = cachedResource.getHeadForClient();
+        keepClientAlive &= !cachedHead.isDelimitedByClose(method);
+        clientOutput.write(cachedHead.toBytes(keepClientAlive));
+        clientOutput.flush(); // The body bypasses the stream buffer
+        responseStatus = cachedHead.getStatusCode();
+        if (cachedHead.hasBody(method)) {
+            SocketChannel channel = connection.getChannel();
+            if (channel != null && channel.isBlocking()) {
+                cachedResource.getBody().writeTo(channel); // Straight from off-heap memory to the socket
+                clientBytes.addCount(cachedResource.getBody().length());
+            } else {
+                cachedResource.getBody().writeTo(clientOutput);
+                clientOutput.flush();
+            }
+        }
+    }
 
-            // Process and set headers using the utility function
-            String processedHeaders = HeaderUtils.processHeaders(headers, url, method);
-            // processedHeaders will contain the processed headers for the request = method + path + HTTP/1.1 + other headers
-            writer.print(processedHeaders);
-            writer.println(); // Ensure an empty line to end the header section
-            writer.flush();
+    private boolean isNoCacheRequested(String headers) {
+        // The client asks for the stored response to be validated with the origin first
+        String cacheControl = extractHeader(headers, "Cache-Control");
+        String pragma = extractHeader(headers, "Pragma");
+        return (cacheControl != null && cacheControl.toLowerCase(Locale.ROOT).contains("no-cache"))
+                || (cacheControl == null && pragma != null && pragma.toLowerCase(Locale.ROOT).contains("no-cache"));
+    }
 
-            appendToLog("Request sent to " + url.getHost() + ":\n" + processedHeaders);
+    private boolean isCoalescable(String headers) {
+        // Credentialed and partial requests get responses of their own
+        return extractHeader(headers, "Authorization") == null && extractHeader(headers, "Range") == null;
+    }
 
-            byte[] buffer = new byte[BUFFER_SIZE];
-            int bytesRead;
-            while ((bytesRead = serverInput.read(buffer)) != -1) { // Read response from server
-                bufferStream.write(buffer, 0, bytesRead);
+    private void fetchCoalesced(URL url, String method, String urlString, String header, CachedResources stale) throws IOException {
+        RequestCoalescer.Flight flight = inFlightRequests.join(urlString);
+        if (flight.isLeader()) {
+            boolean success = false;
+            try {
+                GET_HEAD_FROM_SERVER(url, method, urlString, header, flight, stale);
+                success = true;
+            } finally {
+                flight.finish(success);
             }
+            return;
+        }
 
-            byte[] data = bufferStream.toByteArray();
-            clientOutput.write(data);
-            clientOutput.flush();
-
-            cache.put(urlString, new CachedResources(url, data, System.currentTimeMillis() + 1000 * 60 * 10)); // 10 minutes expiry
-            appendToLog("New data fetched and cached for URL: " + urlString);
+        appendToLog(LogBuffer.Level.DEBUG, "Joining in-flight fetch for URL: " + urlString);
+        try {
+            HttpResponseHead head = flight.awaitHead();
+            if (head == null) {
+                CachedResources revalidated = cache.get(urlString);
+                try {
+                    if (revalidated != null && !revalidated.isExpired()) {
+                        serveCached(method, revalidated); // The leader got a 304 and refreshed the entry
+                    } else {
+                        GET_HEAD_FROM_SERVER(url, method, urlString, header, null, stale); // The leader's response can't be shared
+                    }
+                } finally {
+                    if (revalidated != null) {
+                        revalidated.release();
+                    }
+                }
+                return;
+            }
+            keepClientAlive &= !head.isDelimitedByClose(method);
+            clientOutput.write(head.toBytes(keepClientAlive));
+            responseStatus = head.getStatusCode();
+            flight.streamBody(clientOutput);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an in-flight response");
+        } finally {
+            flight.leave(); // Also when the head write fails because the client is gone
         }
     }
 
-    private void handlePostRequest(URL url, String headers) throws IOException {
-        final int BUFFER_SIZE = 4096;
-        try (Socket socket = new Socket(url.getHost(), url.getPort() == -1 ? 80 : url.getPort());
-             InputStream serverInputStream = socket.getInputStream();
-             OutputStream serverOutputStream = socket.getOutputStream();
-             ByteArrayOutputStream responseStream = new ByteArrayOutputStream();
-             PrintWriter writer = new PrintWriter(serverOutputStream, true)) {
-
-            // Process and set headers using the utility function
-            String processedHeaders = HeaderUtils.processHeaders(headers, url, "POST");
-            writer.print(processedHeaders);
-            writer.println(); // Ensure an empty line to end the header section
-            writer.flush();
-
-            // Read the body from the client and forward it to the server
-            StringBuilder requestBody = new StringBuilder();
-            while (clientInput.ready()) { // Read request body from client
-                requestBody.append((char) clientInput.read());
+    /**
+     * Fetches a GET/HEAD response, streaming it to the client and caching it when possible. When {@code flight}
+     * is given, this request leads a coalesced fetch and records the body for the followers as well.
+     * When a {@code stale} entry is given, the request carries its validators and a 304 answer refreshes and
+     * serves the stored response instead; the caller keeps its reference to {@code stale}.
+     */
+    private void GET_HEAD_FROM_SERVER(URL url, String method, String urlString, String headers, RequestCoalescer.Flight flight, CachedResources stale) throws IOException {
+        CacheTee[] cacheCopy = new CacheTee[1];
+        OutputStream[] recorder = new OutputStream[1];
+        long requestTime = System.currentTimeMillis();
+        String requestHeaders = stale != null ? stale.addValidators(headers) : headers;
+        HttpResponseHead response;
+        try {
+            // Stream the body to the client as it arrives, keeping a bounded copy for the cache on the side
+            response = forwardRequest(url, method, requestHeaders, null, head -> {
+                if (stale != null && head.getStatusCode() == 304) {
+                    return OutputStream.nullOutputStream(); // Nothing for the client yet, the stored response is served below
+                }
+                writeHeadToClient(head, method);
+                cacheCopy[0] = new CacheTee(clientOutput, MAX_CACHEABLE_SIZE, head.getContentLength());
+                boolean cacheable = isCacheable(method, requestHeaders, head);
+                if (!cacheable) {
+                    cacheCopy[0].abandon();
+                }
+                if (flight == null) {
+                    return cacheCopy[0];
+                }
+                // Only a known length can be checked against the limit up front; followers can't be cut off halfway
+                long contentLength = head.getContentLength();
+                flight.publishHead(head, cacheable && contentLength >= 0 && contentLength <= MAX_CACHEABLE_SIZE);
+                recorder[0] = flight.recorder(cacheCopy[0]);
+                return recorder[0];
+            });
+            if (recorder[0] != null) {
+                recorder[0].close(); // Reports a failure of our own client once the followers were served
             }
-            String body = requestBody.toString();
-            writer.print(body);
-            writer.flush();
-
-            // Read the response from the server and forward it to the client
-            byte[] buffer = new byte[BUFFER_SIZE];
-            int bytesRead;
-            while ((bytesRead = serverInputStream.read(buffer)) != -1) { // Read response from server
-                responseStream.write(buffer, 0, bytesRead);
+        } catch (IOException | RuntimeException e) {
+            if (cacheCopy[0] != null) {
+                cacheCopy[0].abandon(); // Give a partial copy's off-heap pages back
             }
-            appendToLog("POST request handled for domain: " + url.getHost());
-            clientOutput.write(responseStream.toByteArray());
+            throw e;
+        }
+
+        long responseTime = System.currentTimeMillis();
+        if (cacheCopy[0] == null) { // 304 Not Modified for our stale entry
+            CachedResources refreshed = stale.revalidated(response, requestTime, responseTime);
+            try {
+                cache.put(urlString, refreshed);
+                appendToLog("Revalidated cached data for URL: " + urlString);
+                serveCached(method, refreshed);
+            } finally {
+                refreshed.release();
+            }
+            return;
+        }
+
+        OffHeapBody body = cacheCopy[0].finish();
+        if (body != null) {
+            CachedResources fetched = new CachedResources(url, response, body, requestTime, responseTime);
+            cache.put(urlString, fetched);
+            fetched.release(); // The cache holds its own reference
+            appendToLog("New data fetched and cached for URL: " + urlString);
+        } else if (stale != null && "GET".equalsIgnoreCase(method)) {
+            cache.remove(urlString); // Replaced by a response we can't store
         }
     }
 
+    private boolean isCacheable(String method, String requestHeaders, HttpResponseHead head) {
+        // A HEAD response has no body to serve later GETs with
+        return "GET".equalsIgnoreCase(method) && CachedResources.isCacheable(requestHeaders, head);
+    }
+
+    private void handlePostRequest(URL url, String headers, byte[] body) throws IOException {
+        // Forward the client's body and stream the response from the server to the client as it arrives
+        forwardRequest(url, "POST", headers, body, head -> writeHeadToClient(head, "POST"));
+        appendToLog("POST request handled for domain: " + url.getHost());
+    }
+
     private void handleOptionsRequest(String domain, String path, String headers) {
         try {
             URL url = new URL("http://" + domain + path); // Create the URL for the OPTIONS request
 
-            try (Socket socket = new Socket(url.getHost(), url.getPort() == -1 ? 80 : url.getPort());
-                 InputStream serverInputStream = socket.getInputStream();
-                 OutputStream serverOutputStream = socket.getOutputStream();
-                 ByteArrayOutputStream responseStream = new ByteArrayOutputStream();
-                 PrintWriter writer = new PrintWriter(serverOutputStream, true)) {
+            forwardRequest(url, "OPTIONS", headers, null, head -> writeHeadToClient(head, "OPTIONS")); // Stream the response back to the client
 
-                // Process the headers using the HeaderUtils class
-                String processedHeaders = HeaderUtils.processHeaders(headers, url, "OPTIONS");
-                writer.print(processedHeaders);
-                writer.println(); // Ensure an empty line to end the header section
-                writer.flush();
+            appendToLog("OPTIONS request handled for domain: " + domain);
+        } catch (IOException e) {
+            keepClientAlive = false; // The response may have been cut off halfway
+            appendToLog(LogBuffer.Level.ERROR, "OPTIONS request failed for domain: " + domain + "; Error: " + e.getMessage());
+        }
+    }
 
-                appendToLog("OPTIONS request sent to " + domain + path + ":\n" + processedHeaders);
+    /**
+     * Writes a final response head to the client and returns the stream its body goes to. A body delimited by the
+     * server closing the connection ends the client's keep-alive as well, since the client can only detect its end
+     * the same way.
+     */
+    private OutputStream writeHeadToClient(HttpResponseHead head, String method) throws IOException {
+        keepClientAlive &= !head.isDelimitedByClose(method);
+        clientOutput.write(head.toBytes(keepClientAlive));
+        responseStatus = head.getStatusCode();
+        return clientOutput;
+    }
 
-                byte[] buffer = new byte[BUFFER_SIZE];
-                int bytesRead;
-                while ((bytesRead = serverInputStream.read(buffer)) != -1) { // Read response from server
-                    responseStream.write(buffer, 0, bytesRead);
-                }
+    /**
+     * Sends one request over a pooled keep-alive connection and copies the framed body to the stream
+     * {@code bodySink} opens for the final response head; the sink decides whether that head goes to the client.
+     * The connection goes back to the pool only if the response was read up to its framing boundary.
+     * Idempotent requests are retried once on a new connection when a reused one was closed by the server.
+     */
+    private HttpResponseHead forwardRequest(URL url, String method, String headers, byte[] body, ResponseSink bodySink) throws IOException {
+        // Process and set headers using the utility function
+        String processedHeaders = HeaderUtils.processHeaders(headers, url, method, true);
+        if (log.isLoggable(LogBuffer.Level.DEBUG)) {
+            appendToLog(LogBuffer.Level.DEBUG, "Sending request to " + url.getHost() + ":\n" + processedHeaders);
+        }
+        return forwardRequest(upstreamPool, url, method, processedHeaders, body, new ResponseSink() {
+            @Override
+            public OutputStream open(HttpResponseHead head) throws IOException {
+                return bodySink.open(head);
+            }
 
-                clientOutput.write(responseStream.toByteArray()); // Send the response back to the client
-                clientOutput.flush();
+            @Override
+            public void interim(HttpResponseHead head) throws IOException {
+                clientOutput.write(head.toBytes(keepClientAlive)); // e.g. 100 Continue before the final response
+            }
+        });
+    }
 
-                appendToLog("OPTIONS request handled for domain: " + domain);
+    /**
+     * The upstream half of {@link #forwardRequest(URL, String, String, byte[], ResponseSink)}, shared with the
+     * {@link BackgroundRefresher}: sends {@code processedHeaders} and {@code body} over a pooled connection,
+     * retrying once on a fresh connection as described there, and copies the response into {@code sink}.
+     */
+    static HttpResponseHead forwardRequest(UpstreamConnectionPool upstreamPool, URL url, String method, String processedHeaders, byte[] body, ResponseSink sink) throws IOException {
+        String host = url.getHost();
+        int port = url.getPort() == -1 ? 80 : url.getPort();
+        byte[] requestHead = (processedHeaders + "\r\n").getBytes(StandardCharsets.ISO_8859_1); // The empty line ends the header section
+        boolean idempotent = !"POST".equalsIgnoreCase(method);
+
+        for (int attempt = 1; ; attempt++) {
+            UpstreamConnectionPool.UpstreamConnection upstream = upstreamPool.acquire(host, port);
+            boolean reusable = false;
+            boolean responseStarted = false;
+            try {
+                OutputStream serverOutput = upstream.getOutput();
+                serverOutput.write(requestHead);
+                if (body != null) {
+                    serverOutput.write(body);
+                }
+                serverOutput.flush();
+
+                HttpResponseHead response = HttpResponseHead.read(upstream.getInput());
+                while (response != null && response.isInformational()) {
+                    responseStarted = true;
+                    sink.interim(response);
+                    response = HttpResponseHead.read(upstream.getInput());
+                }
+                if (response == null) {
+                    throw new EOFException("Server closed the connection without a response");
+                }
+                responseStarted = true;
+                OutputStream bodyOut = sink.open(response);
+                response.copyBody(upstream.getInput(), bodyOut, method);
+                bodyOut.flush();
+                reusable = response.isPersistent() && !response.isDelimitedByClose(method);
+                return response;
+            } catch (SocketTimeoutException e) { // A stalled origin, not a stale connection: don't wait twice
+                throw new IOException("Timed out reading from " + host + ":" + port, e); // Not to be taken for an idle client
+            } catch (IOException e) {
+                if (attempt == 1 && idempotent && upstream.isReused() && !responseStarted) {
+                    continue; // Stale pooled connection, try once more on a fresh one
+                }
+                throw e;
+            } finally {
+                upstreamPool.release(upstream, reusable);
             }
-        } catch (IOException e) {
-            appendToLog("OPTIONS request failed for domain: " + domain + "; Error: " + e.getMessage());
         }
     }
 
@@ -429,8 +665,9 @@ public class ServerHandler extends Thread {
                 + "Content-Length: 0\r\n\r\n";
         try {
             clientOutput.writeBytes(response); // Send method not allowed response
+            responseStatus = 405;
         } catch (IOException e) {
-            appendToLog("Failed to send Method Not Allowed response: " + e.getMessage());
+            appendToLog(LogBuffer.Level.ERROR, "Failed to send Method Not Allowed response: " + e.getMessage());
         }
         appendToLog("Method not allowed");
     }
@@ -445,29 +682,54 @@ public class ServerHandler extends Thread {
         out.flush();
     }
 
-    private void handleTokenSubmission() throws IOException {
+    private void handleTokenSubmission(byte[] body) throws IOException {
         String clientIP = connection.getInetAddress().getHostAddress();
-        StringBuilder requestBody = new StringBuilder();
 
-        while (!clientInput.readLine().isEmpty()) { // Read headers until empty line is found
-            // Read headers
-        }
-        while (clientInput.ready()) { // Read request body from client input stream until no more data
-            requestBody.append((char) clientInput.read());
-        }
-
-        String token = extractTokenFromRequestBody(requestBody.toString());
+        String token = extractTokenFromRequestBody(new String(body, StandardCharsets.ISO_8859_1));
         if (validateToken(token)) {
             boolean isFilteringEnabled = "51e2cba401".equals(token);
-            clientTokens.put(clientIP, isFilteringEnabled);
+            startSession(clientIP, isFilteringEnabled);
             appendToLog("Token validated for IP: " + clientIP);
             serveSuccessPage(); // Serve success page if token is valid
         } else {
-            appendToLog("Invalid token for IP: " + clientIP);
+            appendToLog(LogBuffer.Level.WARN, "Invalid token for IP: " + clientIP);
             serveLoginPage(); // Serve login page if token is invalid
         }
     }
 
+    private static boolean hasSession(String clientIP) {
+        if (!clientTokens.containsKey(clientIP)) {
+            return false;
+        }
+        sessionLastSeen.put(clientIP, TimingWheel.SHARED.currentTimeMillis()); // Keeps the session alive
+        return true;
+    }
+
+    private static void startSession(String clientIP, boolean isFilteringEnabled) {
+        clientTokens.put(clientIP, isFilteringEnabled);
+        if (sessionLastSeen.put(clientIP, TimingWheel.SHARED.currentTimeMillis()) == null) {
+            TimingWheel.SHARED.schedule(SESSION_IDLE_TIMEOUT_MILLIS, () -> expireSession(clientIP));
+        }
+    }
+
+    /**
+     * Runs on the timing wheel. Requests only record when they were seen; instead of moving the timer on every
+     * request, it is checked once the timeout could have passed and pushed back by the time still left.
+     */
+    private static void expireSession(String clientIP) {
+        Long lastSeen = sessionLastSeen.get(clientIP);
+        if (lastSeen == null) {
+            return;
+        }
+        long idle = TimingWheel.SHARED.currentTimeMillis() - lastSeen;
+        if (idle >= SESSION_IDLE_TIMEOUT_MILLIS) {
+            clientTokens.remove(clientIP);
+            sessionLastSeen.remove(clientIP);
+        } else {
+            TimingWheel.SHARED.schedule(SESSION_IDLE_TIMEOUT_MILLIS - idle, () -> expireSession(clientIP));
+        }
+    }
+
     private String extractTokenFromRequestBody(String requestBody) {
         for (String param : requestBody.split("&")) { // Split request body by "&" to extract parameters and values separately
             String[] pair = param.split("=");
@@ -496,7 +758,7 @@ public class ServerHandler extends Thread {
     private String extractMethod(String firstLine) {
         int firstSpace = firstLine.indexOf(' ');
         if (firstSpace == -1) {
-            appendToLog("Invalid request header, no method found: " + firstLine);
+            appendToLog(LogBuffer.Level.WARN, "Invalid request header, no method found: " + firstLine);
             return "INVALID";
         }
         return firstLine.substring(0, firstSpace); // Extract method from request line
@@ -511,10 +773,11 @@ public class ServerHandler extends Thread {
                 + "Content-Type: text/html; charset=UTF-8\r\n\r\n" + html;
         try {
             clientOutput.writeBytes(response); // Send unauthorized response with HTML
+            responseStatus = 401;
         } catch (IOException e) {
-            appendToLog("Failed to send unauthorized response: " + e.getMessage());
+            appendToLog(LogBuffer.Level.ERROR, "Failed to send unauthorized response: " + e.getMessage());
         }
-        appendToLog("Unauthorized access attempt to domain: " + domain);
+        appendToLog(LogBuffer.Level.WARN, "Unauthorized access attempt to domain: " + domain);
     }
 
     private void sendUnauthorizedResponseMinimal() {
@@ -526,7 +789,7 @@ public class ServerHandler extends Thread {
             clientOutput.writeBytes(response); // Send minimal unauthorized response
             clientOutput.flush();
         } catch (IOException e) {
-            appendToLog("Failed to send unauthorized response: " + e.getMessage());
+            appendToLog(LogBuffer.Level.ERROR, "Failed to send unauthorized response: " + e.getMessage());
         }
     }
 
@@ -538,7 +801,7 @@ public class ServerHandler extends Thread {
         try {
             clientOutput.writeBytes(response); // Send error response
         } catch (IOException e) {
-            appendToLog("Failed to send error response: " + e.getMessage());
+            appendToLog(LogBuffer.Level.ERROR, "Failed to send error response: " + e.getMessage());
         }
     }
 
@@ -546,7 +809,7 @@ public class ServerHandler extends Thread {
         int firstSpace = firstLine.indexOf(' ');
         int secondSpace = firstLine.indexOf(' ', firstSpace + 1);
         if (firstSpace == -1 || secondSpace == -1) {
-            appendToLog("Invalid request header, cannot extract path: " + firstLine);
+            appendToLog(LogBuffer.Level.WARN, "Invalid request header, cannot extract path: " + firstLine);
             return "";
         }
         String url = firstLine.substring(firstSpace + 1, secondSpace);
@@ -554,7 +817,7 @@ public class ServerHandler extends Thread {
             URL parsedUrl = new URL(url);
             return parsedUrl.getFile(); // Return the path part of the URL
         } catch (MalformedURLException e) {
-            appendToLog("Malformed URL in request line: " + url);
+            appendToLog(LogBuffer.Level.WARN, "Malformed URL in request line: " + url);
             return "";
         }
     }
@@ -569,12 +832,65 @@ public class ServerHandler extends Thread {
     private String readRestOfHeader() throws IOException {
         StringBuilder header = new StringBuilder();
         String line;
-        while ((line = clientInput.readLine()) != null && !line.isEmpty()) { // Read the rest of the HTTP header
+        while ((line = readClientLine()) != null && !line.isEmpty()) { // Read the rest of the HTTP header
             header.append(line).append("\r\n");
         }
         return header.toString();
     }
 
+    private String readClientLine() throws IOException {
+        return HttpResponseHead.readLine(clientInput);
+    }
+
+    /**
+     * Reads the request body framed by Content-Length or chunked encoding (kept encoded for forwarding).
+     */
+    private byte[] readRequestBody(String headers) throws IOException {
+        String transferEncoding = extractHeader(headers, "Transfer-Encoding");
+        if (transferEncoding != null && transferEncoding.toLowerCase(Locale.ROOT).endsWith("chunked")) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            HttpResponseHead.copyChunked(clientInput, body);
+            return body.toByteArray();
+        }
+        String contentLength = extractHeader(headers, "Content-Length");
+        if (contentLength == null) {
+            return new byte[0];
+        }
+        int length;
+        try {
+            length = Integer.parseInt(contentLength.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid Content-Length: " + contentLength);
+        }
+        byte[] body = clientInput.readNBytes(length);
+        if (body.length < length) {
+            throw new EOFException("Client closed the connection inside the request body");
+        }
+        return body;
+    }
+
+    private boolean isKeepAliveRequested(String firstLine, String headers) {
+        String connectionHeader = extractHeader(headers, "Connection");
+        if (connectionHeader == null) {
+            connectionHeader = extractHeader(headers, "Proxy-Connection");
+        }
+        String value = connectionHeader == null ? "" : connectionHeader.toLowerCase(Locale.ROOT);
+        if (firstLine.endsWith("HTTP/1.0")) {
+            return value.contains("keep-alive"); // HTTP/1.0 closes unless asked otherwise
+        }
+        return !value.contains("close");
+    }
+
+    private String extractHeader(String headers, String name) {
+        for (String line : headers.split("\r\n")) {
+            int colonPos = line.indexOf(':');
+            if (colonPos != -1 && line.substring(0, colonPos).trim().equalsIgnoreCase(name)) {
+                return line.substring(colonPos + 1).trim();
+            }
+        }
+        return null;
+    }
+
     private String extractHost(String headers) {
         String[] lines = headers.split("\r\n");
         for (String line : lines) {
@@ -586,25 +902,88 @@ public class ServerHandler extends Thread {
     }
 
     private void appendToLog(String message) {
-        Platform.runLater(() -> logTextArea.appendText(message + "\n")); // Append messages to log
+        log.info(message); // Picked up by the log view on its next frame
+    }
+
+    private void appendToLog(LogBuffer.Level level, String message) {
+        log.log(level, message);
     }
 
     private void logRequest(String domain, String resourcePath, String method, int statusCode) {
         RequestLogEntry logEntry = new RequestLogEntry(new Date(), connection.getInetAddress().getHostAddress(), domain, resourcePath, method, statusCode, customer);
-        try {
-            logEntry.saveToDatabase(); // Save log entry to database
-        } catch (SQLException e) {
-            System.out.println("Error saving log entry: " + e.getMessage());
+        requestLog.log(logEntry); // Written to the database in the background
+    }
+
+    /**
+     * Counts the request just answered, with the bytes sent to the client since {@code bytesBefore}.
+     */
+    private void recordTraffic(String domain, long bytesBefore) {
+        if (traffic != null) {
+            traffic.record(customer.getId(), connection.getInetAddress().getHostAddress(), domain, responseStatus, clientBytes.getCount() - bytesBefore);
         }
     }
 
     private void closeResources() {
+        if (tunnelHandedOff) {
+            return; // The tunnel engine closes the connection when the tunnel ends
+        }
+        try {
+            if (clientOutput != null && !connection.isClosed()) {
+                clientOutput.flush(); // Push any response still sitting in the output buffer
+            }
+        } catch (IOException e) {
+            appendToLog(LogBuffer.Level.ERROR, "Failed to flush response: " + e.getMessage());
+        }
         try {
             if (connection != null && !connection.isClosed()) {
                 connection.close(); // Close the client connection
             }
         } catch (IOException e) {
-            appendToLog("Failed to close connection: " + e.getMessage());
+            appendToLog(LogBuffer.Level.ERROR, "Failed to close connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Picks where the body of a final response goes once its head is known.
+     */
+    interface ResponseSink {
+        OutputStream open(HttpResponseHead head) throws IOException;
+
+        /**
+         * Receives a 1xx response that came ahead of the final one; dropped unless overridden.
+         */
+        default void interim(HttpResponseHead head) throws IOException {
+        }
+    }
+
+    /**
+     * Counts the bytes written through it, so a request's response size is known without parsing it.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        void addCount(long bytes) {
+            count += bytes;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
         }
     }
 }
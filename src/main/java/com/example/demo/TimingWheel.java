@@ -0,0 +1,225 @@
+package com.example.demo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hierarchical timing wheel running timeouts on a single daemon thread.
+ * Four wheels of 64 slots cover 64, 64^2, 64^3 and 64^4 ticks; scheduling and cancelling are O(1), a timeout
+ * is moved down a wheel when its slot comes up, and all timeouts of a tick run as one batch. Scheduling from
+ * other threads only appends to a queue that the wheel thread drains every tick.
+ * The wheel also keeps a coarse clock, updated once per tick, for hot paths that need the time but not to the
+ * millisecond.
+ */
+public class TimingWheel {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 4;
+    private static final long MAX_TICKS = 1L << (SLOT_BITS * LEVELS);
+
+    /**
+     * Shared by the cache, client sessions and the upstream pool, ticking every {@code proxy.timer.tickMillis}
+     * (default 100 ms).
+     */
+    public static final TimingWheel SHARED = start(Long.getLong("proxy.timer.tickMillis", 100L));
+
+    private final long tickMillis;
+    private final long startMillis;
+    private final Slot[][] wheels = new Slot[LEVELS][SLOTS]; // Wheel thread only
+    private final Queue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private long currentTick; // Wheel thread only
+    private volatile long now;
+    private final Thread worker;
+    private volatile boolean shutdown;
+
+    private TimingWheel(long tickMillis) {
+        this.tickMillis = Math.max(1, tickMillis);
+        this.startMillis = System.currentTimeMillis();
+        this.now = startMillis;
+        for (Slot[] wheel : wheels) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                wheel[slot] = new Slot();
+            }
+        }
+        this.worker = new Thread(this::run, "timing-wheel");
+        worker.setDaemon(true);
+    }
+
+    /**
+     * Creates a wheel ticking every {@code tickMillis} and starts its thread.
+     */
+    public static TimingWheel start(long tickMillis) {
+        TimingWheel wheel = new TimingWheel(tickMillis);
+        wheel.worker.start();
+        return wheel;
+    }
+
+    /**
+     * Runs {@code task} on the wheel thread once {@code delayMillis} have passed, rounded up to the next tick.
+     * Tasks must be short; anything slow should be handed to another thread.
+     */
+    public Timeout schedule(long delayMillis, Runnable task) {
+        long deadline = System.currentTimeMillis() + Math.max(0, delayMillis);
+        Timeout timeout = new Timeout(Math.max(1, (deadline - startMillis + tickMillis - 1) / tickMillis), task);
+        pending.incrementAndGet();
+        incoming.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Wall-clock time as of the last tick, at most one tick behind {@link System#currentTimeMillis()}.
+     */
+    public long currentTimeMillis() {
+        return now;
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    /**
+     * Timeouts scheduled and neither run nor cancelled yet.
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Stops the wheel thread; timeouts still pending never run.
+     */
+    public void shutdown() {
+        shutdown = true;
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (!shutdown) {
+            long nextTickAt = startMillis + (currentTick + 1) * tickMillis;
+            long sleep = nextTickAt - System.currentTimeMillis();
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            now = System.currentTimeMillis();
+            long targetTick = (now - startMillis) / tickMillis;
+            while (currentTick < targetTick) { // Catch up if the thread was held up
+                tick();
+            }
+        }
+    }
+
+    private void tick() {
+        Timeout timeout;
+        while ((timeout = incoming.poll()) != null) {
+            place(timeout);
+        }
+        currentTick++;
+        for (int level = 1; level < LEVELS && (currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0; level++) {
+            cascade(level); // This slot's span has started, spread its timeouts over the finer wheels
+        }
+        Slot due = wheels[0][(int) (currentTick & (SLOTS - 1))];
+        if (due.timeouts.isEmpty()) {
+            return;
+        }
+        for (Timeout expired : due.takeAll()) {
+            expire(expired);
+        }
+    }
+
+    private void cascade(int level) {
+        int slot = (int) ((currentTick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+        for (Timeout timeout : wheels[level][slot].takeAll()) {
+            place(timeout);
+        }
+    }
+
+    private void place(Timeout timeout) {
+        if (timeout.isCancelled()) {
+            return; // Its pending count was already given back
+        }
+        long delta = timeout.deadlineTick - currentTick;
+        if (delta <= 0) {
+            expire(timeout);
+            return;
+        }
+        long tick = delta < MAX_TICKS ? timeout.deadlineTick : currentTick + MAX_TICKS - 1; // Farther out: park, placed again later
+        int level = 0;
+        while (level < LEVELS - 1 && tick - currentTick >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        wheels[level][(int) ((tick >>> (SLOT_BITS * level)) & (SLOTS - 1))].timeouts.add(timeout);
+    }
+
+    private void expire(Timeout timeout) {
+        if (!timeout.claim()) {
+            return; // Cancelled
+        }
+        pending.decrementAndGet();
+        try {
+            timeout.task.run();
+        } catch (RuntimeException e) {
+            System.out.println("Timer task failed: " + e);
+        }
+    }
+
+    /**
+     * Handle to a scheduled task.
+     */
+    public final class Timeout {
+        private static final int WAITING = 0;
+        private static final int RUN = 1;
+        private static final int CANCELLED = 2;
+
+        private final long deadlineTick;
+        private final Runnable task;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+
+        private Timeout(long deadlineTick, Runnable task) {
+            this.deadlineTick = deadlineTick;
+            this.task = task;
+        }
+
+        /**
+         * Stops the task from running. Returns {@code false} if it has already run or been cancelled.
+         * The timeout itself is dropped from the wheel when its slot comes up.
+         */
+        public boolean cancel() {
+            if (state.compareAndSet(WAITING, CANCELLED)) {
+                pending.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        private boolean claim() {
+            return state.compareAndSet(WAITING, RUN);
+        }
+    }
+
+    /**
+     * The timeouts in one slot of one wheel.
+     */
+    private static final class Slot {
+        List<Timeout> timeouts = new ArrayList<>();
+
+        /**
+         * Empties the slot, returning what was in it; timeouts placed while the result is walked go to a new list.
+         */
+        List<Timeout> takeAll() {
+            List<Timeout> taken = timeouts;
+            timeouts = new ArrayList<>();
+            return taken;
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package com.example.demo;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Per-client traffic totals kept in memory and added to {@code traffic_rollup} every {@code flushMillis}, so
+ * dashboard reports read a few pre-aggregated rows instead of scanning {@code request_logs}. Counters are keyed
+ * by (customer, client IP, domain, time bucket) and are {@link LongAdder}s, so handler threads recording the
+ * same key never contend on a lock or a single memory word.
+ * A flush takes each counter's value with {@link LongAdder#sumThenReset}, which loses no concurrent increment:
+ * one that misses this flush is picked up by the next. Counters of a bucket that has ended are retired before
+ * their last flush: recorders already adding finish first, and a recorder that finds them retired puts a new
+ * counter in their place, flushed the next time. If the database write fails, the values are added back and go
+ * out with the next flush.
+ */
+public class TrafficRollup {
+    private static final String UPSERT_SQL = "INSERT INTO traffic_rollup (bucket, client_ip, domain, customer_id, requests, bytes, status_2xx, status_3xx, status_4xx, status_5xx) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?) ON CONFLICT (bucket, client_ip, domain, customer_id) DO UPDATE SET "
+            + "requests = traffic_rollup.requests + EXCLUDED.requests, bytes = traffic_rollup.bytes + EXCLUDED.bytes, "
+            + "status_2xx = traffic_rollup.status_2xx + EXCLUDED.status_2xx, status_3xx = traffic_rollup.status_3xx + EXCLUDED.status_3xx, "
+            + "status_4xx = traffic_rollup.status_4xx + EXCLUDED.status_4xx, status_5xx = traffic_rollup.status_5xx + EXCLUDED.status_5xx";
+    private static final int STATUS_CLASSES = 4; // 2xx to 5xx; other codes only count as requests
+
+    private final long bucketMillis;
+    private final long flushNanos;
+    private final Map<Key, Counters> counters = new ConcurrentHashMap<>();
+    private final Thread flusher;
+    private final JdbcConnectionPool.ConnectionFactory connections;
+    private final LongAdder flushed = new LongAdder();
+    private volatile boolean tableCreated;
+    private volatile boolean shutdown;
+
+    private TrafficRollup(long bucketMillis, long flushMillis, JdbcConnectionPool.ConnectionFactory connections) {
+        this.bucketMillis = Math.max(1000, bucketMillis);
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushMillis));
+        this.connections = connections;
+        this.flusher = new Thread(this::run, "traffic-rollup");
+        flusher.setDaemon(true);
+    }
+
+    /**
+     * Creates a rollup and starts its periodic flush.
+     */
+    public static TrafficRollup start(long bucketMillis, long flushMillis) {
+        return start(bucketMillis, flushMillis, DatabaseConnection::getConnection);
+    }
+
+    /**
+     * Creates a rollup that flushes over connections from {@code connections} rather than {@link DatabaseConnection}.
+     */
+    static TrafficRollup start(long bucketMillis, long flushMillis, JdbcConnectionPool.ConnectionFactory connections) {
+        TrafficRollup rollup = new TrafficRollup(bucketMillis, flushMillis, connections);
+        rollup.flusher.start(); // Only once the rollup is fully constructed
+        return rollup;
+    }
+
+    /**
+     * Builds the rollup from {@code proxy.rollup.bucketMillis} (default one hour) and
+     * {@code proxy.rollup.flushMillis} (default one minute).
+     */
+    public static TrafficRollup fromSystemProperties() {
+        return start(Long.getLong("proxy.rollup.bucketMillis", 60 * 60_000L), Long.getLong("proxy.rollup.flushMillis", 60_000L));
+    }
+
+    /**
+     * Counts one answered request. Called on the request path; never blocks.
+     */
+    public void record(int customerId, String clientIP, String domain, int statusCode, long bytes) {
+        long bucket = System.currentTimeMillis() / bucketMillis * bucketMillis;
+        Key key = new Key(bucket, clientIP == null ? "" : clientIP, domain == null ? "" : domain.toLowerCase(Locale.ROOT), customerId);
+        while (true) {
+            Counters keyCounters = counters.computeIfAbsent(key, k -> new Counters());
+            if (keyCounters.add(1, bytes, statusCode)) {
+                return;
+            }
+            counters.remove(key, keyCounters); // Retired by a flush, start a new one
+        }
+    }
+
+    /**
+     * Writes out everything counted so far, on the calling thread; reports call it so they include the latest
+     * traffic.
+     */
+    public void flush() {
+        synchronized (this) { // One flush at a time, or a late one could re-add counts the other already wrote
+            List<Delta> deltas = collect();
+            if (deltas.isEmpty()) {
+                return;
+            }
+            try {
+                write(deltas);
+                flushed.add(deltas.size());
+            } catch (SQLException | RuntimeException e) {
+                System.out.println("Error saving " + deltas.size() + " traffic rollup rows, keeping them for the next flush: " + e.getMessage());
+                for (Delta delta : deltas) {
+                    Counters keyCounters = counters.computeIfAbsent(delta.key, k -> new Counters());
+                    while (!keyCounters.add(delta.requests, delta.bytes, delta.statusCounts)) {
+                        counters.remove(delta.key, keyCounters);
+                        keyCounters = counters.computeIfAbsent(delta.key, k -> new Counters());
+                    }
+                }
+            }
+        }
+    }
+
+    public String getStatistics() {
+        return "Traffic rollup: " + counters.size() + " keys in memory, " + flushed.sum() + " rows flushed";
+    }
+
+    /**
+     * Stops the periodic flush and writes out what is left.
+     */
+    public void shutdown(long timeoutMillis) throws InterruptedException {
+        shutdown = true;
+        LockSupport.unpark(flusher);
+        flusher.join(timeoutMillis);
+    }
+
+    private void run() {
+        while (!shutdown) {
+            LockSupport.parkNanos(flushNanos);
+            flush();
+        }
+        flush();
+    }
+
+    private List<Delta> collect() {
+        long currentBucket = System.currentTimeMillis() / bucketMillis * bucketMillis;
+        List<Delta> deltas = new ArrayList<>();
+        for (Map.Entry<Key, Counters> entry : counters.entrySet()) {
+            Counters taken = entry.getValue();
+            if (entry.getKey().bucket < currentBucket) {
+                taken.retire(); // Last flush of an ended bucket: nothing can be added once this returns
+                counters.remove(entry.getKey(), taken); // Only if a recorder hasn't replaced it already
+            }
+            Delta delta = taken.take(entry.getKey());
+            if (!delta.isEmpty()) { // Not just requests: a flush racing an add can take its request but not its status
+                deltas.add(delta);
+            }
+        }
+        return deltas;
+    }
+
+    private void write(List<Delta> deltas) throws SQLException {
+        try (Connection connection = connections.open()) {
+            if (!tableCreated) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("CREATE TABLE IF NOT EXISTS traffic_rollup (bucket TIMESTAMP NOT NULL, client_ip TEXT NOT NULL, domain TEXT NOT NULL, "
+                            + "customer_id INT NOT NULL, requests BIGINT NOT NULL, bytes BIGINT NOT NULL, status_2xx BIGINT NOT NULL, status_3xx BIGINT NOT NULL, "
+                            + "status_4xx BIGINT NOT NULL, status_5xx BIGINT NOT NULL, PRIMARY KEY (bucket, client_ip, domain, customer_id))");
+                }
+                tableCreated = true;
+            }
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(UPSERT_SQL)) {
+                for (Delta delta : deltas) {
+                    statement.setTimestamp(1, new Timestamp(delta.key.bucket));
+                    statement.setString(2, delta.key.clientIP);
+                    statement.setString(3, delta.key.domain);
+                    statement.setInt(4, delta.key.customerId);
+                    statement.setLong(5, delta.requests);
+                    statement.setLong(6, delta.bytes);
+                    for (int i = 0; i < STATUS_CLASSES; i++) {
+                        statement.setLong(7 + i, delta.statusCounts[i]);
+                    }
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * The busiest domains since {@code since}, for one client or all of them when {@code clientIP} is
+     * {@code null}, most requests first.
+     */
+    public static List<DomainTraffic> topDomains(String clientIP, Date since, int limit) throws SQLException {
+        String sql = "SELECT domain, SUM(requests) AS requests, SUM(bytes) AS bytes, SUM(status_2xx) AS status_2xx, SUM(status_3xx) AS status_3xx, "
+                + "SUM(status_4xx) AS status_4xx, SUM(status_5xx) AS status_5xx FROM traffic_rollup WHERE bucket >= ?"
+                + (clientIP != null ? " AND client_ip = ?" : "")
+                + " GROUP BY domain ORDER BY requests DESC LIMIT ?";
+        List<DomainTraffic> result = new ArrayList<>();
+        try (Connection connection = DatabaseConnection.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            int index = 1;
+            statement.setTimestamp(index++, new Timestamp(since.getTime()));
+            if (clientIP != null) {
+                statement.setString(index++, clientIP);
+            }
+            statement.setInt(index, limit);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    result.add(new DomainTraffic(resultSet.getString("domain"), resultSet.getLong("requests"), resultSet.getLong("bytes"),
+                            new long[]{resultSet.getLong("status_2xx"), resultSet.getLong("status_3xx"), resultSet.getLong("status_4xx"), resultSet.getLong("status_5xx")}));
+                }
+            }
+        } catch (SQLException e) {
+            if ("42P01".equals(e.getSQLState())) {
+                return result; // Nothing flushed yet, the table doesn't exist
+            }
+            throw e;
+        }
+        return result;
+    }
+
+    private static int statusClass(int statusCode) {
+        return statusCode / 100 - 2; // 2xx is 0
+    }
+
+    private static final class Key {
+        final long bucket;
+        final String clientIP;
+        final String domain;
+        final int customerId;
+
+        Key(long bucket, String clientIP, String domain, int customerId) {
+            this.bucket = bucket;
+            this.clientIP = clientIP;
+            this.domain = domain;
+            this.customerId = customerId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return bucket == other.bucket && customerId == other.customerId && clientIP.equals(other.clientIP) && domain.equals(other.domain);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(bucket, clientIP, domain, customerId);
+        }
+    }
+
+    private static final class Counters {
+        private static final int RETIRED = Integer.MIN_VALUE; // Sign bit of state, the rest counts adds in progress
+
+        final AtomicInteger state = new AtomicInteger();
+        final LongAdder requests = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder[] statusCounts = new LongAdder[STATUS_CLASSES];
+
+        Counters() {
+            for (int i = 0; i < STATUS_CLASSES; i++) {
+                statusCounts[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Returns {@code false}, adding nothing, once the counters are retired.
+         */
+        boolean add(long requestCount, long byteCount, int statusCode) {
+            if (!enter()) {
+                return false;
+            }
+            requests.add(requestCount);
+            bytes.add(byteCount);
+            int statusClass = statusClass(statusCode);
+            if (statusClass >= 0 && statusClass < STATUS_CLASSES) {
+                statusCounts[statusClass].add(requestCount);
+            }
+            state.decrementAndGet();
+            return true;
+        }
+
+        boolean add(long requestCount, long byteCount, long[] statusCountValues) {
+            if (!enter()) {
+                return false;
+            }
+            requests.add(requestCount);
+            bytes.add(byteCount);
+            for (int i = 0; i < STATUS_CLASSES; i++) {
+                statusCounts[i].add(statusCountValues[i]);
+            }
+            state.decrementAndGet();
+            return true;
+        }
+
+        private boolean enter() {
+            int current;
+            do {
+                current = state.get();
+                if (current < 0) {
+                    return false;
+                }
+            } while (!state.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        /**
+         * Refuses further adds and waits for the ones in progress, which take a few nanoseconds.
+         */
+        void retire() {
+            state.getAndAdd(RETIRED);
+            while (state.get() != RETIRED) {
+                Thread.onSpinWait();
+            }
+        }
+
+        Delta take(Key key) {
+            long[] statusCountValues = new long[STATUS_CLASSES];
+            for (int i = 0; i < STATUS_CLASSES; i++) {
+                statusCountValues[i] = statusCounts[i].sumThenReset();
+            }
+            return new Delta(key, requests.sumThenReset(), bytes.sumThenReset(), statusCountValues);
+        }
+    }
+
+    private static final class Delta {
+        final Key key;
+        final long requests;
+        final long bytes;
+        final long[] statusCounts;
+
+        Delta(Key key, long requests, long bytes, long[] statusCounts) {
+            this.key = key;
+            this.requests = requests;
+            this.bytes = bytes;
+            this.statusCounts = statusCounts;
+        }
+
+        boolean isEmpty() {
+            if (requests != 0 || bytes != 0) {
+                return false;
+            }
+            for (long count : statusCounts) {
+                if (count != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * One row of {@link #topDomains}.
+     */
+    public static final class DomainTraffic {
+        private final String domain;
+        private final long requests;
+        private final long bytes;
+        private final long[] statusCounts;
+
+        DomainTraffic(String domain, long requests, long bytes, long[] statusCounts) {
+            this.domain = domain;
+            this.requests = requests;
+            this.bytes = bytes;
+            this.statusCounts = statusCounts;
+        }
+
+        public String getDomain() {
+            return domain;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Requests answered with a status code in {@code hundreds}xx, for 2 to 5.
+         */
+        public long getStatusCount(int hundreds) {
+            return statusCounts[hundreds - 2];
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non-blocking relay for established CONNECT tunnels.
+ * Once a handler has completed the CONNECT handshake it hands both channels to the engine, which pumps bytes
+ * on a small fixed set of selector threads. Each direction has one fixed-size buffer; while that buffer holds
+ * unwritten bytes the source channel is not read (read interest is dropped and write interest is set on the
+ * destination), so a slow peer never causes unbounded buffering.
+ */
+public class TunnelEngine {
+    private static final int TUNNEL_BUFFER_SIZE = 16 * 1024; // Per direction
+    private static final long SHUTDOWN_POLL_MILLIS = 500;
+
+    private final EventLoop[] eventLoops;
+    private final Thread[] loopThreads;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final AtomicInteger activeTunnels = new AtomicInteger();
+    private final AtomicLong bytesRelayed = new AtomicLong();
+    private volatile boolean shuttingDown = false;
+
+    private TunnelEngine(int threads) throws IOException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        eventLoops = new EventLoop[threads];
+        loopThreads = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            eventLoops[i] = new EventLoop(Selector.open());
+            loopThreads[i] = new Thread(eventLoops[i], "tunnel-loop-" + i);
+            loopThreads[i].setDaemon(true);
+        }
+    }
+
+    /**
+     * Creates an engine with {@code threads} selector threads and starts them.
+     */
+    public static TunnelEngine start(int threads) throws IOException {
+        TunnelEngine engine = new TunnelEngine(threads);
+        for (Thread thread : engine.loopThreads) {
+            thread.start(); // Only once the engine is fully constructed
+        }
+        return engine;
+    }
+
+    /**
+     * Returns an engine when {@code -Dproxy.tunnelEngine=nio} is set, otherwise {@code null} so handlers keep
+     * relaying tunnels with blocking streams. {@code proxy.tunnelThreads} sets the number of selector threads.
+     */
+    public static TunnelEngine fromSystemProperties() throws IOException {
+        if (!"nio".equalsIgnoreCase(System.getProperty("proxy.tunnelEngine"))) {
+            return null;
+        }
+        int defaultThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+        return start(Integer.getInteger("proxy.tunnelThreads", defaultThreads));
+    }
+
+    /**
+     * Takes ownership of both channels of an established tunnel. They are switched to non-blocking mode and
+     * closed by the engine once both directions have finished.
+     */
+    public void register(SocketChannel client, SocketChannel server) throws IOException {
+        if (shuttingDown) {
+            throw new IOException("Tunnel engine is shut down");
+        }
+        client.configureBlocking(false);
+        server.configureBlocking(false);
+        activeTunnels.incrementAndGet();
+        EventLoop loop = eventLoops[Math.floorMod(nextLoop.getAndIncrement(), eventLoops.length)];
+        Tunnel tunnel = new Tunnel(client, server);
+        loop.pending.add(tunnel);
+        if (shuttingDown && loop.pending.remove(tunnel)) { // The loop may have exited since the first check
+            tunnel.close();
+            throw new IOException("Tunnel engine is shut down");
+        }
+        loop.selector.wakeup();
+    }
+
+    public int getActiveTunnels() {
+        return activeTunnels.get();
+    }
+
+    public long getBytesRelayed() {
+        return bytesRelayed.get();
+    }
+
+    /**
+     * Refuses new tunnels; each selector thread exits once its existing tunnels have closed.
+     */
+    public void shutdown() {
+        shuttingDown = true; // Set before the wakeup, so a woken loop sees it
+        for (EventLoop loop : eventLoops) {
+            loop.selector.wakeup();
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Tunnel> pending = new ConcurrentLinkedQueue<>(); // Tunnels waiting to be registered
+
+        private EventLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!(shuttingDown && pending.isEmpty() && selector.keys().isEmpty())) {
+                    // Once shutting down, poll: keys of closed tunnels only leave keys() on the next select
+                    selector.select(shuttingDown ? SHUTDOWN_POLL_MILLIS : 0);
+                    registerPending();
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        Tunnel tunnel = (Tunnel) key.attachment();
+                        if (key.isValid()) {
+                            tunnel.pump();
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                e.printStackTrace();
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    ((Tunnel) key.attachment()).close();
+                }
+                Tunnel tunnel;
+                while ((tunnel = pending.poll()) != null) { // Added after the loop's last check; whoever polls it closes it
+                    tunnel.close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private void registerPending() {
+            Tunnel tunnel;
+            while ((tunnel = pending.poll()) != null) {
+                try {
+                    tunnel.clientKey = tunnel.client.register(selector, SelectionKey.OP_READ, tunnel);
+                    tunnel.serverKey = tunnel.server.register(selector, SelectionKey.OP_READ, tunnel);
+                } catch (IOException e) {
+                    tunnel.close();
+                }
+            }
+        }
+    }
+
+    private final class Tunnel {
+        private final SocketChannel client;
+        private final SocketChannel server;
+        // Both buffers stay in fill mode: position() is the number of bytes waiting to be written
+        private final ByteBuffer clientToServer = BufferPool.DIRECT.acquire(TUNNEL_BUFFER_SIZE);
+        private final ByteBuffer serverToClient = BufferPool.DIRECT.acquire(TUNNEL_BUFFER_SIZE);
+        private SelectionKey clientKey;
+        private SelectionKey serverKey;
+        private boolean clientEof;
+        private boolean serverEof;
+        private boolean closed;
+
+        private Tunnel(SocketChannel client, SocketChannel server) {
+            this.client = client;
+            this.server = server;
+        }
+
+        private void pump() {
+            try {
+                clientEof = transfer(client, clientToServer, server, clientEof);
+                serverEof = transfer(server, serverToClient, client, serverEof);
+                if (clientEof && serverEof && clientToServer.position() == 0 && serverToClient.position() == 0) {
+                    close(); // Both directions finished and fully flushed
+                    return;
+                }
+                clientKey.interestOps(interest(clientEof, clientToServer, serverToClient));
+                serverKey.interestOps(interest(serverEof, serverToClient, clientToServer));
+            } catch (IOException e) {
+                close(); // Reset or broken pipe on either side ends the tunnel
+            }
+        }
+
+        /**
+         * Moves bytes from {@code source} to {@code destination} through {@code buffer} and returns the source's
+         * end-of-stream state. Reads only while the buffer has room; the destination gets a write attempt every time.
+         */
+        private boolean transfer(SocketChannel source, ByteBuffer buffer, SocketChannel destination, boolean sourceEof) throws IOException {
+            if (!sourceEof && buffer.hasRemaining()) {
+                int read = source.read(buffer);
+                if (read == -1) {
+                    sourceEof = true;
+                }
+            }
+            if (buffer.position() > 0) {
+                buffer.flip();
+                bytesRelayed.addAndGet(destination.write(buffer));
+                buffer.compact();
+            }
+            if (sourceEof && buffer.position() == 0 && !destination.socket().isOutputShutdown()) {
+                destination.shutdownOutput(); // Propagate the half-close once everything was delivered
+            }
+            return sourceEof;
+        }
+
+        private int interest(boolean eof, ByteBuffer outgoing, ByteBuffer incoming) {
+            int ops = 0;
+            if (!eof && outgoing.position() == 0) {
+                ops |= SelectionKey.OP_READ; // Only read again once the previous chunk was written out
+            }
+            if (incoming.position() > 0) {
+                ops |= SelectionKey.OP_WRITE; // The peer's bytes are still waiting for this channel
+            }
+            return ops;
+        }
+
+        private void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            activeTunnels.decrementAndGet();
+            BufferPool.DIRECT.release(clientToServer);
+            BufferPool.DIRECT.release(serverToClient);
+            try {
+                client.close();
+            } catch (IOException ignored) {
+                // Already broken
+            }
+            try {
+                server.close();
+            } catch (IOException ignored) {
+                // Already broken
+            }
+        }
+    }
+}
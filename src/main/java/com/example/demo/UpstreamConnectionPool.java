@@ -0,0 +1,180 @@
+package com.example.demo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keep-alive connections to origin servers, pooled per host:port.
+ * A connection is only returned to the pool after its response has been read up to the framing boundary;
+ * idle connections are closed by the shared {@link TimingWheel} after {@code idleTimeoutMillis}, and at most {@code maxPerHost} connections to the
+ * same origin are open (idle or in use) at any time. A read that waits longer than {@code readTimeoutMillis} for
+ * the origin fails, so a stalled origin can't hold a handler, and the followers or refresh it serves, forever.
+ */
+public class UpstreamConnectionPool {
+    private static final int CONNECT_TIMEOUT_MILLIS = 10_000;
+    private static final int ACQUIRE_TIMEOUT_MILLIS = 30_000;
+
+    private final int maxPerHost;
+    private final long idleTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final Map<String, HostPool> hostPools = new ConcurrentHashMap<>();
+    private final AtomicLong connectionsOpened = new AtomicLong();
+    private final AtomicLong connectionsReused = new AtomicLong();
+    private volatile boolean closed = false;
+
+    public UpstreamConnectionPool(int maxPerHost, long idleTimeoutMillis, int readTimeoutMillis) {
+        this.maxPerHost = maxPerHost;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Builds the pool from {@code proxy.upstream.maxPerHost} (default 8),
+     * {@code proxy.upstream.idleTimeoutMillis} (default 30 s) and {@code proxy.upstream.readTimeoutMillis}
+     * (default 60 s, 0 waits forever).
+     */
+    public static UpstreamConnectionPool fromSystemProperties() {
+        return new UpstreamConnectionPool(Integer.getInteger("proxy.upstream.maxPerHost", 8),
+                Long.getLong("proxy.upstream.idleTimeoutMillis", 30_000L), Integer.getInteger("proxy.upstream.readTimeoutMillis", 60_000));
+    }
+
+    /**
+     * Returns an idle connection to the origin, or opens a new one. Blocks while the origin is at its connection limit.
+     */
+    public UpstreamConnection acquire(String host, int port) throws IOException {
+        if (closed) {
+            throw new IOException("Upstream connection pool is closed");
+        }
+        HostPool hostPool = hostPools.computeIfAbsent(host + ":" + port, key -> new HostPool());
+        try {
+            if (!hostPool.permits.tryAcquire(ACQUIRE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out waiting for a connection to " + host + ":" + port);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for a connection to " + host + ":" + port, e);
+        }
+        UpstreamConnection connection;
+        while ((connection = hostPool.idle.pollFirst()) != null) { // Most recently used first
+            connection.idleTimeout.cancel();
+            if (!connection.socket.isClosed()) {
+                connection.reused = true;
+                connectionsReused.incrementAndGet();
+                return connection;
+            }
+            connection.closeQuietly();
+        }
+        try {
+            Socket socket = new Socket();
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+            socket.setSoTimeout(readTimeoutMillis);
+            connectionsOpened.incrementAndGet();
+            return new UpstreamConnection(hostPool, socket);
+        } catch (IOException e) {
+            hostPool.permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Gives a connection back. It is kept for reuse only if {@code reusable} is true, i.e. its last response
+     * was read completely and the server did not ask to close it.
+     */
+    public void release(UpstreamConnection connection, boolean reusable) {
+        if (reusable && !closed && !connection.socket.isClosed()) {
+            connection.idleTimeout = TimingWheel.SHARED.schedule(idleTimeoutMillis, () -> evictIdle(connection));
+            connection.hostPool.idle.offerFirst(connection);
+        } else {
+            connection.closeQuietly();
+        }
+        connection.hostPool.permits.release();
+    }
+
+    public long getConnectionsOpened() {
+        return connectionsOpened.get();
+    }
+
+    public long getConnectionsReused() {
+        return connectionsReused.get();
+    }
+
+    /**
+     * Runs on the timing wheel once a connection has been idle for the idle timeout. Whoever takes the
+     * connection out of the idle deque first owns it, so one that was just acquired is left alone.
+     */
+    private void evictIdle(UpstreamConnection connection) {
+        if (connection.hostPool.idle.removeFirstOccurrence(connection)) {
+            connection.closeQuietly();
+        }
+    }
+
+    /**
+     * Closes all idle connections; connections currently in use are closed when they are released.
+     */
+    public void close() {
+        closed = true;
+        for (HostPool hostPool : hostPools.values()) {
+            UpstreamConnection connection;
+            while ((connection = hostPool.idle.pollFirst()) != null) {
+                connection.idleTimeout.cancel();
+                connection.closeQuietly();
+            }
+        }
+    }
+
+    private final class HostPool {
+        private final Semaphore permits = new Semaphore(maxPerHost); // Open connections, idle or in use
+        private final Deque<UpstreamConnection> idle = new ConcurrentLinkedDeque<>();
+    }
+
+    public static final class UpstreamConnection {
+        private final HostPool hostPool;
+        private final Socket socket;
+        private final InputStream input;
+        private final OutputStream output;
+        private volatile TimingWheel.Timeout idleTimeout; // Set while the connection sits in the idle deque
+        private boolean reused = false;
+
+        private UpstreamConnection(HostPool hostPool, Socket socket) throws IOException {
+            this.hostPool = hostPool;
+            this.socket = socket;
+            this.input = new BufferedInputStream(socket.getInputStream(), BufferPool.DEFAULT_BUFFER_SIZE);
+            this.output = new BufferedOutputStream(socket.getOutputStream(), BufferPool.DEFAULT_BUFFER_SIZE);
+        }
+
+        public InputStream getInput() {
+            return input;
+        }
+
+        public OutputStream getOutput() {
+            return output;
+        }
+
+        /**
+         * True when this connection already carried an earlier request, so the server may have closed it meanwhile.
+         */
+        public boolean isReused() {
+            return reused;
+        }
+
+        private void closeQuietly() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Nothing left to do with a broken connection
+            }
+        }
+    }
+}
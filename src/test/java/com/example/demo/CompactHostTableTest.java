@@ -0,0 +1,96 @@
+package com.example.demo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompactHostTableTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void matchesLikeTheTrie() throws IOException {
+        Random random = new Random(42);
+        List<String> rules = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            String domain = "host" + random.nextInt(2_000) + ".zone" + random.nextInt(50) + ".com";
+            rules.add(switch (i % 3) {
+                case 0 -> domain;
+                case 1 -> "*." + domain;
+                default -> "." + domain;
+            });
+        }
+        CompactHostTable table = CompactHostTable.build(rules, directory);
+        DomainTrie trie = DomainTrie.build(rules);
+
+        assertEquals(trie.size(), table.size());
+        for (int i = 0; i < 20_000; i++) {
+            String domain = "host" + random.nextInt(2_500) + ".zone" + random.nextInt(60) + ".com";
+            String host = random.nextBoolean() ? domain : "www." + domain;
+            assertEquals(trie.matches(host), table.matches(host), host);
+        }
+    }
+
+    @Test
+    void followsRuleForms() throws IOException {
+        CompactHostTable table = CompactHostTable.build(List.of("exact.com", "*.wild.com", ".dot.com"), directory);
+
+        assertTrue(table.matches("exact.com"));
+        assertTrue(table.matches("EXACT.com."));
+        assertFalse(table.matches("www.exact.com"));
+        assertTrue(table.matches("a.wild.com"));
+        assertFalse(table.matches("wild.com"));
+        assertTrue(table.matches("dot.com"));
+        assertTrue(table.matches("a.b.dot.com"));
+        assertFalse(table.matches("com"));
+        assertEquals(4, table.size());
+    }
+
+    @Test
+    void leavesNoFileBehind() throws IOException {
+        CompactHostTable.build(List.of("a.com"), directory);
+
+        try (var files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void overlaysChangesOnTheTable() throws IOException {
+        CompactHostTable table = CompactHostTable.build(List.of("a.com", ".b.com"), directory);
+
+        CompactHostTable changed = table.with("c.com").without("a.com").without("*.b.com");
+
+        assertTrue(changed.matches("c.com"));
+        assertFalse(changed.matches("a.com"));
+        assertTrue(changed.matches("b.com"));
+        assertFalse(changed.matches("x.b.com"));
+        assertEquals(2, changed.size());
+        assertTrue(table.matches("a.com"));
+        assertTrue(table.matches("x.b.com"));
+
+        CompactHostTable restored = changed.with("a.com").without("c.com");
+        assertTrue(restored.matches("a.com"));
+        assertFalse(restored.matches("c.com"));
+        assertTrue(restored.containsRule("a.com"));
+        assertEquals(2, restored.size());
+    }
+
+    @Test
+    void mergesDuplicateRules() throws IOException {
+        CompactHostTable table = CompactHostTable.build(List.of("a.com", "a.com", "*.a.com", ".a.com"), directory);
+
+        assertEquals(2, table.size());
+        assertTrue(table.containsRule(".a.com"));
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.demo;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DiskCacheTierTest {
+    private static final String A = "http://example.com/a";
+    private static final String B = "http://example.com/b";
+    private static final String C = "http://example.com/c";
+
+    private final OffHeapBodyStore store = new OffHeapBodyStore(1024 * 1024);
+    private DiskCacheTier tier;
+
+    @TempDir
+    Path directory;
+
+    @AfterEach
+    void shutdown() throws InterruptedException {
+        if (tier != null) {
+            tier.shutdown(2_000);
+        }
+    }
+
+    private DiskCacheTier reopen() throws InterruptedException {
+        if (tier != null) {
+            tier.shutdown(2_000);
+        }
+        tier = DiskCacheTier.open(directory, 64 * 1024, 1024 * 1024, 16);
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!tier.isReady() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(tier.isReady());
+        return tier;
+    }
+
+    private void put(String key, String body) throws IOException {
+        HttpResponseHead head = new HttpResponseHead("HTTP/1.1 200 OK", List.<String[]>of(new String[]{"ETag", "\"1\""}));
+        CachedResources value = new CachedResources(URI.create(key).toURL(), head,
+                store.copyOf(ByteBuffer.wrap(body.getBytes(StandardCharsets.ISO_8859_1))), 1, 2);
+        tier.put(key, value);
+        value.release();
+    }
+
+    private String body(String key) throws IOException {
+        CachedResources value = tier.get(key);
+        if (value == null) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            value.getBody().writeTo(out);
+            return out.toString(StandardCharsets.ISO_8859_1);
+        } finally {
+            value.release();
+        }
+    }
+
+    @Test
+    void keepsEntriesAcrossRestart() throws Exception {
+        reopen();
+        put(A, "first");
+        put(B, "second");
+        tier.flush();
+
+        reopen();
+
+        assertEquals("first", body(A));
+        assertEquals("second", body(B));
+        assertEquals(2, tier.size());
+        CachedResources value = tier.get(A);
+        assertEquals("\"1\"", value.getHead().getHeader("ETag"));
+        assertEquals(1, value.getRequestTime());
+        assertEquals(2, value.getResponseTime());
+        value.release();
+    }
+
+    @Test
+    void removalHidesEntryAtOnceAndSurvivesRestart() throws Exception {
+        reopen();
+        put(A, "first");
+        put(B, "second");
+        tier.flush();
+
+        tier.remove(A);
+        assertNull(body(A)); // Before the tombstone is written
+        tier.flush();
+        reopen();
+
+        assertNull(body(A));
+        assertEquals("second", body(B));
+        assertEquals(1, tier.size());
+    }
+
+    @Test
+    void putAfterRemovalWins() throws Exception {
+        reopen();
+        put(A, "first");
+        tier.remove(A);
+        put(A, "again");
+        tier.flush();
+
+        assertEquals("again", body(A));
+        reopen();
+        assertEquals("again", body(A));
+    }
+
+    @Test
+    void tornRecordEndsTheSegmentAndIsOverwritten() throws Exception {
+        reopen();
+        put(A, "first");
+        put(B, "second");
+        tier.flush();
+        tier.shutdown(2_000);
+        try (FileChannel segment = FileChannel.open(tier.segmentPath(0), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            segment.read(length, 0);
+            int second = length.flip().getInt(); // B's record follows A's
+            segment.write(ByteBuffer.wrap(new byte[]{'X'}), second + 30); // As if the crash hit mid-write
+        }
+
+        reopen();
+        assertEquals("first", body(A));
+        assertNull(body(B));
+
+        put(C, "third");
+        tier.flush();
+        reopen();
+        assertEquals("first", body(A));
+        assertNull(body(B));
+        assertEquals("third", body(C));
+    }
+
+    @Test
+    void dropsOldestSegmentWhenFull() throws Exception {
+        reopen();
+        String body = "x".repeat(20_000);
+        for (int i = 0; i < 60; i++) {
+            put("http://example.com/" + i, body);
+            tier.flush(); // The queue holds 16 writes, more would be dropped
+        }
+
+        assertTrue(tier.getSegmentsDropped() > 0);
+        assertTrue(tier.getBytesUsed() <= tier.getMaxBytes());
+        assertNull(body("http://example.com/0"));
+        assertEquals(body, body("http://example.com/59"));
+        assertEquals(0, tier.getDroppedWrites());
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.demo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DomainTrieTest {
+
+    @Test
+    void exactRuleMatchesOnlyTheHost() {
+        DomainTrie trie = DomainTrie.build(List.of("example.com"));
+
+        assertTrue(trie.matches("example.com"));
+        assertTrue(trie.matches("Example.COM."));
+        assertFalse(trie.matches("www.example.com"));
+        assertFalse(trie.matches("com"));
+        assertFalse(trie.matches("notexample.com"));
+    }
+
+    @Test
+    void wildcardRuleMatchesOnlySubdomains() {
+        DomainTrie trie = DomainTrie.build(List.of("*.example.com"));
+
+        assertTrue(trie.matches("www.example.com"));
+        assertTrue(trie.matches("a.b.example.com"));
+        assertFalse(trie.matches("example.com"));
+    }
+
+    @Test
+    void dotRuleMatchesDomainAndSubdomains() {
+        DomainTrie trie = DomainTrie.build(List.of(".example.com"));
+
+        assertTrue(trie.matches("example.com"));
+        assertTrue(trie.matches("www.example.com"));
+        assertFalse(trie.matches("example.org"));
+        assertEquals(2, trie.size());
+    }
+
+    @Test
+    void skipsInvalidRules() {
+        DomainTrie trie = DomainTrie.build(List.of("", "a..com", "ex*mple.com", "*", "valid.com"));
+
+        assertEquals(1, trie.size());
+        assertTrue(trie.matches("valid.com"));
+        assertFalse(trie.matches(""));
+        assertFalse(trie.matches(null));
+    }
+
+    @Test
+    void withAndWithoutLeaveTheOriginalUnchanged() {
+        DomainTrie original = DomainTrie.build(List.of("a.com"));
+
+        DomainTrie added = original.with("*.b.com");
+        DomainTrie removed = added.without("a.com");
+
+        assertTrue(original.matches("a.com"));
+        assertFalse(original.matches("x.b.com"));
+        assertTrue(added.matches("a.com"));
+        assertTrue(added.matches("x.b.com"));
+        assertFalse(removed.matches("a.com"));
+        assertTrue(removed.matches("x.b.com"));
+        assertEquals(1, original.size());
+        assertEquals(2, added.size());
+        assertEquals(1, removed.size());
+    }
+
+    @Test
+    void unchangedTrieIsReturnedForNoOps() {
+        DomainTrie trie = DomainTrie.build(List.of("a.com"));
+
+        assertSame(trie, trie.with("a.com"));
+        assertSame(trie, trie.with("bad..rule"));
+        assertSame(trie, trie.without("b.com"));
+    }
+
+    @Test
+    void removingHalfOfDotRuleKeepsTheOtherHalf() {
+        DomainTrie trie = DomainTrie.build(List.of(".example.com")).without("*.example.com");
+
+        assertTrue(trie.matches("example.com"));
+        assertFalse(trie.matches("www.example.com"));
+        assertTrue(trie.containsRule("example.com"));
+        assertFalse(trie.containsRule(".example.com"));
+        assertEquals(1, trie.size());
+    }
+
+    @Test
+    void removingLastRuleEmptiesTheTrie() {
+        DomainTrie trie = DomainTrie.EMPTY.with("a.b.com").without("a.b.com");
+
+        assertEquals(0, trie.size());
+        assertFalse(trie.matches("a.b.com"));
+        assertFalse(trie.matches("b.com"));
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.demo;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HttpResponseHeadTest {
+
+    private static InputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static String rest(InputStream in) throws IOException {
+        return new String(in.readAllBytes(), StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    void readsHeadAndLeavesBodyInStream() throws IOException {
+        InputStream in = stream("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nSet-Cookie: a=1\r\nset-cookie: b=2\r\n\r\nbody");
+
+        HttpResponseHead head = HttpResponseHead.read(in);
+
+        assertEquals(200, head.getStatusCode());
+        assertEquals("text/plain", head.getHeader("content-type"));
+        assertEquals("a=1, b=2", head.getHeader("Set-Cookie"));
+        assertEquals(3, head.getHeaderLines().size());
+        assertEquals("body", rest(in));
+    }
+
+    @Test
+    void returnsNullOnClosedStreamAndFailsOnTruncatedHead() throws IOException {
+        assertNull(HttpResponseHead.read(stream("")));
+        assertThrows(EOFException.class, () -> HttpResponseHead.read(stream("HTTP/1.1 200 OK\r\nContent-Length: 3\r\n")));
+        assertThrows(IOException.class, () -> HttpResponseHead.read(stream("garbage\r\n\r\n")));
+    }
+
+    @Test
+    void copiesExactlyContentLengthBytes() throws IOException {
+        InputStream in = stream("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhelloHTTP/1.1 204 No Content\r\n\r\n");
+        HttpResponseHead head = HttpResponseHead.read(in);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        assertEquals(5, head.copyBody(in, body, "GET"));
+        assertEquals("hello", body.toString(StandardCharsets.ISO_8859_1));
+        assertFalse(head.isDelimitedByClose("GET"));
+        assertEquals(204, HttpResponseHead.read(in).getStatusCode()); // The next response on the connection
+    }
+
+    @Test
+    void failsWhenContentLengthBodyIsCutShort() throws IOException {
+        InputStream in = stream("HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\nhello");
+        HttpResponseHead head = HttpResponseHead.read(in);
+
+        assertThrows(EOFException.class, () -> head.copyBody(in, new ByteArrayOutputStream(), "GET"));
+    }
+
+    @Test
+    void copiesChunkedBodyWithTrailersVerbatim() throws IOException {
+        String chunked = "5;ext=1\r\nhello\r\n6\r\n world\r\n0\r\nExpires: never\r\n\r\n";
+        InputStream in = stream("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n" + chunked + "next");
+        HttpResponseHead head = HttpResponseHead.read(in);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        assertTrue(head.isChunked());
+        assertEquals(chunked.length(), head.copyBody(in, body, "GET"));
+        assertEquals(chunked, body.toString(StandardCharsets.ISO_8859_1));
+        assertEquals("next", rest(in));
+    }
+
+    @Test
+    void rejectsMalformedChunks() throws IOException {
+        String[] bodies = {"zz\r\n", "3\r\nabcX\r\n0\r\n\r\n", "3\r\nab"};
+        for (String chunked : bodies) {
+            InputStream in = stream("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n" + chunked);
+            HttpResponseHead head = HttpResponseHead.read(in);
+            assertThrows(IOException.class, () -> head.copyBody(in, new ByteArrayOutputStream(), "GET"), chunked);
+        }
+    }
+
+    @Test
+    void responsesWithoutBody() throws IOException {
+        HttpResponseHead notModified = HttpResponseHead.read(stream("HTTP/1.1 304 Not Modified\r\nContent-Length: 100\r\n\r\n"));
+        HttpResponseHead ok = HttpResponseHead.read(stream("HTTP/1.1 200 OK\r\nContent-Length: 100\r\n\r\n"));
+
+        assertFalse(notModified.hasBody("GET"));
+        assertFalse(ok.hasBody("HEAD"));
+        assertEquals(0, ok.copyBody(stream("ignored"), new ByteArrayOutputStream(), "HEAD"));
+    }
+
+    @Test
+    void bodyWithoutLengthRunsUntilClose() throws IOException {
+        InputStream in = stream("HTTP/1.1 200 OK\r\n\r\nuntil the end");
+        HttpResponseHead head = HttpResponseHead.read(in);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        assertTrue(head.isDelimitedByClose("GET"));
+        head.copyBody(in, body, "GET");
+        assertEquals("until the end", body.toString(StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    void persistenceFollowsVersionAndConnectionHeader() throws IOException {
+        assertTrue(HttpResponseHead.read(stream("HTTP/1.1 200 OK\r\n\r\n")).isPersistent());
+        assertFalse(HttpResponseHead.read(stream("HTTP/1.1 200 OK\r\nConnection: close\r\n\r\n")).isPersistent());
+        assertFalse(HttpResponseHead.read(stream("HTTP/1.0 200 OK\r\n\r\n")).isPersistent());
+        assertTrue(HttpResponseHead.read(stream("HTTP/1.0 200 OK\r\nConnection: Keep-Alive\r\n\r\n")).isPersistent());
+    }
+
+    @Test
+    void unusableContentLengthCountsAsMissing() throws IOException {
+        assertEquals(-1, HttpResponseHead.read(stream("HTTP/1.1 200 OK\r\nContent-Length: abc\r\n\r\n")).getContentLength());
+        assertEquals(7, HttpResponseHead.read(stream("HTTP/1.1 200 OK\r\nContent-Length: 7, 7\r\n\r\n")).getContentLength());
+    }
+
+    @Test
+    void replacesHopByHopHeadersWhenEncoded() throws IOException {
+        HttpResponseHead head = HttpResponseHead.read(stream("HTTP/1.1 200 OK\r\nConnection: close\r\nKeep-Alive: timeout=5\r\nX-A: 1\r\n\r\n"));
+
+        String encoded = new String(head.toBytes(true), StandardCharsets.ISO_8859_1);
+
+        assertEquals("HTTP/1.1 200 OK\r\nX-A: 1\r\nConnection: keep-alive\r\n\r\n", encoded);
+    }
+
+    @Test
+    void withHeaderReplacesEveryOccurrence() throws IOException {
+        HttpResponseHead head = HttpResponseHead.read(stream("HTTP/1.1 200 OK\r\nAge: 1\r\nX-A: 1\r\nage: 2\r\n\r\n"));
+
+        HttpResponseHead replaced = head.withHeader("Age", "10");
+
+        assertEquals("10", replaced.getHeader("Age"));
+        assertEquals(2, replaced.getHeaderLines().size());
+        assertEquals("1, 2", head.getHeader("Age"));
+    }
+}
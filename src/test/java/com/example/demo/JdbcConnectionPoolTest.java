@@ -0,0 +1,284 @@
+package com.example.demo;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JdbcConnectionPoolTest {
+    private final List<StubConnection> physical = new ArrayList<>();
+    private JdbcConnectionPool pool;
+
+    @AfterEach
+    void closePool() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    private JdbcConnectionPool pool(int maxSize, long acquireTimeoutMillis, long idleTimeoutMillis, long validateAfterMillis, int statementCacheSize) {
+        pool = new JdbcConnectionPool(() -> {
+            StubConnection connection = new StubConnection();
+            physical.add(connection);
+            return connection.proxy;
+        }, maxSize, acquireTimeoutMillis, idleTimeoutMillis, validateAfterMillis, statementCacheSize);
+        return pool;
+    }
+
+    @Test
+    void timesOutWhenEveryConnectionIsOut() throws SQLException {
+        pool(1, 50, 60_000, 60_000, 10);
+        Connection first = pool.getConnection();
+
+        assertThrows(SQLTimeoutException.class, pool::getConnection);
+        assertEquals(1, pool.getTimeouts());
+
+        first.close();
+        try (Connection again = pool.getConnection()) {
+            assertFalse(again.isClosed());
+        }
+        assertEquals(1, pool.getOpened());
+        assertEquals(1, pool.getReused());
+    }
+
+    @Test
+    void returnedConnectionCannotBeUsed() throws SQLException {
+        pool(1, 50, 60_000, 60_000, 10);
+        Connection connection = pool.getConnection();
+        connection.close();
+
+        assertTrue(connection.isClosed());
+        assertThrows(SQLException.class, () -> connection.prepareStatement("SELECT 1"));
+    }
+
+    @Test
+    void validatesConnectionsIdleLongerThanValidateAfter() throws SQLException {
+        pool(1, 50, 60_000, 0, 10);
+        pool.getConnection().close();
+        physical.get(0).valid = false;
+
+        pool.getConnection().close();
+
+        assertEquals(1, physical.get(0).isValidCalls);
+        assertTrue(physical.get(0).closed);
+        assertEquals(1, pool.getDiscarded());
+        assertEquals(2, pool.getOpened());
+    }
+
+    @Test
+    void skipsValidationOfRecentlyUsedConnections() throws SQLException {
+        pool(1, 50, 60_000, 60_000, 10);
+        pool.getConnection().close();
+        physical.get(0).valid = false;
+
+        pool.getConnection().close();
+
+        assertEquals(0, physical.get(0).isValidCalls);
+        assertEquals(1, pool.getReused());
+    }
+
+    @Test
+    void closesConnectionsIdleLongerThanIdleTimeout() throws Exception {
+        pool(1, 50, 50, 60_000, 10);
+        pool.getConnection().close();
+        assertEquals(1, pool.getIdle());
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!physical.get(0).closed && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+
+        assertTrue(physical.get(0).closed);
+        assertEquals(0, pool.getIdle());
+    }
+
+    @Test
+    void discardsConnectionAfterConnectionException() throws SQLException {
+        pool(1, 50, 60_000, 60_000, 10);
+        Connection connection = pool.getConnection();
+        physical.get(0).failure = new SQLException("Connection reset", "08006");
+
+        assertThrows(SQLException.class, connection::createStatement);
+        connection.close();
+
+        assertTrue(physical.get(0).closed);
+        assertEquals(1, pool.getDiscarded());
+        pool.getConnection().close();
+        assertEquals(2, pool.getOpened());
+    }
+
+    @Test
+    void keepsConnectionAfterOtherErrors() throws SQLException {
+        pool(1, 50, 60_000, 60_000, 10);
+        Connection connection = pool.getConnection();
+        physical.get(0).failure = new SQLException("Syntax error", "42601");
+
+        assertThrows(SQLException.class, connection::createStatement);
+        connection.close();
+
+        assertFalse(physical.get(0).closed);
+        assertEquals(0, pool.getDiscarded());
+    }
+
+    @Test
+    void rollsBackAndRestoresAutoCommitOnReturn() throws SQLException {
+        pool(1, 50, 60_000, 60_000, 10);
+        Connection connection = pool.getConnection();
+        connection.setAutoCommit(false);
+
+        connection.close();
+
+        assertEquals(1, physical.get(0).rollbacks);
+        assertTrue(physical.get(0).autoCommit);
+        try (Connection again = pool.getConnection()) {
+            assertTrue(again.getAutoCommit());
+        }
+    }
+
+    @Test
+    void reusesCachedStatementAcrossBorrowers() throws SQLException {
+        pool(1, 50, 60_000, 60_000, 10);
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT 1")) {
+            statement.setString(1, "a");
+        }
+        try (Connection connection = pool.getConnection()) {
+            connection.prepareStatement("SELECT 1").close();
+        }
+
+        StubConnection stub = physical.get(0);
+        assertEquals(1, stub.prepared.size());
+        assertFalse(stub.prepared.get(0).closed);
+        assertEquals(2, stub.prepared.get(0).clearParametersCalls);
+        assertEquals(1, pool.getStatementCacheHits());
+        assertEquals(1, pool.getStatementCacheMisses());
+    }
+
+    @Test
+    void preparesDuplicateWhileCachedStatementIsInUse() throws SQLException {
+        pool(1, 50, 60_000, 60_000, 10);
+        try (Connection connection = pool.getConnection();
+             PreparedStatement first = connection.prepareStatement("SELECT 1");
+             PreparedStatement second = connection.prepareStatement("SELECT 1")) {
+            assertNotSame(first, second);
+        }
+
+        StubConnection stub = physical.get(0);
+        assertEquals(2, stub.prepared.size());
+        assertFalse(stub.prepared.get(0).closed);
+        assertTrue(stub.prepared.get(1).closed); // The duplicate isn't cached
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedStatement() throws SQLException {
+        pool(1, 50, 60_000, 60_000, 1);
+        try (Connection connection = pool.getConnection()) {
+            connection.prepareStatement("SELECT 1").close();
+            connection.prepareStatement("SELECT 2").close();
+            connection.prepareStatement("SELECT 1").close();
+        }
+
+        StubConnection stub = physical.get(0);
+        assertEquals(3, stub.prepared.size());
+        assertTrue(stub.prepared.get(0).closed);
+        assertTrue(stub.prepared.get(1).closed);
+        assertFalse(stub.prepared.get(2).closed);
+        assertEquals(0, pool.getStatementCacheHits());
+    }
+
+    @Test
+    void statementCanReachItsConnection() throws SQLException {
+        pool(1, 50, 60_000, 60_000, 10);
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT 1")) {
+            assertSame(connection, statement.getConnection());
+        }
+    }
+
+    /**
+     * Records what the pool does to a physical connection.
+     */
+    private static final class StubConnection implements InvocationHandler {
+        final Connection proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, this);
+        final List<StubStatement> prepared = new ArrayList<>();
+        boolean autoCommit = true;
+        boolean closed;
+        boolean valid = true;
+        int isValidCalls;
+        int rollbacks;
+        SQLException failure; // Thrown by createStatement
+
+        @Override
+        public Object invoke(Object target, Method method, Object[] args) throws SQLException {
+            switch (method.getName()) {
+                case "getAutoCommit":
+                    return autoCommit;
+                case "setAutoCommit":
+                    autoCommit = (Boolean) args[0];
+                    return null;
+                case "rollback":
+                    rollbacks++;
+                    return null;
+                case "clearWarnings":
+                    return null;
+                case "isValid":
+                    isValidCalls++;
+                    return valid;
+                case "close":
+                    closed = true;
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "prepareStatement":
+                    StubStatement statement = new StubStatement();
+                    prepared.add(statement);
+                    return statement.proxy;
+                case "createStatement":
+                    if (failure != null) {
+                        throw failure;
+                    }
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        }
+    }
+
+    private static final class StubStatement implements InvocationHandler {
+        final PreparedStatement proxy = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class}, this);
+        boolean closed;
+        int clearParametersCalls;
+
+        @Override
+        public Object invoke(Object target, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "close":
+                    closed = true;
+                    return null;
+                case "clearParameters":
+                    clearParametersCalls++;
+                    return null;
+                case "clearBatch":
+                case "setString":
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        }
+    }
+}
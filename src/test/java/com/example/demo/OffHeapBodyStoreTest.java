@@ -0,0 +1,174 @@
+package com.example.demo;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OffHeapBodyStoreTest {
+    private static final int SLAB_BYTES = 1024 * OffHeapBodyStore.PAGE_SIZE;
+
+    private final OffHeapBodyStore store = new OffHeapBodyStore(SLAB_BYTES);
+
+    private static byte[] content(int length, int seed) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i * 31 + seed);
+        }
+        return bytes;
+    }
+
+    private static byte[] read(OffHeapBody body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(out);
+        return out.toByteArray();
+    }
+
+    @Test
+    void storesBytesAcrossPages() throws IOException {
+        byte[] bytes = content(3 * OffHeapBodyStore.PAGE_SIZE + 17, 1);
+
+        OffHeapBody body = store.copyOf(ByteBuffer.wrap(bytes));
+
+        assertEquals(bytes.length, body.length());
+        assertEquals(4L * OffHeapBodyStore.PAGE_SIZE, body.getCapacity());
+        assertEquals(body.getCapacity(), store.getUsedBytes()); // Unused batch pages went back
+        assertArrayEquals(bytes, read(body));
+        body.release();
+    }
+
+    @Test
+    void writerGrowingPageByPageReturnsItsSparePages() throws IOException {
+        OffHeapBodyStore.Writer writer = store.newWriter();
+        byte[] bytes = content(10 * OffHeapBodyStore.PAGE_SIZE, 2);
+        for (int off = 0; off < bytes.length; off += 1000) {
+            assertTrue(writer.append(bytes, off, Math.min(1000, bytes.length - off)));
+        }
+
+        OffHeapBody body = writer.finish();
+
+        assertEquals(10L * OffHeapBodyStore.PAGE_SIZE, store.getUsedBytes());
+        assertArrayEquals(bytes, read(body));
+        body.release();
+        assertEquals(0, store.getUsedBytes());
+    }
+
+    @Test
+    void freesPagesOnLastRelease() {
+        OffHeapBody body = store.copyOf(ByteBuffer.wrap(content(100, 3)));
+        assertTrue(body.retain());
+
+        body.release();
+        assertEquals(OffHeapBodyStore.PAGE_SIZE, store.getUsedBytes());
+        body.release();
+
+        assertEquals(0, store.getUsedBytes());
+        assertFalse(body.retain());
+        assertThrows(IllegalStateException.class, body::release);
+    }
+
+    @Test
+    void sharesIdenticalContent() throws IOException {
+        byte[] bytes = content(5000, 4);
+        OffHeapBody first = store.copyOf(ByteBuffer.wrap(bytes));
+
+        OffHeapBody second = store.copyOf(ByteBuffer.wrap(bytes));
+        OffHeapBody other = store.copyOf(ByteBuffer.wrap(content(5000, 5)));
+
+        assertSame(first, second);
+        assertNotSame(first, other);
+        assertEquals(1, store.getDeduplicated());
+        assertEquals(2, store.getDistinctBodies());
+        assertEquals(first.getCapacity() + other.getCapacity(), store.getUsedBytes());
+
+        first.release();
+        assertArrayEquals(bytes, read(second)); // Still referenced by the second copy
+        second.release();
+        other.release();
+        assertEquals(0, store.getDistinctBodies());
+        assertEquals(0, store.getUsedBytes());
+    }
+
+    @Test
+    void doesNotShareAFreedBody() {
+        byte[] bytes = content(100, 6);
+        OffHeapBody first = store.copyOf(ByteBuffer.wrap(bytes));
+        first.release();
+
+        OffHeapBody second = store.copyOf(ByteBuffer.wrap(bytes));
+
+        assertNotSame(first, second);
+        assertEquals(0, store.getDeduplicated());
+        second.release();
+    }
+
+    @Test
+    void failsWhenFullAndReusesFreedPages() {
+        OffHeapBody full = store.copyOf(ByteBuffer.wrap(content(SLAB_BYTES, 7)));
+        assertNotNull(full);
+
+        assertNull(store.copyOf(ByteBuffer.wrap(content(1, 8))));
+        assertEquals(SLAB_BYTES, store.getUsedBytes());
+
+        full.release();
+        OffHeapBody again = store.copyOf(ByteBuffer.wrap(content(1, 8)));
+        assertNotNull(again);
+        assertEquals(SLAB_BYTES, store.getAllocatedBytes()); // No second slab
+        again.release();
+    }
+
+    @Test
+    void abandonedWriterGivesEverythingBack() {
+        OffHeapBodyStore.Writer writer = store.newWriter();
+        writer.append(content(3 * OffHeapBodyStore.PAGE_SIZE, 9), 0, 3 * OffHeapBodyStore.PAGE_SIZE);
+
+        writer.abandon();
+
+        assertEquals(0, store.getUsedBytes());
+        assertNull(writer.finish());
+    }
+
+    @Test
+    void concurrentWritersAndReadersKeepTheirBytes() throws Exception {
+        OffHeapBodyStore large = new OffHeapBodyStore(4L * SLAB_BYTES);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int seed = t;
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        byte[] bytes = content(1 + (i * 7919) % (6 * OffHeapBodyStore.PAGE_SIZE), seed * 1000 + i);
+                        OffHeapBody body = large.copyOf(ByteBuffer.wrap(bytes));
+                        assertArrayEquals(bytes, read(body));
+                        body.release();
+                        Thread.yield();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(0, large.getUsedBytes());
+    }
+}
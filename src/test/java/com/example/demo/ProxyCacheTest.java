@@ -0,0 +1,161 @@
+package com.example.demo;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProxyCacheTest {
+    private static final long ENTRY_WEIGHT = 4200; // One body page, the head and the key, rounded up
+    private final OffHeapBodyStore store = new OffHeapBodyStore(4L * 1024 * 1024);
+    private int bodies;
+
+    private CachedResources entry(int pages) throws IOException {
+        byte[] content = new byte[pages * OffHeapBodyStore.PAGE_SIZE - 100];
+        ByteBuffer.wrap(content).putInt(bodies++); // Distinct content, so bodies aren't shared
+        HttpResponseHead head = new HttpResponseHead("HTTP/1.1 200 OK", List.<String[]>of(new String[]{"ETag", "\"1\""}));
+        return new CachedResources(URI.create("http://example.com/").toURL(), head, store.copyOf(ByteBuffer.wrap(content)), 0, 0);
+    }
+
+    private void put(ProxyCache cache, String key) throws IOException {
+        CachedResources value = entry(1);
+        cache.put(key, value);
+        value.release();
+    }
+
+    private static boolean contains(ProxyCache cache, String key) {
+        CachedResources value = cache.get(key);
+        if (value == null) {
+            return false;
+        }
+        value.release();
+        return true;
+    }
+
+    @Test
+    void staysWithinMaxWeight() throws IOException {
+        ProxyCache cache = new ProxyCache(10 * ENTRY_WEIGHT);
+        for (int i = 0; i < 50; i++) {
+            put(cache, "key-" + i);
+        }
+
+        assertTrue(cache.getWeight() <= cache.getMaxWeight());
+        assertEquals(10, cache.size());
+        assertEquals(40, cache.getEvictions());
+    }
+
+    @Test
+    void rejectsEntryLargerThanTheCache() throws IOException {
+        ProxyCache cache = new ProxyCache(ENTRY_WEIGHT);
+        CachedResources value = entry(2);
+        cache.put("big", value);
+        value.release();
+
+        assertEquals(1, cache.getRejections());
+        assertEquals(0, cache.size());
+        assertNull(cache.get("big"));
+    }
+
+    @Test
+    void oneHitWondersDoNotDisplaceFrequentEntries() throws IOException {
+        ProxyCache cache = new ProxyCache(10 * ENTRY_WEIGHT);
+        for (int i = 0; i < 10; i++) {
+            String key = "warm-" + i;
+            for (int miss = 0; miss < 4; miss++) {
+                assertNull(cache.get(key)); // Misses raise the frequency too
+            }
+            put(cache, key);
+        }
+
+        for (int i = 0; i < 50; i++) {
+            put(cache, "cold-" + i);
+        }
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(contains(cache, "warm-" + i), "warm-" + i);
+        }
+        assertEquals(10, cache.size());
+        assertEquals(50, cache.getEvictions());
+    }
+
+    @Test
+    void admitsNewKeyMoreFrequentThanTheVictim() throws IOException {
+        ProxyCache cache = new ProxyCache(10 * ENTRY_WEIGHT);
+        for (int i = 0; i < 10; i++) {
+            put(cache, "old-" + i);
+        }
+        for (int miss = 0; miss < 4; miss++) {
+            assertNull(cache.get("new-0"));
+        }
+
+        put(cache, "new-0");
+
+        assertTrue(cache.getFrequency("new-0") > cache.getFrequency("old-0"));
+        assertTrue(contains(cache, "new-0"));
+        assertFalse(contains(cache, "old-0"));
+    }
+
+    @Test
+    void keepsEntryAccessedTwiceThroughAScan() throws IOException {
+        ProxyCache cache = new ProxyCache(10 * ENTRY_WEIGHT);
+        put(cache, "hot");
+        assertTrue(contains(cache, "hot")); // Promoted to the protected segment
+
+        for (int i = 0; i < 50; i++) {
+            put(cache, "scan-" + i);
+        }
+
+        assertTrue(contains(cache, "hot"));
+    }
+
+    @Test
+    void countsSharedBodyOnce() throws IOException {
+        ProxyCache cache = new ProxyCache(10 * ENTRY_WEIGHT);
+        CachedResources first = entry(1);
+        first.getBody().retain();
+        CachedResources second = new CachedResources(first.getUrl(), first.getHead(), first.getBody(), 0, 0);
+
+        cache.put("a", first);
+        cache.put("b", second);
+        first.release();
+        second.release();
+
+        assertEquals(2, cache.size());
+        assertTrue(cache.getWeight() < 2 * first.getBody().getCapacity());
+    }
+
+    @Test
+    void removeDropsTheEntry() throws IOException {
+        ProxyCache cache = new ProxyCache(10 * ENTRY_WEIGHT);
+        put(cache, "key");
+
+        cache.remove("key");
+
+        assertNull(cache.get("key"));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    void returnsRetainedReference() throws IOException {
+        ProxyCache cache = new ProxyCache(10 * ENTRY_WEIGHT);
+        put(cache, "key");
+        CachedResources value = cache.get("key");
+        assertNotNull(value);
+
+        cache.remove("key");
+
+        assertTrue(value.retain()); // The reader's reference keeps the body alive past removal
+        value.release();
+        value.release();
+        assertFalse(value.retain());
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.demo;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestCoalescerTest {
+    private static final String KEY = "http://example.com/";
+
+    private static HttpResponseHead head() throws IOException {
+        return new HttpResponseHead("HTTP/1.1 200 OK", List.<String[]>of(new String[]{"Content-Length", "10"}));
+    }
+
+    /**
+     * What ServerHandler does for a follower: write the head, stream the body, and always give the slot back.
+     */
+    private static void serveFollower(RequestCoalescer.Flight follower, OutputStream client) throws IOException, InterruptedException {
+        try {
+            HttpResponseHead head = follower.awaitHead();
+            if (head == null) {
+                return;
+            }
+            client.write(head.toBytes(true));
+            follower.streamBody(client);
+        } finally {
+            follower.leave();
+        }
+    }
+
+    private static void awaitNoFollowers(RequestCoalescer.Flight leader) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (leader.hasFollowers() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    void followerReceivesTheLeadersBody() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(1024);
+        RequestCoalescer.Flight leader = coalescer.join(KEY);
+        RequestCoalescer.Flight follower = coalescer.join(KEY);
+        assertTrue(leader.isLeader());
+        assertFalse(follower.isLeader());
+
+        ByteArrayOutputStream followerClient = new ByteArrayOutputStream();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> served = executor.submit(() -> {
+                follower.awaitHead();
+                follower.streamBody(followerClient);
+                return null;
+            });
+            leader.publishHead(head(), true);
+            OutputStream recorder = leader.recorder(new ByteArrayOutputStream());
+            recorder.write("0123456789".getBytes(StandardCharsets.ISO_8859_1));
+            leader.finish(true);
+            served.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals("0123456789", followerClient.toString(StandardCharsets.ISO_8859_1));
+        assertFalse(leader.hasFollowers());
+        assertEquals(0, coalescer.getInFlightCount());
+    }
+
+    @Test
+    void lateArrivalStartsItsOwnFlightOnceNobodyShares() throws IOException {
+        RequestCoalescer coalescer = new RequestCoalescer(1024);
+        RequestCoalescer.Flight leader = coalescer.join(KEY);
+        leader.publishHead(head(), true);
+        leader.recorder(new ByteArrayOutputStream()).write(new byte[4]); // No followers: stops recording
+
+        RequestCoalescer.Flight late = coalescer.join(KEY);
+
+        assertTrue(late.isLeader());
+        assertNotSame(leader, late);
+    }
+
+    @Test
+    void declinedResponseReleasesFollowers() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(1024);
+        RequestCoalescer.Flight leader = coalescer.join(KEY);
+        RequestCoalescer.Flight follower = coalescer.join(KEY);
+
+        leader.publishHead(head(), false);
+
+        assertNull(follower.awaitHead());
+        assertFalse(leader.hasFollowers());
+        assertEquals(0, coalescer.getInFlightCount());
+    }
+
+    @Test
+    void followerFailsWhenBodyOutgrowsTheLimit() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(8);
+        RequestCoalescer.Flight leader = coalescer.join(KEY);
+        RequestCoalescer.Flight follower = coalescer.join(KEY);
+        leader.publishHead(head(), true);
+
+        leader.recorder(new ByteArrayOutputStream()).write(new byte[10]);
+
+        assertNotNull(follower.awaitHead());
+        assertThrows(IOException.class, () -> follower.streamBody(new ByteArrayOutputStream()));
+        assertFalse(leader.hasFollowers());
+    }
+
+    @Test
+    void followerWhoseHeadWriteFailsGivesItsSlotBack() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(1024);
+        RequestCoalescer.Flight leader = coalescer.join(KEY);
+        RequestCoalescer.Flight follower = coalescer.join(KEY);
+        leader.publishHead(head(), true);
+
+        assertThrows(IOException.class, () -> serveFollower(follower, new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Connection reset");
+            }
+        }));
+
+        assertFalse(leader.hasFollowers());
+        leader.recorder(new ByteArrayOutputStream()).write(new byte[4]);
+        assertEquals(0, coalescer.getInFlightCount()); // Stopped recording for nobody
+    }
+
+    @Test
+    void followerWhoseSocketDiesGivesItsSlotBack() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(1024 * 1024);
+        RequestCoalescer.Flight leader = coalescer.join(KEY);
+        RequestCoalescer.Flight follower = coalescer.join(KEY);
+
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             Socket client = new Socket(server.getInetAddress(), server.getLocalPort())) {
+            try (Socket accepted = server.accept()) {
+                accepted.setSoLinger(true, 0); // Reset, like a browser tab closed mid-response
+            }
+            OutputStream followerSocket = client.getOutputStream();
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                Future<?> served = executor.submit(() -> {
+                    serveFollower(follower, followerSocket);
+                    return null;
+                });
+                leader.publishHead(head(), true);
+                ByteArrayOutputStream leaderClient = new ByteArrayOutputStream();
+                OutputStream recorder = leader.recorder(leaderClient);
+                byte[] chunk = new byte[16 * 1024];
+                for (int i = 0; i < 64 && leader.hasFollowers(); i++) {
+                    recorder.write(chunk); // The follower fails on the head or on the first blocks
+                    Thread.sleep(5);
+                }
+                awaitNoFollowers(leader);
+
+                ExecutionException failure = assertThrows(ExecutionException.class, () -> served.get(5, TimeUnit.SECONDS));
+                assertInstanceOf(IOException.class, failure.getCause());
+                assertFalse(leader.hasFollowers());
+
+                recorder.write(chunk); // Alone now: nothing more is recorded
+                assertEquals(0, coalescer.getInFlightCount());
+                assertTrue(coalescer.join(KEY).isLeader());
+                leader.finish(true);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    void leaderWithDeadClientStopsOnceTheLastFollowerLeaves() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(1024);
+        RequestCoalescer.Flight leader = coalescer.join(KEY);
+        RequestCoalescer.Flight follower = coalescer.join(KEY);
+        leader.publishHead(head(), true);
+        OutputStream recorder = leader.recorder(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        });
+
+        recorder.write(new byte[4]); // A follower still needs the body
+        follower.leave();
+        follower.leave(); // Idempotent
+
+        assertFalse(leader.hasFollowers());
+        assertThrows(IOException.class, () -> recorder.write(new byte[4]));
+    }
+}
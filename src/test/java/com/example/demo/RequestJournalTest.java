@@ -0,0 +1,220 @@
+package com.example.demo;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestJournalTest {
+    private static final List<Object[]> committedRows = Collections.synchronizedList(new ArrayList<>());
+    private static volatile Object[] checkpoint; // Committed segment and position
+    private static int executeBatchCalls;
+
+    private final Customer customer = new Customer(7, "user", "password", true, null);
+
+    @TempDir
+    Path directory;
+
+    @BeforeEach
+    void resetDatabase() {
+        committedRows.clear();
+        checkpoint = null;
+        synchronized (RequestJournalTest.class) {
+            executeBatchCalls = 0;
+        }
+    }
+
+    @Test
+    void replaysEveryEntryOnceAcrossRestart() throws Exception {
+        RequestJournal journal = open();
+        for (int i = 0; i < 1000; i++) {
+            if (i == 500) {
+                journal.shutdown(2_000);
+                journal = open();
+            }
+            assertTrue(journal.log(entry(i, "/p/")));
+        }
+        awaitRows(1000);
+        journal.shutdown(2_000);
+
+        Set<Long> seen = new HashSet<>();
+        for (Object[] row : new ArrayList<>(committedRows)) {
+            long i = ((Timestamp) row[1]).getTime() - 1000;
+            assertEquals("/p/" + i, row[4]);
+            assertEquals(7, row[7]);
+            assertTrue(seen.add(i), "replayed twice: " + i);
+        }
+        assertEquals(1000, seen.size());
+        assertTrue(journal.segmentNumbers().size() <= 2, "replayed segments weren't deleted: " + journal.segmentNumbers());
+    }
+
+    @Test
+    void restartsFromOldestSegmentWhenCheckpointIsAhead() throws Exception {
+        RequestJournal journal = open();
+        for (int i = 0; i < 200; i++) {
+            journal.log(entry(i, "/p/"));
+        }
+        awaitRows(200);
+        journal.shutdown(2_000);
+        for (long number : journal.segmentNumbers()) {
+            Files.delete(journal.segmentPath(number)); // The checkpoint now points past every segment on disk
+        }
+
+        committedRows.clear();
+        journal = open();
+        for (int i = 0; i < 100; i++) {
+            journal.log(entry(i, "/q/"));
+        }
+        awaitRows(100);
+        journal.shutdown(2_000);
+
+        assertEquals(100, committedRows.size());
+    }
+
+    private RequestJournal open() throws IOException {
+        return RequestJournal.open(directory, 8192, 1 << 30, 50, 20, () -> new StubConnection().proxy);
+    }
+
+    private RequestLogEntry entry(int i, String pathPrefix) {
+        return new RequestLogEntry(new Date(1000L + i), "10.0.0." + (i % 3), "d" + (i % 7) + ".com", pathPrefix + i, "GET", 200, customer);
+    }
+
+    private static void awaitRows(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (committedRows.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(RequestJournalTest.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    private static Object defaultValue(Method method) {
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    /**
+     * A connection that only makes rows and the checkpoint visible on commit, and fails every fifth batch.
+     */
+    private static final class StubConnection implements InvocationHandler {
+        final Connection proxy = RequestJournalTest.proxy(Connection.class, this);
+        final List<Object[]> pendingRows = new ArrayList<>();
+        Object[] pendingCheckpoint;
+        boolean autoCommit = true;
+
+        @Override
+        public Object invoke(Object target, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "getAutoCommit":
+                    return autoCommit;
+                case "setAutoCommit":
+                    autoCommit = (Boolean) args[0];
+                    return null;
+                case "commit":
+                    committedRows.addAll(pendingRows);
+                    if (pendingCheckpoint != null) {
+                        checkpoint = pendingCheckpoint;
+                    }
+                    // Fall through
+                case "rollback":
+                    pendingRows.clear();
+                    pendingCheckpoint = null;
+                    return null;
+                case "isValid":
+                    return true;
+                case "createStatement":
+                    return RequestJournalTest.proxy(Statement.class, (statement, statementMethod, statementArgs) -> defaultValue(statementMethod));
+                case "prepareStatement":
+                    return prepareStatement();
+                case "hashCode":
+                    return System.identityHashCode(target);
+                case "equals":
+                    return target == args[0];
+                default:
+                    return defaultValue(method);
+            }
+        }
+
+        private PreparedStatement prepareStatement() {
+            Object[] parameters = new Object[8];
+            List<Object[]> batch = new ArrayList<>();
+            return RequestJournalTest.proxy(PreparedStatement.class, (target, method, args) -> {
+                String name = method.getName();
+                if (name.startsWith("set") && args != null && args.length == 2 && args[0] instanceof Integer index) {
+                    parameters[index] = args[1];
+                    return null;
+                }
+                switch (name) {
+                    case "clearBatch":
+                        batch.clear();
+                        return null;
+                    case "addBatch":
+                        batch.add(parameters.clone());
+                        return null;
+                    case "executeBatch":
+                        synchronized (RequestJournalTest.class) {
+                            if (++executeBatchCalls % 5 == 0) {
+                                throw new SQLException("Connection reset", "08006");
+                            }
+                        }
+                        pendingRows.addAll(batch);
+                        batch.clear();
+                        return new int[0];
+                    case "executeUpdate":
+                        pendingCheckpoint = new Object[]{parameters[2], parameters[3]};
+                        return 1;
+                    case "executeQuery":
+                        return checkpointResult(checkpoint);
+                    default:
+                        return defaultValue(method);
+                }
+            });
+        }
+
+        private static ResultSet checkpointResult(Object[] row) {
+            boolean[] read = {false};
+            return RequestJournalTest.proxy(ResultSet.class, (target, method, args) -> switch (method.getName()) {
+                case "next" -> {
+                    boolean hasRow = row != null && !read[0];
+                    read[0] = true;
+                    yield hasRow;
+                }
+                case "getLong" -> ((Number) row[0]).longValue();
+                case "getInt" -> ((Number) row[1]).intValue();
+                default -> defaultValue(method);
+            });
+        }
+    }
+}
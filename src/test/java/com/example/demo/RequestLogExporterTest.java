@@ -0,0 +1,83 @@
+package com.example.demo;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RequestLogExporterTest {
+    private static final Timestamp DATE = Timestamp.from(Instant.parse("2024-01-02T03:04:05Z"));
+    private static final List<Object[]> ROWS = List.of(
+            new Object[]{DATE, "10.0.0.1", "example.com", "/a,b\"c\"\nd\re", "GET", 200, 7},
+            new Object[]{DATE, "10.0.0.1", null, "/x\\y\tz\u0001", "POST", 404, 7});
+
+    private final RequestLogExporter exporter = new RequestLogExporter(null, null, null, null, () -> connection(ROWS));
+
+    @Test
+    void quotesCsvFieldsOnlyWhenNeeded() throws Exception {
+        StringWriter out = new StringWriter();
+
+        assertEquals(2, exporter.export(out, RequestLogExporter.Format.CSV));
+
+        assertEquals("date,client_ip,domain,resource_path,method,status_code,customer_id\n"
+                + "2024-01-02T03:04:05Z,10.0.0.1,example.com,\"/a,b\"\"c\"\"\nd\re\",GET,200,7\n"
+                + "2024-01-02T03:04:05Z,10.0.0.1,,/x\\y\tz\u0001,POST,404,7\n", out.toString());
+    }
+
+    @Test
+    void escapesNdjsonStrings() throws Exception {
+        StringWriter out = new StringWriter();
+
+        assertEquals(2, exporter.export(out, RequestLogExporter.Format.NDJSON));
+
+        assertEquals("{\"date\":\"2024-01-02T03:04:05Z\",\"client_ip\":\"10.0.0.1\",\"domain\":\"example.com\","
+                + "\"resource_path\":\"/a,b\\\"c\\\"\\nd\\re\",\"method\":\"GET\",\"status_code\":200,\"customer_id\":7}\n"
+                + "{\"date\":\"2024-01-02T03:04:05Z\",\"client_ip\":\"10.0.0.1\",\"domain\":null,"
+                + "\"resource_path\":\"/x\\\\y\\tz\\u0001\",\"method\":\"POST\",\"status_code\":404,\"customer_id\":7}\n", out.toString());
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(RequestLogExporterTest.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    private static Object defaultValue(Method method) {
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        return null;
+    }
+
+    /**
+     * A connection whose every query returns {@code rows}.
+     */
+    private static Connection connection(List<Object[]> rows) {
+        return proxy(Connection.class, (connection, method, args) -> method.getName().equals("prepareStatement")
+                ? proxy(PreparedStatement.class, (statement, statementMethod, statementArgs) -> statementMethod.getName().equals("executeQuery")
+                        ? resultSet(rows)
+                        : defaultValue(statementMethod))
+                : defaultValue(method));
+    }
+
+    private static ResultSet resultSet(List<Object[]> rows) {
+        int[] row = {-1};
+        return proxy(ResultSet.class, (target, method, args) -> switch (method.getName()) {
+            case "next" -> ++row[0] < rows.size();
+            case "getTimestamp", "getString", "getInt" -> rows.get(row[0])[(Integer) args[0] - 1];
+            default -> defaultValue(method);
+        });
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.demo;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimingWheelTest {
+    private final TimingWheel wheel = TimingWheel.start(5);
+
+    @AfterEach
+    void stopWheel() {
+        wheel.shutdown();
+    }
+
+    @Test
+    void runsTaskNoEarlierThanItsDelay() throws InterruptedException {
+        CountDownLatch ran = new CountDownLatch(1);
+        long start = System.currentTimeMillis();
+        long[] ranAt = new long[1];
+
+        wheel.schedule(50, () -> {
+            ranAt[0] = System.currentTimeMillis();
+            ran.countDown();
+        });
+
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertTrue(ranAt[0] - start >= 50, "ran after " + (ranAt[0] - start) + " ms");
+        assertEquals(0, wheel.getPending());
+    }
+
+    @Test
+    void runsTasksInDeadlineOrderAcrossWheels() throws InterruptedException {
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        CountDownLatch ran = new CountDownLatch(3);
+        // 400 ms is 80 ticks, past the first wheel's 64, so it is cascaded down before it runs
+        wheel.schedule(400, () -> {
+            order.add(3);
+            ran.countDown();
+        });
+        wheel.schedule(20, () -> {
+            order.add(1);
+            ran.countDown();
+        });
+        wheel.schedule(200, () -> {
+            order.add(2);
+            ran.countDown();
+        });
+
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(1, 2, 3), order);
+    }
+
+    @Test
+    void cancelledTaskNeverRuns() throws InterruptedException {
+        CountDownLatch cancelledRan = new CountDownLatch(1);
+        CountDownLatch laterRan = new CountDownLatch(1);
+        TimingWheel.Timeout timeout = wheel.schedule(20, cancelledRan::countDown);
+
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+        assertTrue(timeout.isCancelled());
+        wheel.schedule(60, laterRan::countDown);
+
+        assertTrue(laterRan.await(5, TimeUnit.SECONDS));
+        assertEquals(1, cancelledRan.getCount());
+        assertEquals(0, wheel.getPending());
+    }
+
+    @Test
+    void keepsRunningAfterFailingTask() throws InterruptedException {
+        CountDownLatch ran = new CountDownLatch(1);
+        wheel.schedule(10, () -> {
+            throw new IllegalStateException("expected by the test");
+        });
+        wheel.schedule(30, ran::countDown);
+
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void coarseClockFollowsWallClock() throws InterruptedException {
+        Thread.sleep(50);
+        long lag = System.currentTimeMillis() - wheel.currentTimeMillis();
+
+        assertTrue(lag >= 0 && lag < 1000, "clock lags by " + lag + " ms");
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.demo;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TrafficRollupTest {
+    private static final int RECORDERS = 4;
+
+    private final List<Object[]> committedRows = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger executeBatchCalls = new AtomicInteger();
+
+    @Test
+    void countsEveryRequestOnceAcrossEndedBuckets() throws Exception {
+        TrafficRollup rollup = TrafficRollup.start(1000, 1, () -> new StubConnection().proxy); // Flushes back to back
+        long[] recorded = new long[RECORDERS];
+        ExecutorService executor = Executors.newFixedThreadPool(RECORDERS);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            long deadline = System.currentTimeMillis() + 2_200; // At least two buckets end while recording
+            for (int t = 0; t < RECORDERS; t++) {
+                int recorder = t;
+                results.add(executor.submit(() -> {
+                    while (System.currentTimeMillis() < deadline) {
+                        rollup.record(7, "10.0.0." + (recorder % 2), "Example.com", 200, 3);
+                        recorded[recorder]++;
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        rollup.shutdown(2_000);
+        rollup.flush(); // One of two batches in a row succeeds, the counts a failed one kept go out with the other
+        rollup.flush();
+
+        long expected = 0;
+        for (long count : recorded) {
+            expected += count;
+        }
+        long requests = 0;
+        long bytes = 0;
+        long status2xx = 0;
+        Set<Long> buckets = new HashSet<>();
+        for (Object[] row : new ArrayList<>(committedRows)) {
+            assertEquals("example.com", row[3]);
+            assertEquals(7, row[4]);
+            buckets.add(((Timestamp) row[1]).getTime());
+            requests += (Long) row[5];
+            bytes += (Long) row[6];
+            status2xx += (Long) row[7];
+        }
+        assertEquals(expected, requests);
+        assertEquals(3 * expected, bytes);
+        assertEquals(expected, status2xx);
+        assertTrue(buckets.size() >= 2, "no bucket ended while recording: " + buckets);
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(TrafficRollupTest.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    private static Object defaultValue(Method method) {
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    /**
+     * A connection that only makes rows visible on commit, and fails every third batch.
+     */
+    private final class StubConnection implements InvocationHandler {
+        final Connection proxy = TrafficRollupTest.proxy(Connection.class, this);
+        final List<Object[]> pendingRows = new ArrayList<>();
+
+        @Override
+        public Object invoke(Object target, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "commit":
+                    committedRows.addAll(pendingRows);
+                    // Fall through
+                case "rollback":
+                    pendingRows.clear();
+                    return null;
+                case "createStatement":
+                    return TrafficRollupTest.proxy(Statement.class, (statement, statementMethod, statementArgs) -> defaultValue(statementMethod));
+                case "prepareStatement":
+                    return prepareStatement();
+                case "hashCode":
+                    return System.identityHashCode(target);
+                case "equals":
+                    return target == args[0];
+                default:
+                    return defaultValue(method);
+            }
+        }
+
+        private PreparedStatement prepareStatement() {
+            Object[] parameters = new Object[11];
+            List<Object[]> batch = new ArrayList<>();
+            return TrafficRollupTest.proxy(PreparedStatement.class, (target, method, args) -> {
+                String name = method.getName();
+                if (name.startsWith("set") && args != null && args.length == 2 && args[0] instanceof Integer index) {
+                    parameters[index] = args[1];
+                    return null;
+                }
+                switch (name) {
+                    case "addBatch":
+                        batch.add(parameters.clone());
+                        return null;
+                    case "executeBatch":
+                        if (executeBatchCalls.incrementAndGet() % 3 == 0) {
+                            throw new SQLException("Connection reset", "08006");
+                        }
+                        pendingRows.addAll(batch);
+                        batch.clear();
+                        return new int[0];
+                    default:
+                        return defaultValue(method);
+                }
+            });
+        }
+    }
+}